@@ -0,0 +1,114 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.api;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ning.billing.payment.plugin.api.PaymentInfoPlugin;
+import com.ning.killbill.zuora.util.Either;
+import com.ning.killbill.zuora.zuora.PaymentConverter;
+import com.ning.killbill.zuora.zuora.ZuoraError;
+import com.ning.killbill.zuora.zuora.ZuoraErrorConverter;
+
+import com.zuora.api.object.Payment;
+
+/**
+ * Wrapping of the zuora results into {@link Either} and their conversion through {@link ZuoraApiBase#convert},
+ * which every plugin api call goes through.
+ * <p/>
+ * Lives in the api package so it can call the protected ZuoraApiBase helpers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EitherBenchmark {
+
+    private final ZuoraErrorConverter errorConverter = new ZuoraErrorConverter();
+    private final PaymentConverter paymentConverter = new PaymentConverter();
+
+    private Payment payment;
+    private ZuoraError error;
+    private Either<ZuoraError, Payment> paymentOrError;
+    private Either<ZuoraError, Payment> errorOrPayment;
+    private Either<ZuoraError, List<Payment>> paymentsOrError;
+
+    @Setup
+    public void setup() {
+        final DateTime now = new DateTime(2013, 2, 14, 10, 30, 0, 0, DateTimeZone.UTC);
+        payment = new Payment();
+        payment.setId("2c92c0f93c1e3e5e013c2e1b0c8e7d21");
+        payment.setAmount(new BigDecimal("19.99"));
+        payment.setCreatedDate(now);
+        payment.setEffectiveDate(now);
+        payment.setStatus("Processed");
+
+        error = new ZuoraError(ZuoraError.ERROR_UNAVAILABLE, "rate limit reached");
+
+        paymentOrError = Either.right(payment);
+        errorOrPayment = Either.left(error);
+
+        final List<Payment> payments = new ArrayList<Payment>();
+        for (int i = 0; i < 10; i++) {
+            payments.add(payment);
+        }
+        paymentsOrError = Either.right(payments);
+    }
+
+    @Benchmark
+    public Either<ZuoraError, Payment> wrapRight() {
+        return Either.right(payment);
+    }
+
+    @Benchmark
+    public Either<ZuoraError, Payment> wrapLeft() {
+        return Either.left(error);
+    }
+
+    @Benchmark
+    public Either<ZuoraError, PaymentInfoPlugin> convertRight() {
+        return ZuoraApiBase.convert(paymentOrError, errorConverter, paymentConverter);
+    }
+
+    @Benchmark
+    public Either<ZuoraError, PaymentInfoPlugin> convertLeft() {
+        return ZuoraApiBase.convert(errorOrPayment, errorConverter, paymentConverter);
+    }
+
+    @Benchmark
+    public Either<ZuoraError, List<PaymentInfoPlugin>> convertList() {
+        return ZuoraApiBase.convertList(paymentsOrError, errorConverter, paymentConverter);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ning.billing.payment.api.PaymentMethodPlugin;
+import com.ning.billing.payment.plugin.api.PaymentInfoPlugin;
+import com.ning.billing.payment.plugin.api.PaymentMethodInfoPlugin;
+import com.ning.killbill.zuora.dao.entities.PaymentMethodEntity;
+import com.ning.killbill.zuora.zuora.PaymentConverter;
+import com.ning.killbill.zuora.zuora.PaymentMethodConverter;
+import com.ning.killbill.zuora.zuora.PaymentMethodInfoConverter;
+
+import com.zuora.api.object.Account;
+import com.zuora.api.object.Payment;
+import com.zuora.api.object.PaymentMethod;
+
+/**
+ * Conversion of the zuora objects returned by the SOAP calls into the Kill Bill plugin api objects.
+ * <p/>
+ * The converted objects are consumed (i.e. their getters called) like Kill Bill does, since most of the
+ * conversions are lazy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConverterBenchmark {
+
+    // Number of payment methods on the account, PaymentMethodInfoConverter does a linear scan of them
+    @Param({"1", "10"})
+    public int numPaymentMethods;
+
+    private Payment payment;
+    private PaymentMethod creditCard;
+    private PaymentMethod paypal;
+    private PaymentConverter paymentConverter;
+    private PaymentMethodConverter paymentMethodConverter;
+    private PaymentMethodInfoConverter paymentMethodInfoConverter;
+
+    @Setup
+    public void setup() {
+        final DateTime now = new DateTime(2013, 2, 14, 10, 30, 0, 0, DateTimeZone.UTC);
+
+        payment = new Payment();
+        payment.setId("2c92c0f93c1e3e5e013c2e1b0c8e7d21");
+        payment.setAccountId("2c92c0f83c1de760013c2e1a7f0a6a3e");
+        payment.setAmount(new BigDecimal("19.99"));
+        payment.setCreatedDate(now);
+        payment.setEffectiveDate(now);
+        payment.setStatus("Processed");
+        payment.setGatewayResponse("Approved");
+        payment.setGatewayResponseCode("100");
+        payment.setReferenceId("4609358431590176056470");
+        payment.setSecondPaymentReferenceId("123456");
+
+        creditCard = new PaymentMethod();
+        creditCard.setId("2c92c0f83c1de760013c2e1a80116a43");
+        creditCard.setAccountId(payment.getAccountId());
+        creditCard.setType("CreditCard");
+        creditCard.setCreditCardHolderName("Jane Doe");
+        creditCard.setCreditCardType("Visa");
+        creditCard.setCreditCardMaskNumber("************1111");
+        creditCard.setCreditCardExpirationMonth(3);
+        creditCard.setCreditCardExpirationYear(2016);
+        creditCard.setCreditCardAddress1("1 Market St");
+        creditCard.setCreditCardCity("San Francisco");
+        creditCard.setCreditCardState("CA");
+        creditCard.setCreditCardPostalCode("94105");
+        creditCard.setCreditCardCountry("United States");
+
+        paypal = new PaymentMethod();
+        paypal.setId("2c92c0f83c1de760013c2e1a80116a44");
+        paypal.setAccountId(payment.getAccountId());
+        paypal.setType("PayPal");
+        paypal.setPaypalBaid("B-5YX42281HL376752T");
+        paypal.setPaypalEmail("jane@example.com");
+
+        final Account account = new Account();
+        account.setId(payment.getAccountId());
+        account.setDefaultPaymentMethodId(creditCard.getId());
+
+        final List<PaymentMethodEntity> paymentMethods = new ArrayList<PaymentMethodEntity>();
+        for (int i = 1; i < numPaymentMethods; i++) {
+            paymentMethods.add(new PaymentMethodEntity(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "2c92c0f83c1de760013c2e1a801" + i, false));
+        }
+        // Worst case for the scan: the looked up payment method is the last one
+        paymentMethods.add(new PaymentMethodEntity(UUID.randomUUID().toString(), UUID.randomUUID().toString(), creditCard.getId(), true));
+
+        paymentConverter = new PaymentConverter();
+        paymentMethodConverter = new PaymentMethodConverter(account);
+        paymentMethodInfoConverter = new PaymentMethodInfoConverter(UUID.randomUUID(), creditCard.getId(), paymentMethods);
+    }
+
+    @Benchmark
+    public void payment(final Blackhole blackhole) {
+        final PaymentInfoPlugin info = paymentConverter.convert(payment);
+        blackhole.consume(info.getStatus());
+        blackhole.consume(info.getAmount());
+        blackhole.consume(info.getCreatedDate());
+        blackhole.consume(info.getEffectiveDate());
+        blackhole.consume(info.getGatewayError());
+        blackhole.consume(info.getGatewayErrorCode());
+        blackhole.consume(info.getFirstPaymentReferenceId());
+        blackhole.consume(info.getSecondPaymentReferenceId());
+    }
+
+    @Benchmark
+    public PaymentMethodPlugin creditCardPaymentMethod() {
+        return paymentMethodConverter.convert(creditCard);
+    }
+
+    @Benchmark
+    public PaymentMethodPlugin paypalPaymentMethod() {
+        return paymentMethodConverter.convert(paypal);
+    }
+
+    @Benchmark
+    public void paymentMethodInfo(final Blackhole blackhole) {
+        final PaymentMethodInfoPlugin info = paymentMethodInfoConverter.convert(creditCard);
+        blackhole.consume(info.getPaymentMethodId());
+        blackhole.consume(info.isDefault());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ning.billing.payment.api.PaymentMethodPlugin;
+import com.ning.killbill.zuora.http.PaymentMethodJson;
+import com.ning.killbill.zuora.http.PaymentMethodJson.PaymentMethodPluginDetailJson;
+import com.ning.killbill.zuora.http.ZuoraPaymentJson;
+import com.ning.killbill.zuora.osgi.ZuoraActivator;
+import com.ning.killbill.zuora.zuora.PaymentMethodConverter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.joda.JodaModule;
+import com.zuora.api.object.Account;
+import com.zuora.api.object.PaymentMethod;
+
+/**
+ * JSON responses of the ZuoraHttpServlet routes: the payment methods listing and the invoice last payment.
+ * <p/>
+ * The mapper is configured like the one built by the activator and shared by the servlet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonSerializationBenchmark {
+
+    @Param({"1", "5"})
+    public int numPaymentMethods;
+
+    private ObjectMapper mapper;
+    private List<PaymentMethodPlugin> zuoraPms;
+    private ZuoraPaymentJson zuoraPaymentJson;
+
+    @Setup
+    public void setup() {
+        mapper = new ObjectMapper();
+        mapper.registerModule(new JodaModule());
+
+        final Account account = new Account();
+        account.setId("2c92c0f83c1de760013c2e1a7f0a6a3e");
+        account.setDefaultPaymentMethodId("2c92c0f83c1de760013c2e1a801000");
+
+        final PaymentMethodConverter converter = new PaymentMethodConverter(account);
+        zuoraPms = new ArrayList<PaymentMethodPlugin>();
+        for (int i = 0; i < numPaymentMethods; i++) {
+            final PaymentMethod creditCard = new PaymentMethod();
+            creditCard.setId("2c92c0f83c1de760013c2e1a80100" + i);
+            creditCard.setAccountId(account.getId());
+            creditCard.setType("CreditCard");
+            creditCard.setCreditCardHolderName("Jane Doe");
+            creditCard.setCreditCardType("Visa");
+            creditCard.setCreditCardMaskNumber("************1111");
+            creditCard.setCreditCardExpirationMonth(3);
+            creditCard.setCreditCardExpirationYear(2016);
+            creditCard.setCreditCardAddress1("1 Market St");
+            creditCard.setCreditCardCity("San Francisco");
+            creditCard.setCreditCardState("CA");
+            creditCard.setCreditCardPostalCode("94105");
+            creditCard.setCreditCardCountry("United States");
+            zuoraPms.add(converter.convert(creditCard));
+        }
+
+        zuoraPaymentJson = new ZuoraPaymentJson(new DateTime(2013, 2, 14, 10, 30, 0, 0, DateTimeZone.UTC), "Processed", "Approved", "2c92c0f83c1de760013c2e1a801000");
+    }
+
+    // Same steps as ZuoraHttpServlet#handleGetPaymentMethods, minus the DAO lookup
+    @Benchmark
+    public byte[] paymentMethods() throws JsonProcessingException {
+        final List<PaymentMethodJson> result = new ArrayList<PaymentMethodJson>();
+        for (final PaymentMethodPlugin z : zuoraPms) {
+            final PaymentMethodPluginDetailJson detail = PaymentMethodPluginDetailJson.toPaymentMethodPluginDetailJson(z.getExternalPaymentMethodId(), z.getProperties());
+            result.add(new PaymentMethodJson(UUID.randomUUID().toString(), UUID.randomUUID().toString(), z.isDefaultPaymentMethod(), ZuoraActivator.PLUGIN_NAME, detail));
+        }
+        return mapper.writeValueAsBytes(result);
+    }
+
+    @Benchmark
+    public byte[] invoiceLastPayment() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(zuoraPaymentJson);
+    }
+}
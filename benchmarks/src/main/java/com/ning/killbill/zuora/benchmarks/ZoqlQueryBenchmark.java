@@ -0,0 +1,126 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ning.killbill.zuora.zuora.zoql.ZoqlProjection;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlQuery;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.Accounts;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.PaymentMethods;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.Payments;
+
+import com.zuora.api.object.Account;
+import com.zuora.api.object.Payment;
+import com.zuora.api.object.PaymentMethod;
+
+/**
+ * Rendering of the ZOQL queries issued on every payment call (account lookup, payment and payment methods listings).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZoqlQueryBenchmark {
+
+    private static final ZoqlProjection<Account> ACCOUNT_FIELDS = ZoqlProjection.builder(Accounts.OBJECT)
+                                                                                .add(Accounts.ID)
+                                                                                .add(Accounts.ACCOUNT_NUMBER)
+                                                                                .add(Accounts.AUTO_PAY)
+                                                                                .add(Accounts.DEFAULT_PAYMENT_METHOD_ID)
+                                                                                .add(Accounts.BALANCE)
+                                                                                .add(Accounts.BILL_CYCLE_DAY)
+                                                                                .add(Accounts.BILL_TO_ID)
+                                                                                .add(Accounts.CURRENCY)
+                                                                                .add(Accounts.PAYMENT_GATEWAY)
+                                                                                .add(Accounts.STATUS)
+                                                                                .build();
+
+    private static final ZoqlProjection<Payment> PAYMENT_FIELDS = ZoqlProjection.builder(Payments.OBJECT)
+                                                                                .add(Payments.ID)
+                                                                                .add(Payments.ACCOUNT_ID)
+                                                                                .add(Payments.AMOUNT)
+                                                                                .add(Payments.COMMENT)
+                                                                                .add(Payments.CREATED_DATE)
+                                                                                .add(Payments.EFFECTIVE_DATE)
+                                                                                .add(Payments.GATEWAY_RESPONSE)
+                                                                                .add(Payments.GATEWAY_RESPONSE_CODE)
+                                                                                .add(Payments.PAYMENT_METHOD_ID)
+                                                                                .add(Payments.REFERENCE_ID)
+                                                                                .add(Payments.SECOND_PAYMENT_REFERENCE_ID)
+                                                                                .add(Payments.STATUS)
+                                                                                .add(Payments.UPDATED_DATE)
+                                                                                .build();
+
+    private static final ZoqlProjection<PaymentMethod> PAYMENT_METHOD_FIELDS = ZoqlProjection.builder(PaymentMethods.OBJECT)
+                                                                                             .add(PaymentMethods.ID)
+                                                                                             .add(PaymentMethods.ACCOUNT_ID)
+                                                                                             .add(PaymentMethods.TYPE)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_HOLDER_NAME)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_ADDRESS1)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_ADDRESS2)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_CITY)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_STATE)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_POSTAL_CODE)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_COUNTRY)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_EXPIRATION_MONTH)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_EXPIRATION_YEAR)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_MASK_NUMBER)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_TYPE)
+                                                                                             .add(PaymentMethods.PAYPAL_BAID)
+                                                                                             .add(PaymentMethods.PAYPAL_EMAIL)
+                                                                                             .build();
+
+    // Account external keys are user supplied, the quote forces the escaping path
+    private final String accountNumber = "o'brien-2d7c0c4e-5a3b-4c1e-9b7f-3f0d1c2a6e58";
+    private final String zuoraAccountId = "2c92c0f83c1de760013c2e1a7f0a6a3e";
+    private final String zuoraPaymentId = "2c92c0f93c1e3e5e013c2e1b0c8e7d21";
+
+    @Benchmark
+    public String accountByNumber() {
+        return ZoqlQuery.select(ACCOUNT_FIELDS)
+                        .where(Accounts.ACCOUNT_NUMBER.eq(accountNumber))
+                        .and(Accounts.STATUS.eq("Active"))
+                        .build();
+    }
+
+    @Benchmark
+    public String paymentById() {
+        return ZoqlQuery.select(PAYMENT_FIELDS)
+                        .where(Payments.ID.eq(zuoraPaymentId))
+                        .build();
+    }
+
+    @Benchmark
+    public String paymentMethodsByAccount() {
+        return ZoqlQuery.select(PAYMENT_METHOD_FIELDS)
+                        .where(PaymentMethods.ACCOUNT_ID.eq(zuoraAccountId))
+                        .build();
+    }
+}
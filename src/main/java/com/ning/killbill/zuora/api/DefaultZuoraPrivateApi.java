@@ -17,6 +17,7 @@ import com.ning.killbill.zuora.killbill.DefaultKillbillApi;
 import com.ning.killbill.zuora.method.CreditCardProperties;
 import com.ning.killbill.zuora.method.PaymentMethodProperties;
 import com.ning.killbill.zuora.util.Either;
+import com.ning.killbill.zuora.zuora.Bulkhead;
 import com.ning.killbill.zuora.zuora.ConnectionPool;
 import com.ning.killbill.zuora.zuora.PaymentMethodConverter;
 import com.ning.killbill.zuora.zuora.ZuoraApi;
@@ -32,9 +33,9 @@ import static com.ning.killbill.zuora.api.ZuoraPaymentMethodPlugin.getValueStrin
 public class DefaultZuoraPrivateApi extends ZuoraApiBase implements ZuoraPrivateApi {
 
 
-    public DefaultZuoraPrivateApi(final ConnectionPool pool, final ZuoraApi api, final LogService logService,
+    public DefaultZuoraPrivateApi(final ConnectionPool pool, final Bulkhead bulkhead, final ZuoraApi api, final LogService logService,
                                   final DefaultKillbillApi defaultKillbillApi, final ZuoraPluginDao zuoraPluginDao, final String instanceName) {
-        super(pool, api, logService, defaultKillbillApi, zuoraPluginDao, instanceName);
+        super(pool, bulkhead, api, logService, defaultKillbillApi, zuoraPluginDao, instanceName);
 
     }
 
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.api;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+import com.ning.billing.catalog.api.Currency;
+import com.ning.billing.payment.api.PaymentMethodPlugin;
+import com.ning.billing.payment.plugin.api.PaymentInfoPlugin;
+import com.ning.billing.payment.plugin.api.PaymentMethodInfoPlugin;
+import com.ning.billing.payment.plugin.api.PaymentPluginApi;
+import com.ning.billing.payment.plugin.api.PaymentPluginApiException;
+import com.ning.billing.payment.plugin.api.RefundInfoPlugin;
+import com.ning.billing.util.callcontext.CallContext;
+import com.ning.billing.util.callcontext.TenantContext;
+import com.ning.killbill.zuora.tracing.Span;
+import com.ning.killbill.zuora.tracing.Tracer;
+
+/**
+ * Opens a trace per {@link PaymentPluginApi} call, correlated with the kbPaymentId (or the payment method or
+ * account id for the calls without payment), before delegating to the actual plugin api.
+ */
+public class TracingPaymentPluginApi implements PaymentPluginApi {
+
+    private final PaymentPluginApi delegate;
+    private final Tracer tracer;
+
+    public TracingPaymentPluginApi(final PaymentPluginApi delegate, final Tracer tracer) {
+        this.delegate = delegate;
+        this.tracer = tracer;
+    }
+
+    @Override
+    public PaymentInfoPlugin processPayment(final UUID kbAccountId, final UUID kbPaymentId, final UUID kbPaymentMethodId, final BigDecimal amount, final Currency currency, final CallContext context) throws PaymentPluginApiException {
+        final Span span = tracer.startTrace("processPayment", kbPaymentId.toString());
+        try {
+            return delegate.processPayment(kbAccountId, kbPaymentId, kbPaymentMethodId, amount, currency, context);
+        } finally {
+            span.finish();
+        }
+    }
+
+    @Override
+    public PaymentInfoPlugin getPaymentInfo(final UUID kbAccountId, final UUID kbPaymentId, final TenantContext context) throws PaymentPluginApiException {
+        final Span span = tracer.startTrace("getPaymentInfo", kbPaymentId.toString());
+        try {
+            return delegate.getPaymentInfo(kbAccountId, kbPaymentId, context);
+        } finally {
+            span.finish();
+        }
+    }
+
+    @Override
+    public RefundInfoPlugin processRefund(final UUID kbAccountId, final UUID kbPaymentId, final BigDecimal refundAmount, final Currency currency, final CallContext context) throws PaymentPluginApiException {
+        final Span span = tracer.startTrace("processRefund", kbPaymentId.toString());
+        try {
+            return delegate.processRefund(kbAccountId, kbPaymentId, refundAmount, currency, context);
+        } finally {
+            span.finish();
+        }
+    }
+
+    @Override
+    public List<RefundInfoPlugin> getRefundInfo(final UUID kbAccountId, final UUID kbPaymentId, final TenantContext context) throws PaymentPluginApiException {
+        final Span span = tracer.startTrace("getRefundInfo", kbPaymentId.toString());
+        try {
+            return delegate.getRefundInfo(kbAccountId, kbPaymentId, context);
+        } finally {
+            span.finish();
+        }
+    }
+
+    @Override
+    public void addPaymentMethod(final UUID kbAccountId, final UUID kbPaymentMethodId, final PaymentMethodPlugin paymentMethodProps,
+                                 final boolean setDefault, final CallContext context) throws PaymentPluginApiException {
+        final Span span = tracer.startTrace("addPaymentMethod", kbPaymentMethodId.toString());
+        try {
+            delegate.addPaymentMethod(kbAccountId, kbPaymentMethodId, paymentMethodProps, setDefault, context);
+        } finally {
+            span.finish();
+        }
+    }
+
+    @Override
+    public void deletePaymentMethod(final UUID kbAccountId, final UUID kbPaymentMethodId, final CallContext context) throws PaymentPluginApiException {
+        final Span span = tracer.startTrace("deletePaymentMethod", kbPaymentMethodId.toString());
+        try {
+            delegate.deletePaymentMethod(kbAccountId, kbPaymentMethodId, context);
+        } finally {
+            span.finish();
+        }
+    }
+
+    @Override
+    public PaymentMethodPlugin getPaymentMethodDetail(final UUID kbAccountId, final UUID kbPaymentMethodId, final TenantContext context) throws PaymentPluginApiException {
+        final Span span = tracer.startTrace("getPaymentMethodDetail", kbPaymentMethodId.toString());
+        try {
+            return delegate.getPaymentMethodDetail(kbAccountId, kbPaymentMethodId, context);
+        } finally {
+            span.finish();
+        }
+    }
+
+    @Override
+    public void setDefaultPaymentMethod(final UUID kbAccountId, final UUID kbPaymentMethodId, final CallContext context) throws PaymentPluginApiException {
+        final Span span = tracer.startTrace("setDefaultPaymentMethod", kbPaymentMethodId.toString());
+        try {
+            delegate.setDefaultPaymentMethod(kbAccountId, kbPaymentMethodId, context);
+        } finally {
+            span.finish();
+        }
+    }
+
+    @Override
+    public List<PaymentMethodInfoPlugin> getPaymentMethods(final UUID kbAccountId, final boolean refreshFromGateway, final CallContext context) throws PaymentPluginApiException {
+        final Span span = tracer.startTrace("getPaymentMethods", kbAccountId.toString());
+        try {
+            return delegate.getPaymentMethods(kbAccountId, refreshFromGateway, context);
+        } finally {
+            span.finish();
+        }
+    }
+
+    @Override
+    public void resetPaymentMethods(final UUID kbAccountId, final List<PaymentMethodInfoPlugin> paymentMethods) throws PaymentPluginApiException {
+        final Span span = tracer.startTrace("resetPaymentMethods", kbAccountId.toString());
+        try {
+            delegate.resetPaymentMethods(kbAccountId, paymentMethods);
+        } finally {
+            span.finish();
+        }
+    }
+}
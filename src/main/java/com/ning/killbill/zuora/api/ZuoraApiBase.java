@@ -3,12 +3,16 @@ package com.ning.killbill.zuora.api;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import org.osgi.service.log.LogService;
 
 import com.ning.killbill.zuora.dao.ZuoraPluginDao;
 import com.ning.killbill.zuora.killbill.DefaultKillbillApi;
 import com.ning.killbill.zuora.util.Either;
+import com.ning.killbill.zuora.zuora.Bulkhead;
 import com.ning.killbill.zuora.zuora.ConnectionPool;
+import com.ning.killbill.zuora.zuora.ConnectionPriority;
 import com.ning.killbill.zuora.zuora.Converter;
 import com.ning.killbill.zuora.zuora.IdentityConverter;
 import com.ning.killbill.zuora.zuora.PaymentConverter;
@@ -26,15 +30,18 @@ public class ZuoraApiBase  {
     protected final RefundConverter refundConverter = new RefundConverter();
     protected final IdentityConverter<String> stringConverter = new IdentityConverter<String>();
     protected final ConnectionPool pool;
+    // Null for the payment calls: they only rely on the connections the pool reserves for them
+    protected final Bulkhead bulkhead;
     protected final ZuoraApi zuoraApi;
     protected final String instanceName;
     protected final LogService logService;
     protected final ZuoraPluginDao zuoraPluginDao;
     protected final DefaultKillbillApi defaultKillbillApi;
 
-    public ZuoraApiBase(final ConnectionPool pool, final ZuoraApi zuoraApi, final LogService logService,
+    public ZuoraApiBase(final ConnectionPool pool, @Nullable final Bulkhead bulkhead, final ZuoraApi zuoraApi, final LogService logService,
                         final DefaultKillbillApi defaultKillbillApi, final ZuoraPluginDao zuoraPluginDao, final String instanceName) {
         this.pool = pool;
+        this.bulkhead = bulkhead;
         this.zuoraApi = zuoraApi;
         this.instanceName = instanceName;
         this.logService = logService;
@@ -43,18 +50,32 @@ public class ZuoraApiBase  {
     }
 
     protected <T> T withConnection(final ConnectionCallback<T> callback) {
-        final ZuoraConnection connection = pool.borrowFromPool();
+        return withConnection(ConnectionPriority.NORMAL, callback);
+    }
 
+    protected <T> T withConnection(final ConnectionPriority priority, final ConnectionCallback<T> callback) {
+        // Fails fast when the callers sharing our bulkhead already hold all their connections
+        if (bulkhead != null) {
+            bulkhead.acquire();
+        }
         try {
-            return callback.withConnection(connection);
-        } finally {
-            if (connection != null) {
-                try {
-                    pool.returnToPool(connection);
-                } catch (PoolException ex) {
-                    logService.log(LogService.LOG_INFO, "Error while returning a zuora connection to the pool", ex);
+            final ZuoraConnection connection = pool.borrowFromPool(priority);
+
+            try {
+                return callback.withConnection(connection);
+            } finally {
+                if (connection != null) {
+                    try {
+                        pool.returnToPool(connection);
+                    } catch (PoolException ex) {
+                        logService.log(LogService.LOG_INFO, "Error while returning a zuora connection to the pool", ex);
+                    }
                 }
             }
+        } finally {
+            if (bulkhead != null) {
+                bulkhead.release();
+            }
         }
     }
 
@@ -42,12 +42,15 @@ import com.ning.killbill.zuora.dao.entities.PaymentMethodEntity;
 import com.ning.killbill.zuora.killbill.DefaultKillbillApi;
 import com.ning.killbill.zuora.util.Either;
 import com.ning.killbill.zuora.zuora.ConnectionPool;
+import com.ning.killbill.zuora.zuora.ConnectionPriority;
 import com.ning.killbill.zuora.zuora.PaymentConverter;
 import com.ning.killbill.zuora.zuora.PaymentMethodConverter;
 import com.ning.killbill.zuora.zuora.PaymentMethodInfoConverter;
 import com.ning.killbill.zuora.zuora.ZuoraApi;
+import com.ning.killbill.zuora.zuora.ZuoraAsyncClient;
 import com.ning.killbill.zuora.zuora.ZuoraConnection;
 import com.ning.killbill.zuora.zuora.ZuoraError;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlProfile;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
@@ -57,10 +60,14 @@ import com.zuora.api.object.PaymentMethod;
 
 public class ZuoraPaymentPluginApi extends ZuoraApiBase implements PaymentPluginApi {
 
+    // Used to run the independent lookups of a payment concurrently, payments are processed sequentially if null
+    private final ZuoraAsyncClient asyncClient;
 
-    public ZuoraPaymentPluginApi(final ConnectionPool pool, final ZuoraApi api, final LogService logService, final DefaultKillbillApi defaultKillbillApi,
-                                 final ZuoraPluginDao zuoraPluginDao, final String instanceName) {
-        super(pool, api, logService, defaultKillbillApi, zuoraPluginDao, instanceName);
+    // No bulkhead: payments and refunds wait for the pool (maxWait), and are protected by its reserved connections
+    public ZuoraPaymentPluginApi(final ConnectionPool pool, @Nullable final ZuoraAsyncClient asyncClient, final ZuoraApi api, final LogService logService,
+                                 final DefaultKillbillApi defaultKillbillApi, final ZuoraPluginDao zuoraPluginDao, final String instanceName) {
+        super(pool, null, api, logService, defaultKillbillApi, zuoraPluginDao, instanceName);
+        this.asyncClient = asyncClient;
     }
 
 
@@ -69,7 +76,7 @@ public class ZuoraPaymentPluginApi extends ZuoraApiBase implements PaymentPlugin
 
 
         final String accountExternalKey = defaultKillbillApi.getAccountExternalKeyFromPaymentMethodId(kbPaymentMethodId, context);
-        final Either<ZuoraError, PaymentInfoPlugin> result = withConnection(new ConnectionCallback<Either<ZuoraError, PaymentInfoPlugin>>() {
+        final Either<ZuoraError, PaymentInfoPlugin> result = withConnection(ConnectionPriority.HIGH, new ConnectionCallback<Either<ZuoraError, PaymentInfoPlugin>>() {
             @Override
             public Either<ZuoraError, PaymentInfoPlugin> withConnection(final ZuoraConnection connection) {
 
@@ -94,7 +101,7 @@ public class ZuoraPaymentPluginApi extends ZuoraApiBase implements PaymentPlugin
                 }
 
 
-                Either<ZuoraError, Payment> rowPaymentOrError = zuoraApi.processPayment(connection, accountExternalKey, amount, kbPaymentId.toString());
+                Either<ZuoraError, Payment> rowPaymentOrError = zuoraApi.processPayment(connection, asyncClient, ConnectionPriority.HIGH, accountExternalKey, amount, kbPaymentId.toString());
                 if (rowPaymentOrError.isRight()) {
                     final Payment rowPayment = rowPaymentOrError.getRight();
                     if ("Processed".equals(rowPayment.getStatus())) {
@@ -204,31 +211,31 @@ public class ZuoraPaymentPluginApi extends ZuoraApiBase implements PaymentPlugin
     @Override
     public RefundInfoPlugin processRefund(final UUID kbAccountId, final UUID kbPaymentId, final BigDecimal refundAmount, final Currency currency, final CallContext context) throws PaymentPluginApiException {
 
-        final String accountExternalKey = defaultKillbillApi.getAccountExternalKeyFromPaymentId(kbPaymentId, context);
-        final Either<ZuoraError, RefundInfoPlugin> result = withConnection(new ConnectionCallback<Either<ZuoraError, RefundInfoPlugin>>() {
+        // Payments processed by the plugin are recorded locally with their zuora id, in which case zuora doesn't need to be searched
+        final PaymentEntity paymentEntity = zuoraPluginDao.getPayment(kbPaymentId.toString());
+        final String zuoraPaymentId = paymentEntity != null ? paymentEntity.getZuoraPaymentId() : null;
+        final String accountExternalKey = zuoraPaymentId != null ? null : defaultKillbillApi.getAccountExternalKeyFromPaymentId(kbPaymentId, context);
+        final Either<ZuoraError, RefundInfoPlugin> result = withConnection(ConnectionPriority.HIGH, new ConnectionCallback<Either<ZuoraError, RefundInfoPlugin>>() {
             @Override
             public Either<ZuoraError, RefundInfoPlugin> withConnection(final ZuoraConnection connection) {
-                final Either<ZuoraError, com.zuora.api.object.Account> accountOrError = zuoraApi.getByAccountName(connection, accountExternalKey);
+                if (zuoraPaymentId != null) {
+                    return convert(zuoraApi.createRefund(connection, zuoraPaymentId, kbPaymentId.toString(), refundAmount), errorConverter, refundConverter);
+                }
+
+                final Either<ZuoraError, com.zuora.api.object.Account> accountOrError = zuoraApi.getByAccountName(connection, accountExternalKey, ZoqlProfile.SUMMARY);
                 if (accountOrError.isLeft()) {
                     return Either.left(accountOrError.getLeft());
                 }
                 final String accountId = accountOrError.getRight().getId();
 
-                final Either<ZuoraError, List<com.zuora.api.object.Payment>> paymentsOrError = zuoraApi.getProcessedPaymentsForAccount(connection, accountId);
-                if (paymentsOrError.isLeft()) {
-                    return Either.left(paymentsOrError.getLeft());
-                }
-                com.zuora.api.object.Payment paymentToBeRefunded = null;
-                for (final com.zuora.api.object.Payment cur : paymentsOrError.getRight()) {
-
-                    if (cur.getComment() != null && cur.getComment().equals(kbPaymentId.toString())) {
-                        paymentToBeRefunded = cur;
-                        break;
+                final Either<ZuoraError, com.zuora.api.object.Payment> paymentOrError = zuoraApi.getProcessedPaymentForKillbillPayment(connection, accountId, kbPaymentId.toString());
+                if (paymentOrError.isLeft()) {
+                    if (ZuoraError.ERROR_NOTFOUND.equals(paymentOrError.getLeft().getType())) {
+                        return Either.left(new ZuoraError(ZuoraError.ERROR_NOTFOUND, "Can't find Payment object for refund"));
                     }
+                    return Either.left(paymentOrError.getLeft());
                 }
-                if (paymentToBeRefunded == null) {
-                    return Either.left(new ZuoraError(ZuoraError.ERROR_NOTFOUND, "Can't find Payment object for refund"));
-                }
+                final com.zuora.api.object.Payment paymentToBeRefunded = paymentOrError.getRight();
                 return convert(zuoraApi.createRefund(connection, paymentToBeRefunded.getId(), kbPaymentId.toString(), refundAmount), errorConverter, refundConverter);
             }
         });
@@ -380,7 +387,7 @@ public class ZuoraPaymentPluginApi extends ZuoraApiBase implements PaymentPlugin
         final Either<ZuoraError, List<PaymentMethodInfoPlugin>> result = withConnection(new ConnectionCallback<Either<ZuoraError, List<PaymentMethodInfoPlugin>>>() {
             @Override
             public Either<ZuoraError, List<PaymentMethodInfoPlugin>> withConnection(final ZuoraConnection connection) {
-                final Either<ZuoraError, com.zuora.api.object.Account> accountOrError = zuoraApi.getByAccountName(connection, accountExternalKey);
+                final Either<ZuoraError, com.zuora.api.object.Account> accountOrError = zuoraApi.getByAccountName(connection, accountExternalKey, ZoqlProfile.SUMMARY);
 
                 if (accountOrError.isLeft()) {
                     return convert(accountOrError, errorConverter, null);
@@ -390,7 +397,7 @@ public class ZuoraPaymentPluginApi extends ZuoraApiBase implements PaymentPlugin
                     final PaymentMethodInfoConverter converter = new PaymentMethodInfoConverter(kbAccountId, accountOrError.getRight().getDefaultPaymentMethodId(), pms);
 
                     final com.zuora.api.object.Account account = accountOrError.getRight();
-                    final Either<ZuoraError, List<PaymentMethod>> paymentMethodsOrError = zuoraApi.getPaymentMethodsForAccount(connection, account);
+                    final Either<ZuoraError, List<PaymentMethod>> paymentMethodsOrError = zuoraApi.getPaymentMethodsForAccount(connection, account, ZoqlProfile.SUMMARY);
 
                     return convertList(paymentMethodsOrError, errorConverter, converter);
                 }
@@ -0,0 +1,531 @@
+package com.ning.killbill.zuora.dao;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.osgi.service.log.LogService;
+
+import com.ning.killbill.zuora.dao.entities.PaymentEntity;
+import com.ning.killbill.zuora.dao.entities.PaymentMethodDetailEntity;
+import com.ning.killbill.zuora.dao.entities.PaymentMethodEntity;
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Takes the payment inserts off the payment threads: they are queued and written in batches by a background
+ * thread, at most maxDelay after being queued. Everything else goes straight to the wrapped dao.
+ * <p/>
+ * Queued payments are returned by getPayment until written. When the queue is full or the dao is stopped, inserts
+ * are made synchronously again. Payments which cannot be written (batch and single inserts failed, or stop) are
+ * appended to a journal file, replayed on the next start. Journaled payments which still can't be written while the
+ * database is up are moved to a quarantine file, so that they don't hold back the rest of the journal.
+ */
+public class WriteBehindZuoraPluginDao implements ZuoraPluginDao {
+
+    private static final String JOURNAL_SUFFIX = ".payments";
+    // Journaled payments which could not be written on replay either, left there for a manual fix
+    private static final String QUARANTINE_SUFFIX = ".quarantined";
+    private static final String NULL = "\\N";
+
+    private final ZuoraPluginDao delegate;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final File journalDir;
+    private final LogService logService;
+
+    private final BlockingQueue<PaymentEntity> queue;
+    // Queued payments by kbPaymentId
+    private final ConcurrentMap<String, PaymentEntity> pending = new ConcurrentHashMap<String, PaymentEntity>();
+    // Inserts hold the read lock while queueing, so that nothing gets queued once stop drained the queue
+    private final ReadWriteLock stopLock = new ReentrantReadWriteLock();
+    private final ExecutorService writer;
+    private final AtomicLong journalSequence = new AtomicLong();
+
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong synchronousCount = new AtomicLong();
+    private final AtomicLong journaledCount = new AtomicLong();
+
+    private volatile boolean stopped = true;
+
+    public WriteBehindZuoraPluginDao(final ZuoraPluginDao delegate, final ZuoraConfig config, final LogService logService) {
+        this(delegate,
+             config.getWriteBehindBatchSize(),
+             config.getWriteBehindMaxDelay().getMillis(),
+             config.getWriteBehindQueueSize(),
+             getJournalDir(config),
+             logService);
+    }
+
+    private static File getJournalDir(final ZuoraConfig config) {
+        // No default: the journal must survive a reboot, which e.g. java.io.tmpdir doesn't
+        if (config.getWriteBehindJournalDir() == null) {
+            throw new IllegalArgumentException("The zuora writeBehind.journalDir has to be set when writeBehind.enabled is");
+        }
+        return new File(config.getWriteBehindJournalDir());
+    }
+
+    public WriteBehindZuoraPluginDao(final ZuoraPluginDao delegate, final int batchSize, final long maxDelayMillis, final int queueSize,
+                                     final File journalDir, final LogService logService) {
+        this.delegate = delegate;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.journalDir = journalDir;
+        this.logService = logService;
+        this.queue = new LinkedBlockingQueue<PaymentEntity>(Math.max(1, queueSize));
+        this.writer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("zuora-write-behind-%d")
+                                                                                  .setDaemon(true)
+                                                                                  .build());
+    }
+
+    /**
+     * Writes the payments journaled by a previous run, then starts the background writes.
+     */
+    public void start() {
+        replayJournal();
+        stopped = false;
+        writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                writeQueuedPayments();
+            }
+        });
+    }
+
+    /**
+     * Writes the queued payments, journaling the ones which cannot be. The following inserts are synchronous.
+     */
+    public void stop() {
+        stopLock.writeLock().lock();
+        try {
+            stopped = true;
+        } finally {
+            stopLock.writeLock().unlock();
+        }
+
+        writer.shutdownNow();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                logService.log(LogService.LOG_WARNING, "The zuora write behind thread did not stop, draining the queue anyway");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        final List<PaymentEntity> remaining = new ArrayList<PaymentEntity>();
+        queue.drainTo(remaining);
+        for (int i = 0; i < remaining.size(); i += batchSize) {
+            write(remaining.subList(i, Math.min(remaining.size(), i + batchSize)));
+        }
+    }
+
+    @Override
+    public void insertPayment(final PaymentEntity p) {
+        stopLock.readLock().lock();
+        try {
+            if (!stopped) {
+                pending.put(p.getKbPaymentId(), p);
+                if (queue.offer(p)) {
+                    return;
+                }
+                pending.remove(p.getKbPaymentId(), p);
+            }
+        } finally {
+            stopLock.readLock().unlock();
+        }
+
+        synchronousCount.incrementAndGet();
+        delegate.insertPayment(p);
+    }
+
+    @Override
+    public void insertPayments(final List<PaymentEntity> payments) {
+        for (final PaymentEntity p : payments) {
+            insertPayment(p);
+        }
+    }
+
+    @Override
+    public PaymentEntity getPayment(final String kbPaymentId) {
+        final PaymentEntity queued = pending.get(kbPaymentId);
+        return queued != null ? queued : delegate.getPayment(kbPaymentId);
+    }
+
+    private void writeQueuedPayments() {
+        final List<PaymentEntity> batch = new ArrayList<PaymentEntity>(batchSize);
+        boolean interrupted = false;
+        while (!interrupted) {
+            batch.clear();
+            try {
+                batch.add(queue.take());
+
+                // Fill up the batch until the first payment of the batch waited maxDelay
+                final long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    final long remainingNanos = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remainingNanos <= 0) {
+                        break;
+                    }
+                    final PaymentEntity next = queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException ex) {
+                // Stopping: write what we have, stop drains the rest
+                interrupted = true;
+            }
+
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+        }
+    }
+
+    private void write(final List<PaymentEntity> batch) {
+        try {
+            delegate.insertPayments(batch);
+            writtenCount.addAndGet(batch.size());
+            batchCount.incrementAndGet();
+        } catch (RuntimeException ex) {
+            logService.log(LogService.LOG_WARNING, "Could not write a batch of " + batch.size() + " zuora payments, writing them one by one", ex);
+            writeOneByOne(batch);
+        } finally {
+            for (final PaymentEntity p : batch) {
+                pending.remove(p.getKbPaymentId(), p);
+            }
+        }
+    }
+
+    // So that a single bad payment doesn't take its whole batch to the journal
+    private void writeOneByOne(final List<PaymentEntity> batch) {
+        final List<PaymentEntity> failed = new ArrayList<PaymentEntity>();
+        for (final PaymentEntity p : batch) {
+            try {
+                delegate.insertPayment(p);
+                writtenCount.incrementAndGet();
+            } catch (RuntimeException ex) {
+                failed.add(p);
+            }
+        }
+        if (!failed.isEmpty()) {
+            journal(failed);
+        }
+    }
+
+    //
+    // The journal files hold one payment per line, fields tab separated; they are written to a temporary file
+    // first, so that a replay never sees a partial one.
+    //
+
+    private void journal(final List<PaymentEntity> payments) {
+        final String name = System.currentTimeMillis() + "-" + journalSequence.incrementAndGet() + JOURNAL_SUFFIX;
+        try {
+            writeJournal(new File(journalDir, name), toJournalLines(payments));
+            journaledCount.addAndGet(payments.size());
+            logService.log(LogService.LOG_WARNING, String.format("Journaled %d zuora payments to %s, they will be written on the next start", payments.size(), name));
+        } catch (IOException ex) {
+            // Last resort: the payments can still be found from zuora (see getPaymentInfo), log enough to do it by hand
+            final StringBuilder ids = new StringBuilder();
+            for (final PaymentEntity p : payments) {
+                ids.append(ids.length() == 0 ? "" : ", ").append(p.getKbPaymentId());
+            }
+            logService.log(LogService.LOG_ERROR, "Could not journal the zuora payments " + ids, ex);
+        }
+    }
+
+    // Replaces the file atomically
+    private void writeJournal(final File file, final List<String> lines) throws IOException {
+        if (!journalDir.isDirectory() && !journalDir.mkdirs()) {
+            throw new IOException("Cannot create " + journalDir);
+        }
+        final File tmpFile = new File(journalDir, file.getName() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(tmpFile);
+        try {
+            final Writer lineWriter = new OutputStreamWriter(out, "UTF-8");
+            for (final String line : lines) {
+                lineWriter.write(line);
+                lineWriter.write('\n');
+            }
+            lineWriter.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file))) {
+            throw new IOException("Cannot rename " + tmpFile + " to " + file);
+        }
+    }
+
+    private void replayJournal() {
+        final File[] files = journalDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(JOURNAL_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files);
+        for (final File file : files) {
+            try {
+                replayJournal(file);
+            } catch (IOException ex) {
+                logService.log(LogService.LOG_ERROR, "Could not replay the zuora journal " + file + ", keeping it for the next start", ex);
+            }
+        }
+    }
+
+    private void replayJournal(final File file) throws IOException {
+        final List<String> quarantined = new ArrayList<String>();
+        final List<PaymentEntity> payments = readJournal(file, quarantined);
+        final int numMalformed = quarantined.size();
+
+        final List<PaymentEntity> unwritten = new ArrayList<PaymentEntity>();
+        try {
+            delegate.insertPayments(payments);
+        } catch (RuntimeException ex) {
+            logService.log(LogService.LOG_WARNING, "Could not replay the zuora journal " + file + " at once, replaying it payment by payment", ex);
+            for (final PaymentEntity p : payments) {
+                try {
+                    delegate.insertPayment(p);
+                } catch (RuntimeException paymentEx) {
+                    final Boolean written = isWritten(p);
+                    if (written == null) {
+                        // The database is failing rather than the payment: try again on the next start
+                        unwritten.add(p);
+                    } else if (!written) {
+                        quarantined.add(toJournalLine(p));
+                    }
+                }
+            }
+        }
+
+        if (!quarantined.isEmpty()) {
+            final File quarantine = new File(journalDir, file.getName() + "-" + System.currentTimeMillis() + QUARANTINE_SUFFIX);
+            writeJournal(quarantine, quarantined);
+            logService.log(LogService.LOG_ERROR, String.format("Could not write %d zuora payments of the journal %s, moved them to %s",
+                                                               quarantined.size(), file, quarantine));
+        }
+        if (!unwritten.isEmpty()) {
+            writeJournal(file, toJournalLines(unwritten));
+            logService.log(LogService.LOG_WARNING, String.format("Could not write %d zuora payments of the journal %s, keeping them for the next start",
+                                                                 unwritten.size(), file));
+        } else if (!file.delete()) {
+            logService.log(LogService.LOG_WARNING, "Could not delete the replayed zuora journal " + file);
+        }
+        final int numWritten = payments.size() - unwritten.size() - (quarantined.size() - numMalformed);
+        if (numWritten > 0) {
+            logService.log(LogService.LOG_INFO, String.format("Wrote %d zuora payments from the journal %s", numWritten, file));
+        }
+    }
+
+    // Null if the database can't tell, e.g. it is down
+    private Boolean isWritten(final PaymentEntity p) {
+        try {
+            return delegate.getPayment(p.getKbPaymentId()) != null;
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    // Malformed lines are added to the quarantined ones
+    private static List<PaymentEntity> readJournal(final File file, final List<String> quarantined) throws IOException {
+        final List<PaymentEntity> payments = new ArrayList<PaymentEntity>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0) {
+                    continue;
+                }
+                try {
+                    payments.add(fromJournalLine(line));
+                } catch (IOException ex) {
+                    quarantined.add(line);
+                } catch (RuntimeException ex) {
+                    quarantined.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return payments;
+    }
+
+    private static List<String> toJournalLines(final List<PaymentEntity> payments) {
+        final List<String> lines = new ArrayList<String>(payments.size());
+        for (final PaymentEntity p : payments) {
+            lines.add(toJournalLine(p));
+        }
+        return lines;
+    }
+
+    static String toJournalLine(final PaymentEntity p) {
+        final StringBuilder line = new StringBuilder();
+        appendField(line, p.getKbPaymentId());
+        appendField(line, p.getKbAccountId());
+        appendField(line, p.getZuoraPaymentId());
+        appendField(line, p.getCreatedDate() == null ? null : String.valueOf(p.getCreatedDate().getTime()));
+        appendField(line, p.getEffectiveDate() == null ? null : String.valueOf(p.getEffectiveDate().getTime()));
+        appendField(line, p.getAmount() == null ? null : p.getAmount().toPlainString());
+        appendField(line, p.getStatus());
+        appendField(line, p.getGatewayError());
+        appendField(line, p.getGatewayErrorCode());
+        appendField(line, p.getReferenceId());
+        appendField(line, p.getSecondReferenceId());
+        return line.toString();
+    }
+
+    static PaymentEntity fromJournalLine(final String line) throws IOException {
+        final String[] fields = line.split("\t", -1);
+        if (fields.length != 11) {
+            throw new IOException("Malformed zuora journal line: " + line);
+        }
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = unescape(fields[i]);
+        }
+        return new PaymentEntity(fields[0], fields[1], fields[2],
+                                 fields[3] == null ? null : new Date(Long.parseLong(fields[3])),
+                                 fields[4] == null ? null : new Date(Long.parseLong(fields[4])),
+                                 fields[5] == null ? null : new BigDecimal(fields[5]),
+                                 fields[6], fields[7], fields[8], fields[9], fields[10]);
+    }
+
+    private static void appendField(final StringBuilder line, final String value) {
+        if (line.length() > 0) {
+            line.append('\t');
+        }
+        if (value == null) {
+            line.append(NULL);
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\') {
+                line.append("\\\\");
+            } else if (c == '\t') {
+                line.append("\\t");
+            } else if (c == '\n') {
+                line.append("\\n");
+            } else if (c == '\r') {
+                line.append("\\r");
+            } else {
+                line.append(c);
+            }
+        }
+    }
+
+    private static String unescape(final String field) {
+        if (NULL.equals(field)) {
+            return null;
+        }
+        final StringBuilder value = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            final char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                final char escaped = field.charAt(++i);
+                value.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+            } else {
+                value.append(c);
+            }
+        }
+        return value.toString();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getSynchronousCount() {
+        return synchronousCount.get();
+    }
+
+    public long getJournaledCount() {
+        return journaledCount.get();
+    }
+
+    //
+    // Everything else is written synchronously
+    //
+
+    @Override
+    public void insertPaymentMethod(final PaymentMethodEntity pm) {
+        delegate.insertPaymentMethod(pm);
+    }
+
+    @Override
+    public PaymentMethodEntity getPaymentMethodById(final String kbPaymentMethodId) {
+        return delegate.getPaymentMethodById(kbPaymentMethodId);
+    }
+
+    @Override
+    public List<PaymentMethodEntity> getPaymentMethods(final String kbAccountId) {
+        return delegate.getPaymentMethods(kbAccountId);
+    }
+
+    @Override
+    public void deletePaymentMethodById(final String kbPaymentMethodId) {
+        delegate.deletePaymentMethodById(kbPaymentMethodId);
+    }
+
+    @Override
+    public void updatePaymentMethod(final PaymentMethodEntity newPm) {
+        delegate.updatePaymentMethod(newPm);
+    }
+
+    @Override
+    public void resetPaymentMethods(final List<PaymentMethodEntity> newPms) {
+        delegate.resetPaymentMethods(newPms);
+    }
+
+    @Override
+    public PaymentMethodDetailEntity getPaymentMethodDetailById(final String zPaymentMethodId) {
+        return delegate.getPaymentMethodDetailById(zPaymentMethodId);
+    }
+
+    @Override
+    public void insertPaymentMethodDetail(final PaymentMethodDetailEntity pmd) {
+        delegate.insertPaymentMethodDetail(pmd);
+    }
+
+    @Override
+    public void deletePaymentMethodDetailById(final String zPaymentMethodId) {
+        delegate.deletePaymentMethodDetailById(zPaymentMethodId);
+    }
+}
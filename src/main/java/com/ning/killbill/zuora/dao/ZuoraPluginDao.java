@@ -28,6 +28,9 @@ public interface ZuoraPluginDao {
 
     public void insertPayment(PaymentEntity p);
 
+    // Like insertPayment for each of the payments, in a single round trip when the implementation allows it
+    public void insertPayments(List<PaymentEntity> payments);
+
     public PaymentEntity getPayment(final String kbPaymentId);
 
 }
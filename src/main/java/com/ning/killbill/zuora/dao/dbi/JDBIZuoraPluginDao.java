@@ -140,6 +140,13 @@ public class JDBIZuoraPluginDao implements ZuoraPluginDao {
         paymentEntitySqlDao.insert(p);
     }
 
+    @Override
+    public void insertPayments(final List<PaymentEntity> payments) {
+        if (!payments.isEmpty()) {
+            paymentEntitySqlDao.insertBatch(payments);
+        }
+    }
+
     @Override
     public PaymentEntity getPayment(final String kbPaymentId) {
         return paymentEntitySqlDao.getById(kbPaymentId);
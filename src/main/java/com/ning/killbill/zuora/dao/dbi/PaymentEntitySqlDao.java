@@ -5,6 +5,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.List;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -12,6 +13,7 @@ import org.skife.jdbi.v2.SQLStatement;
 import org.skife.jdbi.v2.StatementContext;
 import org.skife.jdbi.v2.sqlobject.Bind;
 import org.skife.jdbi.v2.sqlobject.Binder;
+import org.skife.jdbi.v2.sqlobject.SqlBatch;
 import org.skife.jdbi.v2.sqlobject.SqlQuery;
 import org.skife.jdbi.v2.sqlobject.SqlUpdate;
 import org.skife.jdbi.v2.sqlobject.customizers.Mapper;
@@ -33,6 +35,9 @@ public interface PaymentEntitySqlDao extends Transactional<PaymentMethodEntitySq
     @SqlUpdate
     public void insert(@Bind(binder = PaymentEntitySqlDaoBinder.class) PaymentEntity entity);
 
+    @SqlBatch("insert")
+    public void insertBatch(@Bind(binder = PaymentEntitySqlDaoBinder.class) List<PaymentEntity> entities);
+
 
     public static class PaymentEntitySqlDaoBinder implements Binder<Bind, PaymentEntity> {
 
@@ -0,0 +1,24 @@
+package com.ning.killbill.zuora.dao.dbi;
+
+import org.skife.jdbi.v2.sqlobject.Bind;
+import org.skife.jdbi.v2.sqlobject.SqlQuery;
+import org.skife.jdbi.v2.sqlobject.SqlUpdate;
+import org.skife.jdbi.v2.sqlobject.mixins.CloseMe;
+import org.skife.jdbi.v2.sqlobject.stringtemplate.UseStringTemplate3StatementLocator;
+
+/**
+ * Heartbeats of the plugin nodes sharing the zuora rate limits. Timestamps come from the database clock,
+ * so that the node clocks don't need to agree.
+ */
+@UseStringTemplate3StatementLocator
+public interface RateLimitNodeSqlDao extends CloseMe {
+
+    @SqlUpdate
+    public void heartbeat(@Bind("nodeId") final String nodeId, @Bind("instanceName") final String instanceName);
+
+    @SqlQuery
+    public int countLiveNodes(@Bind("instanceName") final String instanceName, @Bind("livenessSeconds") final int livenessSeconds);
+
+    @SqlUpdate
+    public void delete(@Bind("nodeId") final String nodeId);
+}
@@ -177,6 +177,22 @@ public class JPAZuoraPluginDao implements ZuoraPluginDao {
         });
     }
 
+    @Override
+    public void insertPayments(final List<PaymentEntity> payments) {
+        new WithEntityManager(true).<Void>doOperation(new EntityManagerCallback<Void>() {
+            @Override
+            public Void doRealOperation(final EntityManager entityManager) {
+                for (final PaymentEntity p : payments) {
+                    // Like the "insert ignore" of the JDBI batch: a payment already there doesn't fail the others
+                    if (entityManager.find(PaymentEntity.class, p.getKbPaymentId()) == null) {
+                        entityManager.persist(p);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
     @Override
     public PaymentEntity getPayment(final String kbPaymentId) {
         return new WithEntityManager(false).<PaymentEntity>doOperation(new EntityManagerCallback<PaymentEntity>() {
@@ -23,6 +23,7 @@ import com.ning.killbill.zuora.api.ZuoraPrivateApi;
 import com.ning.killbill.zuora.dao.ZuoraPluginDao;
 import com.ning.killbill.zuora.dao.entities.PaymentMethodEntity;
 import com.ning.killbill.zuora.http.PaymentMethodJson.PaymentMethodPluginDetailJson;
+import com.ning.killbill.zuora.metrics.MetricsRegistry;
 import com.ning.killbill.zuora.osgi.ZuoraActivator;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -42,11 +43,13 @@ public class ZuoraHttpServlet extends HttpServlet {
 
     private final ZuoraPrivateApi zuoraPrivateApi;
     private final ZuoraPluginDao zuoraPluginDao;
+    private final MetricsRegistry metrics;
     private final ObjectMapper mapper;
 
-    public ZuoraHttpServlet(ZuoraPrivateApi api, ZuoraPluginDao zuoraPluginDao, final ObjectMapper mapper) {
+    public ZuoraHttpServlet(ZuoraPrivateApi api, ZuoraPluginDao zuoraPluginDao, final MetricsRegistry metrics, final ObjectMapper mapper) {
         this.zuoraPrivateApi = api;
         this.zuoraPluginDao = zuoraPluginDao;
+        this.metrics = metrics;
         this.mapper = mapper;
     }
 
@@ -62,6 +65,12 @@ public class ZuoraHttpServlet extends HttpServlet {
                 return;
             }
 
+            // Not account specific, and doesn't call zuora
+            if (api == API.METRICS) {
+                handleGetMetrics(resp);
+                return;
+            }
+
             final TenantContext context = createTenantContext(req);
 
             final String accountIdParam = req.getParameter(REQ_ACCOUNT_ID);
@@ -227,6 +236,12 @@ public class ZuoraHttpServlet extends HttpServlet {
         resp.setStatus(HttpServletResponse.SC_OK);
     }
 
+    private void handleGetMetrics(final HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json");
+        resp.getOutputStream().write(mapper.writeValueAsBytes(metrics.getSnapshot()));
+        resp.setStatus(HttpServletResponse.SC_OK);
+    }
+
     private API getAPI(final HttpServletRequest req) throws ServletException {
 
         // Remove the "/"
@@ -267,7 +282,8 @@ public class ZuoraHttpServlet extends HttpServlet {
         PAYMENT_METHODS("paymentMethods"),
         INVOICE_LAST_PAYMENT("invoice/lastPayment"),
         INVOICE("invoice"),
-        INVOICES("invoices");
+        INVOICES("invoices"),
+        METRICS("metrics");
 
         String name;
 
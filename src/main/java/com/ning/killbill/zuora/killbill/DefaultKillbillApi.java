@@ -1,5 +1,6 @@
 package com.ning.killbill.zuora.killbill;
 
+import java.util.Map;
 import java.util.UUID;
 
 import org.osgi.service.log.LogService;
@@ -13,6 +14,11 @@ import com.ning.billing.payment.api.PaymentMethod;
 import com.ning.billing.payment.plugin.api.PaymentPluginApiException;
 import com.ning.billing.util.callcontext.TenantContext;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+
 public class DefaultKillbillApi {
 
     public static final String ERROR_API_KILLBILL = "Killbill error";
@@ -20,42 +26,73 @@ public class DefaultKillbillApi {
     private final OSGIKillbill osgiKillbill;
     private final LogService logService;
 
-    public DefaultKillbillApi(final OSGIKillbill osgiKillbill, final LogService logService) {
+    // Payment methods and payments never move to another account and external keys never change,
+    // so these mappings can be cached without expiration
+    private final Cache<UUID, UUID> accountIdByPaymentMethodId;
+    private final Cache<UUID, UUID> accountIdByPaymentId;
+    private final Cache<UUID, String> externalKeyByAccountId;
+
+    public DefaultKillbillApi(final OSGIKillbill osgiKillbill, final LogService logService, final long cacheMaxSize) {
         this.osgiKillbill = osgiKillbill;
         this.logService = logService;
+        this.accountIdByPaymentMethodId = CacheBuilder.newBuilder().maximumSize(cacheMaxSize).build();
+        this.accountIdByPaymentId = CacheBuilder.newBuilder().maximumSize(cacheMaxSize).build();
+        this.externalKeyByAccountId = CacheBuilder.newBuilder().maximumSize(cacheMaxSize).build();
     }
 
     public String getAccountExternalKeyFromPaymentMethodId(final UUID kbPaymentMethodId, final TenantContext tenantContext) throws PaymentPluginApiException {
-        try {
-            final PaymentMethod paymentMethod = osgiKillbill.getPaymentApi().getPaymentMethodById(kbPaymentMethodId, false, false, tenantContext);
-            final Account account = osgiKillbill.getAccountUserApi().getAccountById(paymentMethod.getAccountId(), tenantContext);
-            return account.getExternalKey();
-        } catch (BillingExceptionBase e) {
-            logService.log(LogService.LOG_ERROR, "Failed to retrieve external key for payment methodId=" + kbPaymentMethodId, e);
-            throw new PaymentPluginApiException(ERROR_API_KILLBILL, e);
+        UUID kbAccountId = accountIdByPaymentMethodId.getIfPresent(kbPaymentMethodId);
+        if (kbAccountId == null) {
+            try {
+                final PaymentMethod paymentMethod = osgiKillbill.getPaymentApi().getPaymentMethodById(kbPaymentMethodId, false, false, tenantContext);
+                kbAccountId = paymentMethod.getAccountId();
+            } catch (BillingExceptionBase e) {
+                logService.log(LogService.LOG_ERROR, "Failed to retrieve external key for payment methodId=" + kbPaymentMethodId, e);
+                throw new PaymentPluginApiException(ERROR_API_KILLBILL, e);
+            }
+            accountIdByPaymentMethodId.put(kbPaymentMethodId, kbAccountId);
         }
+        return getAccountExternalKeyFromAccountId(kbAccountId, tenantContext);
     }
 
     public String getAccountExternalKeyFromPaymentId(final UUID kbPaymentId, final TenantContext tenantContext) throws PaymentPluginApiException {
-        try {
-            final Payment payment = osgiKillbill.getPaymentApi().getPayment(kbPaymentId, false, tenantContext);
-            final Account account = osgiKillbill.getAccountUserApi().getAccountById(payment.getAccountId(), tenantContext);
-            return account.getExternalKey();
-        } catch (BillingExceptionBase e) {
-            logService.log(LogService.LOG_ERROR, "Failed to retrieve external key for paymentId=" + kbPaymentId, e);
-            throw new PaymentPluginApiException(ERROR_API_KILLBILL, e);
+        UUID kbAccountId = accountIdByPaymentId.getIfPresent(kbPaymentId);
+        if (kbAccountId == null) {
+            try {
+                final Payment payment = osgiKillbill.getPaymentApi().getPayment(kbPaymentId, false, tenantContext);
+                kbAccountId = payment.getAccountId();
+            } catch (BillingExceptionBase e) {
+                logService.log(LogService.LOG_ERROR, "Failed to retrieve external key for paymentId=" + kbPaymentId, e);
+                throw new PaymentPluginApiException(ERROR_API_KILLBILL, e);
+            }
+            accountIdByPaymentId.put(kbPaymentId, kbAccountId);
         }
+        return getAccountExternalKeyFromAccountId(kbAccountId, tenantContext);
     }
 
     public String getAccountExternalKeyFromAccountId(final UUID kbAccountId, final TenantContext tenantContext) throws PaymentPluginApiException {
+        final String cachedExternalKey = externalKeyByAccountId.getIfPresent(kbAccountId);
+        if (cachedExternalKey != null) {
+            return cachedExternalKey;
+        }
+
         try {
             final Account account = osgiKillbill.getAccountUserApi().getAccountById(kbAccountId, tenantContext);
+            if (account.getExternalKey() != null) {
+                externalKeyByAccountId.put(kbAccountId, account.getExternalKey());
+            }
             return account.getExternalKey();
         } catch (BillingExceptionBase e) {
             logService.log(LogService.LOG_ERROR, "Failed to retrieve accountEXternalKey for kbAccountId = " + kbAccountId, e);
             throw new PaymentPluginApiException(ERROR_API_KILLBILL, e);
         }
     }
+
+    public Map<String, CacheStats> getCacheStats() {
+        return ImmutableMap.<String, CacheStats>of("accountIdByPaymentMethodId", accountIdByPaymentMethodId.stats(),
+                                                   "accountIdByPaymentId", accountIdByPaymentId.stats(),
+                                                   "externalKeyByAccountId", externalKeyByAccountId.stats());
+    }
     
     public Account getAccountFromId(final UUID kbAccountId, final TenantContext tenantContext) throws PaymentPluginApiException {
         final Account account;
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of a value (latency, payload size...), recorded without locking or allocating.
+ * <p/>
+ * Values are counted in power of two buckets, so the quantiles are upper bounds at most twice the actual value.
+ */
+public class Histogram {
+
+    // Bucket 0 counts the values <= 0, bucket i > 0 the values in [2^(i-1), 2^i)
+    private static final int NUM_BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public void update(final long value) {
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+            // retry
+        }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    static int bucketOf(final long value) {
+        return value <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(value);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMin() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    public long getMax() {
+        return count.get() == 0 ? 0 : max.get();
+    }
+
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : sum.get() / (double) n;
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99
+     */
+    public long getQuantile(final double quantile) {
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                final long upperBound = i == 0 ? 0 : (i == NUM_BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(upperBound, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public Map<String, Object> getSnapshot() {
+        final Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("count", getCount());
+        snapshot.put("min", getMin());
+        snapshot.put("max", getMax());
+        snapshot.put("mean", getMean());
+        snapshot.put("p50", getQuantile(0.5));
+        snapshot.put("p95", getQuantile(0.95));
+        snapshot.put("p99", getQuantile(0.99));
+        return snapshot;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The metrics of a plugin instance, by name (e.g. zuora.query.Account.latencyMillis). Counters and histograms
+ * are created on first use, so that the hot paths don't need to declare them up front.
+ */
+public class MetricsRegistry {
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+    private final ConcurrentMap<String, Gauge<?>> gauges = new ConcurrentHashMap<String, Gauge<?>>();
+
+    public Counter counter(final String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            final Counter newCounter = new Counter();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    public Histogram histogram(final String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            final Histogram newHistogram = new Histogram();
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    public void register(final String name, final Gauge<?> gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * @return the current value of every metric, by name: a number for the counters and gauges, a map of
+     *         statistics (count, min, max, mean, p50, p95, p99) for the histograms
+     */
+    public SortedMap<String, Object> getSnapshot() {
+        final SortedMap<String, Object> snapshot = new TreeMap<String, Object>();
+        for (final Map.Entry<String, Counter> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().getCount());
+        }
+        for (final Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().getSnapshot());
+        }
+        for (final Map.Entry<String, Gauge<?>> entry : gauges.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return snapshot;
+    }
+}
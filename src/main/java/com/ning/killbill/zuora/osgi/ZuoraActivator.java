@@ -18,6 +18,7 @@ package com.ning.killbill.zuora.osgi;
 
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.servlet.Servlet;
@@ -32,20 +33,36 @@ import com.ning.billing.payment.plugin.api.PaymentPluginApi;
 import com.ning.killbill.osgi.libs.killbill.KillbillActivatorBase;
 import com.ning.killbill.osgi.libs.killbill.OSGIKillbillEventDispatcher.OSGIKillbillEventHandler;
 import com.ning.killbill.zuora.api.DefaultZuoraPrivateApi;
+import com.ning.killbill.zuora.api.TracingPaymentPluginApi;
 import com.ning.killbill.zuora.api.ZuoraPaymentPluginApi;
 import com.ning.killbill.zuora.api.ZuoraPrivateApi;
+import com.ning.killbill.zuora.dao.WriteBehindZuoraPluginDao;
 import com.ning.killbill.zuora.dao.ZuoraPluginDao;
 import com.ning.killbill.zuora.dao.dbi.JDBIZuoraPluginDao;
 import com.ning.killbill.zuora.dao.jpa.JPAZuoraPluginDao;
 import com.ning.killbill.zuora.http.ZuoraHttpServlet;
 import com.ning.killbill.zuora.killbill.DefaultKillbillApi;
+import com.ning.killbill.zuora.metrics.Gauge;
+import com.ning.killbill.zuora.metrics.MetricsRegistry;
+import com.ning.killbill.zuora.tracing.Tracer;
+import com.ning.killbill.zuora.zuora.Bulkhead;
+import com.ning.killbill.zuora.zuora.CircuitBreaker;
+import com.ning.killbill.zuora.zuora.CircuitBreakers;
 import com.ning.killbill.zuora.zuora.ConnectionFactory;
 import com.ning.killbill.zuora.zuora.ConnectionPool;
+import com.ning.killbill.zuora.zuora.ConnectionPriority;
+import com.ning.killbill.zuora.zuora.RateLimitCoordinator;
+import com.ning.killbill.zuora.zuora.RateLimiters;
+import com.ning.killbill.zuora.zuora.TokenBucket;
 import com.ning.killbill.zuora.zuora.ZuoraApi;
+import com.ning.killbill.zuora.zuora.ZuoraAsyncClient;
+import com.ning.killbill.zuora.zuora.ZuoraSessionManager;
+import com.ning.killbill.zuora.zuora.ZuoraStubFactory;
 import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableMap;
 
 /*
@@ -59,10 +76,17 @@ public class ZuoraActivator extends KillbillActivatorBase {
 
     private ZuoraConfig config;
     private ObjectMapper mapper;
+    private MetricsRegistry metrics;
     private ZuoraApi api;
+    private ZuoraSessionManager sessionManager;
     private ConnectionFactory factory;
     private ConnectionPool pool;
+    private CircuitBreakers circuitBreakers;
+    private RateLimiters rateLimiters;
+    private RateLimitCoordinator rateLimitCoordinator;
+    private ZuoraAsyncClient asyncClient;
     private ZuoraPluginDao zuoraPluginDao;
+    private WriteBehindZuoraPluginDao writeBehindZuoraPluginDao;
     private ZuoraPaymentPluginApi zuoraPaymentPluginApi;
     private ZuoraHttpServlet zuoraHttpServlet;
     private ZuoraPrivateApi zuoraPrivateApi;
@@ -78,26 +102,64 @@ public class ZuoraActivator extends KillbillActivatorBase {
         config = readConfigFromSystemProperties(DEFAULT_INSTANCE_NAME);
         mapper = new ObjectMapper();
         mapper.registerModule(new JodaModule());
+        metrics = new MetricsRegistry();
         api = new ZuoraApi(config, logService);
-        factory = new ConnectionFactory(config, api, logService);
-        pool = new ConnectionPool(factory, config);
+        final ZuoraStubFactory stubFactory = new ZuoraStubFactory(config, metrics);
+        sessionManager = new ZuoraSessionManager(config, stubFactory, logService);
+        sessionManager.start();
+        circuitBreakers = new CircuitBreakers(config);
+        rateLimiters = new RateLimiters(config);
+        if (config.isRateLimitClustered()) {
+            rateLimitCoordinator = new RateLimitCoordinator(dataSource.getDataSource(), DEFAULT_INSTANCE_NAME, rateLimiters, config, logService);
+            rateLimitCoordinator.start();
+        }
+        factory = new ConnectionFactory(config, api, sessionManager, stubFactory, circuitBreakers, rateLimiters, metrics, logService);
+        pool = new ConnectionPool(factory, config, logService);
+        pool.start();
+        asyncClient = new ZuoraAsyncClient(pool, config, logService);
 
         zuoraPluginDao = config.useJPADAOImplementation() ?
                          new JPAZuoraPluginDao(dataSource.getDataSource()) :
                          new JDBIZuoraPluginDao(dataSource.getDataSource());
+        if (config.isWriteBehindEnabled()) {
+            writeBehindZuoraPluginDao = new WriteBehindZuoraPluginDao(zuoraPluginDao, config, logService);
+            writeBehindZuoraPluginDao.start();
+            zuoraPluginDao = writeBehindZuoraPluginDao;
+        }
 
-        final DefaultKillbillApi defaultKillbillApi = new DefaultKillbillApi(killbillAPI, logService);
-        zuoraPaymentPluginApi = new ZuoraPaymentPluginApi(pool, api, logService, defaultKillbillApi, zuoraPluginDao, DEFAULT_INSTANCE_NAME);
-        zuoraPrivateApi = new DefaultZuoraPrivateApi(pool, api, logService, defaultKillbillApi, zuoraPluginDao, DEFAULT_INSTANCE_NAME);
+        final DefaultKillbillApi defaultKillbillApi = new DefaultKillbillApi(killbillAPI, logService, config.getKillbillCacheMaxSize());
+        final Bulkhead privateBulkhead = new Bulkhead("private", config.getBulkheadPrivateMaxConcurrent(), config.getBulkheadMaxWait().getMillis());
+        zuoraPaymentPluginApi = new ZuoraPaymentPluginApi(pool, asyncClient, api, logService, defaultKillbillApi, zuoraPluginDao, DEFAULT_INSTANCE_NAME);
+        zuoraPrivateApi = new DefaultZuoraPrivateApi(pool, privateBulkhead, api, logService, defaultKillbillApi, zuoraPluginDao, DEFAULT_INSTANCE_NAME);
 
-        zuoraHttpServlet =  new ZuoraHttpServlet(zuoraPrivateApi, zuoraPluginDao, mapper);
+        registerGauges(defaultKillbillApi, privateBulkhead);
 
-        registerPaymentPluginApi(context, zuoraPaymentPluginApi);
+        zuoraHttpServlet =  new ZuoraHttpServlet(zuoraPrivateApi, zuoraPluginDao, metrics, mapper);
+
+        registerPaymentPluginApi(context, new TracingPaymentPluginApi(zuoraPaymentPluginApi, new Tracer(config, logService)));
         registerServlet(context, zuoraHttpServlet);
+        registerMetrics(context, metrics);
     }
 
     @Override
     public void stop(final BundleContext context) throws Exception {
+        if (asyncClient != null) {
+            asyncClient.stop();
+        }
+        if (pool != null) {
+            pool.close();
+        }
+        if (sessionManager != null) {
+            sessionManager.stop();
+        }
+        if (rateLimitCoordinator != null) {
+            rateLimitCoordinator.stop();
+        }
+        // Doesn't wait for the calls still in flight (the services are unregistered by super.stop): the queued payments
+        // are written (or journaled), and the payments inserted after this are written synchronously
+        if (writeBehindZuoraPluginDao != null) {
+            writeBehindZuoraPluginDao.stop();
+        }
         super.stop(context);
     }
 
@@ -114,6 +176,139 @@ public class ZuoraActivator extends KillbillActivatorBase {
     }
 
 
+    private void registerGauges(final DefaultKillbillApi defaultKillbillApi, final Bulkhead... bulkheads) {
+        metrics.register("pool.active", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return pool.getNumActive();
+            }
+        });
+        metrics.register("pool.idle", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return pool.getNumIdle();
+            }
+        });
+        for (final ConnectionPriority priority : ConnectionPriority.values()) {
+            metrics.register("pool.waiters." + priority.name().toLowerCase(), new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return pool.getNumWaiters(priority);
+                }
+            });
+        }
+        metrics.register("pool.timeouts", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return pool.getTimeoutCount();
+            }
+        });
+        for (final CircuitBreaker breaker : circuitBreakers.getAll()) {
+            metrics.register("circuitBreaker." + breaker.getName() + ".state", new Gauge<String>() {
+                @Override
+                public String getValue() {
+                    return breaker.getState().name();
+                }
+            });
+            metrics.register("circuitBreaker." + breaker.getName() + ".rejected", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return breaker.getRejectedCount();
+                }
+            });
+        }
+        for (final Bulkhead bulkhead : bulkheads) {
+            metrics.register("bulkhead." + bulkhead.getName() + ".active", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return bulkhead.getNumActive();
+                }
+            });
+            metrics.register("bulkhead." + bulkhead.getName() + ".rejected", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return bulkhead.getRejectedCount();
+                }
+            });
+        }
+        for (final TokenBucket bucket : rateLimiters.getAll()) {
+            metrics.register("rateLimit." + bucket.getName() + ".rate", new Gauge<Double>() {
+                @Override
+                public Double getValue() {
+                    return bucket.getRate();
+                }
+            });
+            metrics.register("rateLimit." + bucket.getName() + ".rejected", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return bucket.getRejectedCount();
+                }
+            });
+        }
+        metrics.register("cache.zuora", new CacheStatsGauge() {
+            @Override
+            protected Map<String, CacheStats> getCacheStats() {
+                return api.getCacheStats();
+            }
+        });
+        metrics.register("cache.killbill", new CacheStatsGauge() {
+            @Override
+            protected Map<String, CacheStats> getCacheStats() {
+                return defaultKillbillApi.getCacheStats();
+            }
+        });
+        if (writeBehindZuoraPluginDao != null) {
+            metrics.register("dao.writeBehind.pending", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return writeBehindZuoraPluginDao.getPendingCount();
+                }
+            });
+            metrics.register("dao.writeBehind.batches", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return writeBehindZuoraPluginDao.getBatchCount();
+                }
+            });
+            metrics.register("dao.writeBehind.synchronous", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return writeBehindZuoraPluginDao.getSynchronousCount();
+                }
+            });
+            metrics.register("dao.writeBehind.journaled", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return writeBehindZuoraPluginDao.getJournaledCount();
+                }
+            });
+        }
+    }
+
+    private abstract static class CacheStatsGauge implements Gauge<Map<String, Map<String, Object>>> {
+
+        protected abstract Map<String, CacheStats> getCacheStats();
+
+        @Override
+        public Map<String, Map<String, Object>> getValue() {
+            final ImmutableMap.Builder<String, Map<String, Object>> value = ImmutableMap.builder();
+            for (final Map.Entry<String, CacheStats> entry : getCacheStats().entrySet()) {
+                final CacheStats stats = entry.getValue();
+                value.put(entry.getKey(), ImmutableMap.<String, Object>of("hits", stats.hitCount(),
+                                                                          "misses", stats.missCount(),
+                                                                          "evictions", stats.evictionCount(),
+                                                                          "hitRate", stats.hitRate()));
+            }
+            return value.build();
+        }
+    }
+
+    private void registerMetrics(final BundleContext context, final MetricsRegistry metrics) {
+        final Hashtable<String, String> props = new Hashtable<String, String>();
+        props.put(OSGIPluginProperties.PLUGIN_NAME_PROP, PLUGIN_NAME);
+        registrar.registerService(context, MetricsRegistry.class, metrics, props);
+    }
+
     private void registerServlet(final BundleContext context, final HttpServlet servlet) {
         final Hashtable<String, String> props = new Hashtable<String, String>();
         props.put(OSGIPluginProperties.PLUGIN_NAME_PROP, PLUGIN_NAME);
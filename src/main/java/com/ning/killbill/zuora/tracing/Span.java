@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.tracing;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * A timed step of a traced call, e.g. a plugin api method, a step of a payment or a zuora SOAP call.
+ * <p/>
+ * Spans are opened by the {@link Tracer} and must be finished (in a finally block) on the thread which opened them.
+ */
+public class Span {
+
+    // Returned when tracing is disabled or no trace is active on the thread
+    static final Span NOOP = new Span(null, null, null, null, null);
+
+    private final String name;
+    private final Span parent;
+    private final String correlationId;
+    private final Tracer tracer;
+    private final Span previous;
+    private final long startNanos = System.nanoTime();
+    private final List<Span> children = new CopyOnWriteArrayList<Span>();
+    private volatile long durationNanos = -1;
+    private volatile String error;
+
+    /**
+     * @param tracer   only set for the root span, which reports the trace once finished
+     * @param previous the current span of the thread when this one was opened, restored when it finishes
+     */
+    Span(final String name, @Nullable final Span parent, @Nullable final String correlationId, @Nullable final Tracer tracer, @Nullable final Span previous) {
+        this.name = name;
+        this.parent = parent;
+        this.correlationId = correlationId;
+        this.tracer = tracer;
+        this.previous = previous;
+    }
+
+    public void finish() {
+        if (this == NOOP || durationNanos >= 0) {
+            return;
+        }
+        durationNanos = System.nanoTime() - startNanos;
+        Tracer.finished(this);
+    }
+
+    /**
+     * Marks the span as failed, e.g. with the zuora error code.
+     */
+    public void setError(final String error) {
+        this.error = error;
+    }
+
+    void addChild(final Span child) {
+        children.add(child);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Nullable
+    public Span getParent() {
+        return parent;
+    }
+
+    @Nullable
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    @Nullable
+    Tracer getTracer() {
+        return tracer;
+    }
+
+    @Nullable
+    Span getPrevious() {
+        return previous;
+    }
+
+    @Nullable
+    public String getError() {
+        return error;
+    }
+
+    public List<Span> getChildren() {
+        return children;
+    }
+
+    public boolean isFinished() {
+        return durationNanos >= 0;
+    }
+
+    /**
+     * @return the duration of the span, or the time elapsed so far if it is not finished
+     */
+    public long getDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(isFinished() ? durationNanos : System.nanoTime() - startNanos);
+    }
+}
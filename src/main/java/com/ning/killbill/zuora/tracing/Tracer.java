@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.tracing;
+
+import javax.annotation.Nullable;
+
+import org.osgi.service.log.LogService;
+
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+/**
+ * Lightweight tracing of the plugin calls: a trace is opened per plugin api call, and the steps and zuora calls
+ * made on its behalf open child spans of the current span of their thread. Traces slower than the threshold
+ * are logged with their span tree, so that the step dominating the latency stands out.
+ * <p/>
+ * Child spans are opened with the static methods, so that the code in between doesn't need to pass the trace
+ * around: they are no-ops outside of a trace. Work handed over to another thread opens its spans from the
+ * span captured on the calling thread.
+ */
+public class Tracer {
+
+    // HTTP header carrying the correlation id of the trace on the zuora requests
+    public static final String CORRELATION_ID_HEADER = "X-Correlation-Id";
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<Span>();
+
+    private final boolean enabled;
+    private final long slowThresholdMillis;
+    private final LogService logService;
+
+    public Tracer(final ZuoraConfig config, final LogService logService) {
+        this(config.isTracingEnabled(), config.getTracingSlowThreshold().getMillis(), logService);
+    }
+
+    public Tracer(final boolean enabled, final long slowThresholdMillis, final LogService logService) {
+        this.enabled = enabled;
+        this.slowThresholdMillis = slowThresholdMillis;
+        this.logService = logService;
+    }
+
+    /**
+     * Opens a trace, or a child span if a trace is already active on the thread.
+     *
+     * @param correlationId id the trace is reported with and sent to zuora with, e.g. the kbPaymentId
+     */
+    public Span startTrace(final String name, @Nullable final String correlationId) {
+        if (!enabled) {
+            return Span.NOOP;
+        }
+        final Span current = CURRENT.get();
+        if (current != null) {
+            return startSpan(current, name);
+        }
+
+        final Span root = new Span(name, null, correlationId, this, null);
+        CURRENT.set(root);
+        return root;
+    }
+
+    public static Span startSpan(final String name) {
+        return startSpan(CURRENT.get(), name);
+    }
+
+    /**
+     * Opens a span under an explicit parent, typically captured with {@link #currentSpan()} on another thread.
+     */
+    public static Span startSpan(@Nullable final Span parent, final String name) {
+        if (parent == null || parent == Span.NOOP) {
+            return Span.NOOP;
+        }
+
+        final Span span = new Span(name, parent, parent.getCorrelationId(), null, CURRENT.get());
+        parent.addChild(span);
+        CURRENT.set(span);
+        return span;
+    }
+
+    @Nullable
+    public static Span currentSpan() {
+        return CURRENT.get();
+    }
+
+    @Nullable
+    public static String currentCorrelationId() {
+        final Span current = CURRENT.get();
+        return current == null ? null : current.getCorrelationId();
+    }
+
+    static void finished(final Span span) {
+        if (CURRENT.get() == span) {
+            if (span.getPrevious() == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(span.getPrevious());
+            }
+        }
+        if (span.getTracer() != null) {
+            span.getTracer().report(span);
+        }
+    }
+
+    private void report(final Span root) {
+        if (root.getDurationMillis() >= slowThresholdMillis) {
+            final StringBuilder builder = new StringBuilder("Slow zuora plugin call, ").append(root.getDurationMillis()).append(" ms:\n");
+            format(root, 0, builder);
+            logService.log(LogService.LOG_INFO, builder.toString());
+        }
+    }
+
+    static void format(final Span span, final int depth, final StringBuilder builder) {
+        for (int i = 0; i < depth; i++) {
+            builder.append("  ");
+        }
+        builder.append(span.getName());
+        if (depth == 0 && span.getCorrelationId() != null) {
+            builder.append(" [").append(span.getCorrelationId()).append("]");
+        }
+        builder.append(" ").append(span.getDurationMillis()).append(" ms");
+        if (!span.isFinished()) {
+            builder.append(" (running)");
+        }
+        if (span.getError() != null) {
+            builder.append(" error=").append(span.getError());
+        }
+        builder.append("\n");
+
+        for (final Span child : span.getChildren()) {
+            format(child, depth + 1, builder);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops calling zuora for an operation after too many consecutive failures.
+ * <p/>
+ * Once open, calls fail fast for openDuration, then a single trial call is let through (half open): it closes the
+ * breaker if it succeeds and re-opens it otherwise. Transport level failures (timeouts, connection errors, unreadable
+ * responses) and the retryable zuora errors (unavailable, rate limited...) count, a client error is an answer and
+ * counts as a success.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDurationMillis;
+
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong openedCount = new AtomicLong();
+
+    private volatile State state = State.CLOSED;
+    private volatile int consecutiveFailures = 0;
+    private long openedAtMillis = 0;
+
+    /**
+     * @param failureThreshold consecutive failures opening the breaker, 0 to never open it
+     */
+    public CircuitBreaker(final String name, final int failureThreshold, final long openDurationMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openDurationMillis = openDurationMillis;
+    }
+
+    /**
+     * @return whether the call can go to zuora, if so its outcome must be reported with onSuccess or onFailure
+     */
+    public boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+
+        synchronized (this) {
+            if (state == State.OPEN && System.currentTimeMillis() - openedAtMillis >= openDurationMillis) {
+                state = State.HALF_OPEN;
+                return true;
+            }
+            if (state == State.CLOSED) {
+                return true;
+            }
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    public void onSuccess() {
+        if (state == State.CLOSED && consecutiveFailures == 0) {
+            return;
+        }
+        synchronized (this) {
+            consecutiveFailures = 0;
+            state = State.CLOSED;
+        }
+    }
+
+    public void onFailure() {
+        failureCount.incrementAndGet();
+        if (failureThreshold <= 0) {
+            return;
+        }
+        synchronized (this) {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                state = State.OPEN;
+                openedAtMillis = System.currentTimeMillis();
+                openedCount.incrementAndGet();
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+/**
+ * The circuit breakers of a plugin instance, one per {@link ZuoraOperation}, shared by all the connections.
+ */
+public class CircuitBreakers {
+
+    private final Map<ZuoraOperation, CircuitBreaker> breakers = new EnumMap<ZuoraOperation, CircuitBreaker>(ZuoraOperation.class);
+
+    public CircuitBreakers(final ZuoraConfig config) {
+        for (final ZuoraOperation operation : ZuoraOperation.values()) {
+            breakers.put(operation, new CircuitBreaker(operation.name().toLowerCase(),
+                                                       config.getCircuitBreakerFailureThreshold(),
+                                                       config.getCircuitBreakerOpenDuration().getMillis()));
+        }
+    }
+
+    public CircuitBreaker get(final ZuoraOperation operation) {
+        return breakers.get(operation);
+    }
+
+    public Collection<CircuitBreaker> getAll() {
+        return breakers.values();
+    }
+}
@@ -16,52 +16,69 @@
 
 package com.ning.killbill.zuora.zuora;
 
-import org.apache.commons.pool.PoolableObjectFactory;
 import org.osgi.service.log.LogService;
 
+import com.ning.killbill.zuora.metrics.MetricsRegistry;
 import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
 
-public class ConnectionFactory implements PoolableObjectFactory {
+public class ConnectionFactory {
 
     private final ZuoraConfig zuoraConfig;
     private final ZuoraApi api;
+    private final ZuoraSessionManager sessionManager;
+    private final ZuoraStubFactory stubFactory;
+    private final CircuitBreakers circuitBreakers;
+    private final RateLimiters rateLimiters;
+    private final MetricsRegistry metrics;
+    private final RetryPolicy retryPolicy;
     private final LogService logService;
 
-    public ConnectionFactory(ZuoraConfig zuoraConfig, ZuoraApi api, final LogService logService) {
+    public ConnectionFactory(ZuoraConfig zuoraConfig, ZuoraApi api, final ZuoraSessionManager sessionManager, final ZuoraStubFactory stubFactory,
+                             final CircuitBreakers circuitBreakers, final RateLimiters rateLimiters, final MetricsRegistry metrics, final LogService logService) {
         this.zuoraConfig = zuoraConfig;
         this.api = api;
+        this.sessionManager = sessionManager;
+        this.stubFactory = stubFactory;
+        this.circuitBreakers = circuitBreakers;
+        this.rateLimiters = rateLimiters;
+        this.metrics = metrics;
+        this.retryPolicy = new RetryPolicy(zuoraConfig);
         this.logService = logService;
     }
 
-    @Override
-    public Object makeObject() throws Exception {
-        return new ZuoraConnection(zuoraConfig);
+    public ZuoraConnection makeObject() {
+        return new ZuoraConnection(zuoraConfig, sessionManager, circuitBreakers, rateLimiters, metrics, retryPolicy, stubFactory.createStub());
     }
 
-    @Override
-    public void destroyObject(Object obj) throws Exception {
+    public void destroyObject(ZuoraConnection connection) {
         // nothing to be done
     }
 
-    @Override
-    public boolean validateObject(Object obj) {
-        ZuoraConnection connection = (ZuoraConnection) obj;
-
+    public boolean validateObject(ZuoraConnection connection) {
         try {
-            return api.loadRatePlanCharge(connection).isRight();
+            switch (zuoraConfig.getPoolValidation()) {
+                case NONE:
+                    return true;
+                case SESSION_AGE:
+                    // The stubs themselves don't go stale, only the shared session does: this renews it if it is too old
+                    sessionManager.getSession();
+                    return true;
+                case IDLE_PROBE:
+                    if (connection.getIdleTimeMillis() < zuoraConfig.getPoolValidationIdleTime().getMillis()) {
+                        return true;
+                    }
+                    return api.probe(connection).isRight();
+                case PROBE:
+                default:
+                    return api.probe(connection).isRight();
+            }
         } catch (Exception ex) {
             logService.log(LogService.LOG_WARNING, "Validation of a zuora connection failed", ex);
             return false;
         }
     }
 
-    @Override
-    public void activateObject(Object obj) throws Exception {
-        // nothing to be done
-    }
-
-    @Override
-    public void passivateObject(Object obj) throws Exception {
-        // nothing to be done
+    public void passivateObject(ZuoraConnection connection) {
+        connection.markUsed();
     }
 }
@@ -16,79 +16,253 @@
 
 package com.ning.killbill.zuora.zuora;
 
-import org.apache.commons.pool.impl.GenericObjectPool;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.osgi.service.log.LogService;
+
+import com.ning.killbill.zuora.zuora.setup.ConnectionValidation;
 import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
 
-public class ConnectionPool extends GenericObjectPool {
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Pool of zuora connections.
+ * <p/>
+ * Idle connections sit in a concurrent queue and the number of borrowed connections is bounded by
+ * {@link PriorityPermits}, so borrowing and returning never synchronize on the pool itself. Some of the
+ * connections can be reserved for the {@link ConnectionPriority#HIGH} callers (payments and refunds).
+ */
+public class ConnectionPool {
+
+    private final ConnectionFactory factory;
+    private final int minIdle;
+    private final int maxIdle;
+    private final int maxActive;
+    private final long maxWaitMillis;
+    private final long idleTimeoutMillis;
+    private final boolean testOnBorrow;
+    private final LogService logService;
+
+    private final ConcurrentLinkedQueue<ZuoraConnection> idleConnections = new ConcurrentLinkedQueue<ZuoraConnection>();
+    private final PriorityPermits permits;
+    private final AtomicInteger numIdle = new AtomicInteger();
+    private final AtomicInteger numActive = new AtomicInteger();
+
+    private final AtomicLong borrowedCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
 
-    private static Config createPoolConfig(ZuoraConfig zuoraConfig) {
-        Config config = new Config();
+    public ConnectionPool(ConnectionFactory factory, ZuoraConfig zuoraConfig, LogService logService) {
+        this.factory = factory;
+        this.logService = logService;
+        this.minIdle = zuoraConfig.getPoolMinIdle();
+        this.maxIdle = zuoraConfig.getPoolMaxIdle();
+        this.maxActive = zuoraConfig.getPoolMaxActive();
+        this.maxWaitMillis = zuoraConfig.getPoolMaxWait().getMillis();
+        this.idleTimeoutMillis = zuoraConfig.getPoolIdleTimeout().getMillis();
+        this.testOnBorrow = zuoraConfig.getPoolValidation() != ConnectionValidation.NONE;
+        this.permits = new PriorityPermits(maxActive, zuoraConfig.getPoolReservedForPayments());
 
-        config.minIdle = zuoraConfig.getPoolMinIdle();
-        config.maxIdle = zuoraConfig.getPoolMaxIdle();
-        config.maxActive = zuoraConfig.getPoolMaxActive();
-        return config;
+        final long evictionIntervalMillis = zuoraConfig.getPoolEvictionInterval().getMillis();
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("zuora-pool-evictor-%d")
+                                                                                            .setDaemon(true)
+                                                                                            .build());
+        if (evictionIntervalMillis > 0) {
+            evictor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    // An exception would cancel the task, and the pool would never be evicted nor replenished again
+                    try {
+                        evictIdleConnections();
+                        ensureMinIdle();
+                    } catch (RuntimeException ex) {
+                        logService.log(LogService.LOG_WARNING, "Failed to evict or replenish the zuora connection pool", ex);
+                    }
+                }
+            }, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Creates the minIdle connections up front, so the first calls don't pay for it.
+     */
+    public void start() {
+        ensureMinIdle();
     }
 
-    public ConnectionPool(ConnectionFactory factory, ZuoraConfig zuoraConfig) {
-        super(factory, createPoolConfig(zuoraConfig));
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+
+        ZuoraConnection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            numIdle.decrementAndGet();
+            destroy(connection);
+        }
     }
 
     public ZuoraConnection borrowFromPool() throws PoolException {
+        return borrowFromPool(ConnectionPriority.NORMAL);
+    }
+
+    public ZuoraConnection borrowFromPool(ConnectionPriority priority) throws PoolException {
+        return borrowFromPool(priority, maxWaitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public ZuoraConnection borrowFromPool(long timeout, TimeUnit unit) throws PoolException {
+        return borrowFromPool(ConnectionPriority.NORMAL, timeout, unit);
+    }
+
+    public ZuoraConnection borrowFromPool(ConnectionPriority priority, long timeout, TimeUnit unit) throws PoolException {
+        if (closed) {
+            throw new PoolException("The zuora connection pool is closed");
+        }
+
+        try {
+            if (!permits.tryAcquire(priority, timeout, unit)) {
+                timeoutCount.incrementAndGet();
+                throw new PoolException("Timed out after " + unit.toMillis(timeout) + " ms waiting for a zuora connection");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PoolException("Interrupted while waiting for a zuora connection", ex);
+        }
+
         try {
-            return (ZuoraConnection) borrowObject();
-        } catch (Exception ex) {
+            ZuoraConnection connection;
+            while ((connection = idleConnections.poll()) != null) {
+                numIdle.decrementAndGet();
+                if (!testOnBorrow || factory.validateObject(connection)) {
+                    return checkedOut(connection);
+                }
+                validationFailureCount.incrementAndGet();
+                destroy(connection);
+            }
+
+            connection = factory.makeObject();
+            createdCount.incrementAndGet();
+            return checkedOut(connection);
+        } catch (RuntimeException ex) {
+            permits.release();
             throw new PoolException(ex);
         }
     }
 
     public void returnToPool(ZuoraConnection connection) throws PoolException {
+        if (connection == null) {
+            throw new PoolException("Cannot return a null zuora connection");
+        }
+
+        numActive.decrementAndGet();
         try {
-            returnObject(connection);
-        } catch (Exception ex) {
+            factory.passivateObject(connection);
+            if (!closed && numIdle.incrementAndGet() <= maxIdle) {
+                idleConnections.offer(connection);
+            } else {
+                if (!closed) {
+                    numIdle.decrementAndGet();
+                }
+                destroy(connection);
+            }
+        } catch (RuntimeException ex) {
             throw new PoolException(ex);
+        } finally {
+            permits.release();
         }
     }
 
+    private ZuoraConnection checkedOut(final ZuoraConnection connection) {
+        numActive.incrementAndGet();
+        borrowedCount.incrementAndGet();
+        return connection;
+    }
 
-    @Override
-    public int getMinIdle() {
-        return super.getMinIdle();
+    private void evictIdleConnections() {
+        for (final ZuoraConnection connection : idleConnections) {
+            if (numIdle.get() <= minIdle) {
+                return;
+            }
+            if (connection.getIdleTimeMillis() > idleTimeoutMillis && idleConnections.remove(connection)) {
+                numIdle.decrementAndGet();
+                destroy(connection);
+            }
+        }
     }
 
-    @Override
-    public void setMinIdle(int minIdle) {
-        super.setMinIdle(minIdle);
+    private void ensureMinIdle() {
+        while (!closed && numIdle.get() < minIdle) {
+            final ZuoraConnection connection = factory.makeObject();
+            createdCount.incrementAndGet();
+            numIdle.incrementAndGet();
+            idleConnections.offer(connection);
+        }
     }
 
-    @Override
-    public int getMaxIdle() {
-        return super.getMaxIdle();
+    private void destroy(final ZuoraConnection connection) {
+        destroyedCount.incrementAndGet();
+        factory.destroyObject(connection);
     }
 
-    @Override
-    public void setMaxIdle(int maxIdle) {
-        super.setMaxIdle(maxIdle);
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
     }
 
-    @Override
     public int getMaxActive() {
-        return super.getMaxActive();
+        return maxActive;
     }
 
-    @Override
-    public void setMaxActive(int maxActive) {
-        super.setMaxActive(maxActive);
+    public int getReservedForPayments() {
+        return permits.getReserved();
     }
 
-    @Override
     public int getNumActive() {
-        return super.getNumActive();
+        return numActive.get();
     }
 
-    @Override
     public int getNumIdle() {
-        return super.getNumIdle();
+        return numIdle.get();
+    }
+
+    // Estimate of the number of threads waiting for a connection
+    public int getNumWaiters() {
+        return permits.getQueueLength(ConnectionPriority.HIGH) + permits.getQueueLength(ConnectionPriority.NORMAL);
+    }
+
+    public int getNumWaiters(ConnectionPriority priority) {
+        return permits.getQueueLength(priority);
+    }
+
+    public long getBorrowedCount() {
+        return borrowedCount.get();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailureCount.get();
     }
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.cxf.helpers.CastUtils;
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+
+import com.ning.killbill.zuora.tracing.Tracer;
+
+/**
+ * Sends the correlation id of the current trace (e.g. the kbPaymentId) as an HTTP header of the zuora requests,
+ * so that they can be matched with the plugin calls in the wire logs and proxies.
+ */
+public class CorrelationIdOutInterceptor extends AbstractPhaseInterceptor<Message> {
+
+    public CorrelationIdOutInterceptor() {
+        // Before the conduit sends the HTTP headers
+        super(Phase.POST_LOGICAL);
+    }
+
+    @Override
+    public void handleMessage(final Message message) throws Fault {
+        final String correlationId = Tracer.currentCorrelationId();
+        if (correlationId == null) {
+            return;
+        }
+
+        Map<String, List<String>> headers = CastUtils.cast((Map<?, ?>) message.get(Message.PROTOCOL_HEADERS));
+        if (headers == null) {
+            headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+            message.put(Message.PROTOCOL_HEADERS, headers);
+        }
+        headers.put(Tracer.CORRELATION_ID_HEADER, Collections.singletonList(correlationId));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.cxf.transport.common.gzip.GZIPInInterceptor;
+
+import com.ning.killbill.zuora.metrics.MetricsRegistry;
+
+/**
+ * Records the size of the (uncompressed) zuora responses, per SOAP operation, once they are read.
+ */
+public class PayloadSizeInInterceptor extends AbstractPhaseInterceptor<Message> {
+
+    private final MetricsRegistry metrics;
+
+    public PayloadSizeInInterceptor(final MetricsRegistry metrics) {
+        super(Phase.RECEIVE);
+        addAfter(GZIPInInterceptor.class.getName());
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handleMessage(final Message message) throws Fault {
+        final InputStream is = message.getContent(InputStream.class);
+        if (is == null) {
+            return;
+        }
+
+        final String metricName = "zuora.payload.response." + PayloadSizeOutInterceptor.getOperationName(message);
+        message.setContent(InputStream.class, new FilterInputStream(is) {
+            private long size = 0;
+            private boolean closed = false;
+
+            @Override
+            public int read() throws IOException {
+                final int b = in.read();
+                if (b != -1) {
+                    size++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int n = in.read(b, off, len);
+                if (n > 0) {
+                    size += n;
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(final long n) throws IOException {
+                final long skipped = in.skip(n);
+                size += skipped;
+                return skipped;
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (!closed) {
+                    closed = true;
+                    metrics.histogram(metricName).update(size);
+                }
+            }
+        });
+    }
+}
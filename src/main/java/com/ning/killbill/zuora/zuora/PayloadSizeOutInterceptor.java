@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.cxf.service.model.BindingOperationInfo;
+
+import com.ning.killbill.zuora.metrics.MetricsRegistry;
+
+/**
+ * Records the size of the (uncompressed) zuora requests, per SOAP operation, once they are sent.
+ */
+public class PayloadSizeOutInterceptor extends AbstractPhaseInterceptor<Message> {
+
+    private final MetricsRegistry metrics;
+
+    public PayloadSizeOutInterceptor(final MetricsRegistry metrics) {
+        super(Phase.PRE_STREAM);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handleMessage(final Message message) throws Fault {
+        final OutputStream os = message.getContent(OutputStream.class);
+        if (os == null) {
+            return;
+        }
+
+        final String metricName = "zuora.payload.request." + getOperationName(message);
+        message.setContent(OutputStream.class, new FilterOutputStream(os) {
+            private long size = 0;
+            private boolean closed = false;
+
+            @Override
+            public void write(final int b) throws IOException {
+                out.write(b);
+                size++;
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+                size += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (!closed) {
+                    closed = true;
+                    metrics.histogram(metricName).update(size);
+                }
+            }
+        });
+    }
+
+    static String getOperationName(final Message message) {
+        final BindingOperationInfo operation = message.getExchange() == null ? null : message.getExchange().get(BindingOperationInfo.class);
+        return operation == null ? "unknown" : operation.getName().getLocalPart();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counting permits with two priorities, bounding the connections borrowed from the pool.
+ * <p/>
+ * NORMAL callers can't take the last reserved permits, and wait as long as HIGH callers are queued: a released
+ * permit always goes to a waiting HIGH caller first.
+ */
+public class PriorityPermits {
+
+    private final int maxPermits;
+    private final int reserved;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition highAvailable = lock.newCondition();
+    private final Condition normalAvailable = lock.newCondition();
+
+    private int available;
+    private int numHighWaiters;
+    private int numNormalWaiters;
+
+    /**
+     * @param reserved permits only HIGH callers can take, at most maxPermits - 1
+     */
+    public PriorityPermits(final int maxPermits, final int reserved) {
+        this.maxPermits = maxPermits;
+        this.reserved = Math.max(0, Math.min(reserved, maxPermits - 1));
+        this.available = maxPermits;
+    }
+
+    public boolean tryAcquire(final ConnectionPriority priority, final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            if (priority == ConnectionPriority.HIGH) {
+                numHighWaiters++;
+                try {
+                    while (available == 0) {
+                        if (nanos <= 0) {
+                            return false;
+                        }
+                        nanos = highAvailable.awaitNanos(nanos);
+                    }
+                    available--;
+                    return true;
+                } finally {
+                    if (--numHighWaiters == 0) {
+                        normalAvailable.signalAll();
+                    }
+                }
+            } else {
+                numNormalWaiters++;
+                try {
+                    while (available <= reserved || numHighWaiters > 0) {
+                        if (nanos <= 0) {
+                            return false;
+                        }
+                        nanos = normalAvailable.awaitNanos(nanos);
+                    }
+                    available--;
+                    return true;
+                } finally {
+                    numNormalWaiters--;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            available++;
+            if (numHighWaiters > 0) {
+                highAvailable.signalAll();
+            } else {
+                normalAvailable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxPermits() {
+        return maxPermits;
+    }
+
+    public int getReserved() {
+        return reserved;
+    }
+
+    public int getAvailablePermits() {
+        lock.lock();
+        try {
+            return available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueLength(final ConnectionPriority priority) {
+        lock.lock();
+        try {
+            return priority == ConnectionPriority.HIGH ? numHighWaiters : numNormalWaiters;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
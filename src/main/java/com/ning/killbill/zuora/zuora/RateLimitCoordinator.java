@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.osgi.service.log.LogService;
+import org.skife.jdbi.v2.DBI;
+
+import com.ning.killbill.zuora.dao.dbi.RateLimitNodeSqlDao;
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Shares the zuora rate limits between the plugin nodes of a Kill Bill cluster.
+ * <p/>
+ * Each node records a heartbeat in the Kill Bill database and counts the nodes of the same plugin instance
+ * which recently did: the configured rates are split between them. If the database can't be reached, the node
+ * keeps its last share.
+ */
+public class RateLimitCoordinator {
+
+    // A node missing that many heartbeats is no longer counted
+    private static final int MISSED_HEARTBEATS = 3;
+
+    private final RateLimitNodeSqlDao dao;
+    private final RateLimiters rateLimiters;
+    private final String instanceName;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final long heartbeatIntervalMillis;
+    private final LogService logService;
+    private final ScheduledExecutorService scheduler;
+
+    public RateLimitCoordinator(final DataSource dataSource, final String instanceName, final RateLimiters rateLimiters,
+                                final ZuoraConfig config, final LogService logService) {
+        this.dao = new DBI(dataSource).onDemand(RateLimitNodeSqlDao.class);
+        this.rateLimiters = rateLimiters;
+        this.instanceName = instanceName;
+        this.heartbeatIntervalMillis = Math.max(1000, config.getRateLimitHeartbeatInterval().getMillis());
+        this.logService = logService;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("zuora-rate-limit-%d")
+                                                                                              .setDaemon(true)
+                                                                                              .build());
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                heartbeat();
+            }
+        }, 0, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+        try {
+            dao.delete(nodeId);
+        } catch (RuntimeException ex) {
+            logService.log(LogService.LOG_INFO, "Could not remove the zuora rate limit heartbeat of node " + nodeId, ex);
+        }
+    }
+
+    private void heartbeat() {
+        try {
+            dao.heartbeat(nodeId, instanceName);
+            final int livenessSeconds = (int) TimeUnit.MILLISECONDS.toSeconds(heartbeatIntervalMillis * MISSED_HEARTBEATS);
+            final int numNodes = dao.countLiveNodes(instanceName, livenessSeconds);
+            if (numNodes != rateLimiters.getNumNodes()) {
+                logService.log(LogService.LOG_INFO, "Splitting the zuora rate limits between " + numNodes + " nodes");
+                rateLimiters.setNumNodes(numNodes);
+            }
+        } catch (RuntimeException ex) {
+            logService.log(LogService.LOG_WARNING, "Zuora rate limit heartbeat failed, keeping a share for " + rateLimiters.getNumNodes() + " nodes", ex);
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+/**
+ * The rate limits of a plugin instance, shared by all the connections: queries, writes (create, update and
+ * delete) and subscribe calls each draw from their own {@link TokenBucket}.
+ * <p/>
+ * The configured rates are the budget of the whole tenant: when several nodes share it (see
+ * {@link RateLimitCoordinator}), each one gets an equal part.
+ */
+public class RateLimiters {
+
+    private final Map<ZuoraOperation, TokenBucket> buckets = new EnumMap<ZuoraOperation, TokenBucket>(ZuoraOperation.class);
+    private final Map<TokenBucket, Double> globalRates = new LinkedHashMap<TokenBucket, Double>();
+    private final long maxWaitMillis;
+    private volatile int numNodes = 1;
+
+    public RateLimiters(final ZuoraConfig config) {
+        this(config.getRateLimitQueryPerSecond(), config.getRateLimitWritePerSecond(), config.getRateLimitSubscribePerSecond(),
+             config.getRateLimitMaxWait().getMillis());
+    }
+
+    public RateLimiters(final double queryPerSecond, final double writePerSecond, final double subscribePerSecond, final long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+
+        final TokenBucket query = newBucket("query", queryPerSecond);
+        final TokenBucket write = newBucket("write", writePerSecond);
+        final TokenBucket subscribe = newBucket("subscribe", subscribePerSecond);
+        buckets.put(ZuoraOperation.QUERY, query);
+        buckets.put(ZuoraOperation.CREATE, write);
+        buckets.put(ZuoraOperation.UPDATE, write);
+        buckets.put(ZuoraOperation.DELETE, write);
+        buckets.put(ZuoraOperation.SUBSCRIBE, subscribe);
+    }
+
+    private TokenBucket newBucket(final String name, final double permitsPerSecond) {
+        final TokenBucket bucket = new TokenBucket(name, permitsPerSecond);
+        globalRates.put(bucket, permitsPerSecond);
+        return bucket;
+    }
+
+    /**
+     * @return false if the rate limit of the operation was reached and no token freed up within maxWait
+     */
+    public boolean acquire(final ZuoraOperation operation) {
+        return buckets.get(operation).tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public TokenBucket get(final ZuoraOperation operation) {
+        return buckets.get(operation);
+    }
+
+    public Collection<TokenBucket> getAll() {
+        return globalRates.keySet();
+    }
+
+    /**
+     * Splits the configured rates between that many live nodes.
+     */
+    public synchronized void setNumNodes(final int numNodes) {
+        this.numNodes = Math.max(1, numNodes);
+        for (final Map.Entry<TokenBucket, Double> entry : globalRates.entrySet()) {
+            entry.getKey().setRate(entry.getValue() / this.numNodes);
+        }
+    }
+
+    public int getNumNodes() {
+        return numNodes;
+    }
+}
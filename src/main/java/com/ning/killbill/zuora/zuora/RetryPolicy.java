@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.Set;
+
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Which failed zuora calls are made again, and how long to wait before each attempt.
+ * <p/>
+ * Errors with one of the retryable codes are rejections (rate limits, lock competition, maintenance): zuora didn't
+ * process the call, which can always be retried. Transport failures are only retried for idempotent operations,
+ * unless the connection could not even be opened. Other failures are never retried.
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double jitter;
+    private final Set<String> retryableCodes;
+    private final Random random = new Random();
+
+    public RetryPolicy(final ZuoraConfig config) {
+        this(config.getRetryMaxAttempts(),
+             config.getRetryInitialBackoff().getMillis(),
+             config.getRetryMaxBackoff().getMillis(),
+             config.getRetryJitter(),
+             ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(config.getRetryRetryableCodes())));
+    }
+
+    public RetryPolicy(final int maxAttempts, final long initialBackoffMillis, final long maxBackoffMillis, final double jitter, final Set<String> retryableCodes) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.jitter = Math.min(1, Math.max(0, jitter));
+        this.retryableCodes = retryableCodes;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public boolean isRetryable(final String errorCode) {
+        return retryableCodes.contains(errorCode);
+    }
+
+    public boolean isRetryable(final ZuoraOperation operation, final Exception failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            // The request was never sent
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException) {
+                return true;
+            }
+            // Read timeouts, resets...: the request may have been processed
+            if (cause instanceof IOException) {
+                return operation.isIdempotent();
+            }
+        }
+        // Not a transport failure (e.g. a zuora fault): the same call would fail the same way
+        return false;
+    }
+
+    /**
+     * @param attempt the attempt which just failed, starting at 1
+     * @return the wait before the next attempt
+     */
+    public long getBackoffMillis(final int attempt) {
+        final long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 30));
+        return backoff - (long) (backoff * jitter * random.nextDouble());
+    }
+
+    /**
+     * Waits before the next attempt.
+     *
+     * @return false if the thread was interrupted, the call shouldn't be retried
+     */
+    public boolean backoff(final int attempt) {
+        try {
+            Thread.sleep(getBackoffMillis(attempt));
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
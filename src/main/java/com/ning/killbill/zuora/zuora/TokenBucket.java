@@ -0,0 +1,115 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Token bucket bounding the rate of a class of zuora calls.
+ * <p/>
+ * Tokens are added continuously at the configured rate, up to one second worth of them (at least one), so
+ * that a quiet bucket absorbs a short burst. A rate of 0 disables the limit.
+ */
+public class TokenBucket {
+
+    private final String name;
+    private final Ticker ticker;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private double permitsPerSecond;
+    private double maxPermits;
+    private double storedPermits;
+    private long lastRefillNanos;
+
+    public TokenBucket(final String name, final double permitsPerSecond) {
+        this(name, permitsPerSecond, Ticker.systemTicker());
+    }
+
+    TokenBucket(final String name, final double permitsPerSecond, final Ticker ticker) {
+        this.name = name;
+        this.ticker = ticker;
+        this.lastRefillNanos = ticker.read();
+        setRate(permitsPerSecond);
+        this.storedPermits = maxPermits;
+    }
+
+    public synchronized void setRate(final double permitsPerSecond) {
+        refill(ticker.read());
+        this.permitsPerSecond = Math.max(0, permitsPerSecond);
+        this.maxPermits = Math.max(1, this.permitsPerSecond);
+        this.storedPermits = Math.min(storedPermits, maxPermits);
+    }
+
+    /**
+     * @return false if no token will be available within the timeout (without waiting for it), or if interrupted
+     */
+    public boolean tryAcquire(final long timeout, final TimeUnit unit) {
+        final long deadlineNanos = ticker.read() + unit.toNanos(timeout);
+
+        while (true) {
+            final long waitNanos;
+            synchronized (this) {
+                if (permitsPerSecond <= 0) {
+                    return true;
+                }
+
+                final long nowNanos = ticker.read();
+                refill(nowNanos);
+                if (storedPermits >= 1) {
+                    storedPermits -= 1;
+                    return true;
+                }
+
+                waitNanos = (long) Math.ceil((1 - storedPermits) * TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+                if (nowNanos + waitNanos > deadlineNanos) {
+                    rejectedCount.incrementAndGet();
+                    return false;
+                }
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private void refill(final long nowNanos) {
+        if (permitsPerSecond > 0) {
+            final double elapsedSeconds = (nowNanos - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            storedPermits = Math.min(maxPermits, storedPermits + elapsedSeconds * permitsPerSecond);
+        }
+        lastRefillNanos = nowNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized double getRate() {
+        return permitsPerSecond;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.service.model.BindingOperationInfo;
+
+import com.ning.killbill.zuora.zuora.setup.WireLogging;
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Decides which zuora calls have their SOAP envelopes logged, and masks the card numbers and credentials in them.
+ * <p/>
+ * The decision is taken once per call and kept on the CXF exchange, so that a sampled call logs both its request and its response.
+ */
+public class WireLogPolicy {
+
+    private static final String LOGGED_KEY = WireLogPolicy.class.getName() + ".logged";
+
+    // The elements may carry attributes (e.g. xsi:type or xmlns declarations). A value cut by the payload truncation
+    // has no closing tag: it is masked up to the end of the payload
+    private static final Pattern MASKED_ELEMENTS = Pattern.compile("(<(?:[\\w-]+:)?(?:CreditCardNumber|CreditCardSecurityCode|AchAccountNumber|AchAbaCode|"
+                                                                   + "BankTransferAccountNumber|BankCode|IBAN|password|session)(?:\\s[^>]*)?>)[^<]*(<|$)",
+                                                                   Pattern.CASE_INSENSITIVE);
+    private static final String MASK = "$1****$2";
+
+    private final WireLogging mode;
+    private final double samplePercent;
+    private final Set<String> operations;
+    private final int maxPayloadSize;
+    private final Random random = new Random();
+
+    public WireLogPolicy(final ZuoraConfig config) {
+        this.mode = config.getWireLogging();
+        this.samplePercent = config.getWireLoggingSamplePercent();
+        this.operations = ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(config.getWireLoggingOperations()));
+        this.maxPayloadSize = config.getWireLoggingMaxPayloadSize();
+    }
+
+    /**
+     * @return whether every request and response has to go through the logging interceptors, if not only the faults do
+     */
+    public boolean isLoggingCalls() {
+        return mode == WireLogging.SAMPLED || mode == WireLogging.ALL || !operations.isEmpty();
+    }
+
+    public boolean isLoggingFaults() {
+        return mode != WireLogging.OFF;
+    }
+
+    public int getMaxPayloadSize() {
+        return maxPayloadSize;
+    }
+
+    public boolean isLogged(final Message message) {
+        final Exchange exchange = message.getExchange();
+        if (exchange == null) {
+            return isLogged((String) null);
+        }
+
+        Boolean logged = (Boolean) exchange.get(LOGGED_KEY);
+        if (logged == null) {
+            final BindingOperationInfo operation = exchange.get(BindingOperationInfo.class);
+            logged = isLogged(operation == null ? null : operation.getName().getLocalPart());
+            exchange.put(LOGGED_KEY, logged);
+        }
+        return logged;
+    }
+
+    boolean isLogged(final String operation) {
+        if (operation != null && operations.contains(operation)) {
+            return true;
+        }
+        switch (mode) {
+            case ALL:
+                return true;
+            case SAMPLED:
+                return random.nextDouble() * 100 < samplePercent;
+            default:
+                return false;
+        }
+    }
+
+    public String mask(final String payload) {
+        if (payload == null) {
+            return null;
+        }
+        final Matcher matcher = MASKED_ELEMENTS.matcher(payload);
+        return matcher.find() ? matcher.replaceAll(MASK) : payload;
+    }
+
+    /**
+     * Masks the payload in place. It has to be called on the payload alone, before it is formatted into the log message.
+     */
+    public void mask(final StringBuilder payload) {
+        final Matcher matcher = MASKED_ELEMENTS.matcher(payload);
+        if (matcher.find()) {
+            final String masked = matcher.replaceAll(MASK);
+            payload.setLength(0);
+            payload.append(masked);
+        }
+    }
+}
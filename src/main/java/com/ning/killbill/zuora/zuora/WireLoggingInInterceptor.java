@@ -0,0 +1,53 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.interceptor.LoggingInInterceptor;
+import org.apache.cxf.interceptor.LoggingMessage;
+import org.apache.cxf.message.Message;
+
+/**
+ * Logs the zuora responses selected by the {@link WireLogPolicy}. Installed on the fault chain, it logs the faults
+ * whose call wasn't already logged.
+ */
+public class WireLoggingInInterceptor extends LoggingInInterceptor {
+
+    private final WireLogPolicy policy;
+    private final boolean faults;
+
+    public WireLoggingInInterceptor(final WireLogPolicy policy, final boolean faults) {
+        super(policy.getMaxPayloadSize());
+        this.policy = policy;
+        this.faults = faults;
+    }
+
+    @Override
+    public void handleMessage(final Message message) throws Fault {
+        final boolean logged = policy.isLogged(message);
+        if (faults ? !logged && policy.isLoggingFaults() : logged) {
+            super.handleMessage(message);
+        }
+    }
+
+    @Override
+    protected String formatLoggingMessage(final LoggingMessage loggingMessage) {
+        // The payload is already truncated to maxPayloadSize here
+        policy.mask(loggingMessage.getPayload());
+        return super.formatLoggingMessage(loggingMessage);
+    }
+}
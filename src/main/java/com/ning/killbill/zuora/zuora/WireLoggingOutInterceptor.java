@@ -0,0 +1,50 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.interceptor.LoggingMessage;
+import org.apache.cxf.interceptor.LoggingOutInterceptor;
+import org.apache.cxf.message.Message;
+
+/**
+ * Logs the zuora requests selected by the {@link WireLogPolicy}. Requests which aren't logged are sent as is,
+ * without copying the envelope.
+ */
+public class WireLoggingOutInterceptor extends LoggingOutInterceptor {
+
+    private final WireLogPolicy policy;
+
+    public WireLoggingOutInterceptor(final WireLogPolicy policy) {
+        super(policy.getMaxPayloadSize());
+        this.policy = policy;
+    }
+
+    @Override
+    public void handleMessage(final Message message) throws Fault {
+        if (policy.isLogged(message)) {
+            super.handleMessage(message);
+        }
+    }
+
+    @Override
+    protected String formatLoggingMessage(final LoggingMessage loggingMessage) {
+        // The payload is already truncated to maxPayloadSize here
+        policy.mask(loggingMessage.getPayload());
+        return super.formatLoggingMessage(loggingMessage);
+    }
+}
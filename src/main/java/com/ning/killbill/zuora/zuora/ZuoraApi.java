@@ -21,6 +21,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
@@ -29,17 +34,38 @@ import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.osgi.service.log.LogService;
+import org.skife.config.TimeSpan;
 
 import com.ning.billing.catalog.api.Currency;
 import com.ning.billing.payment.api.PaymentMethodPlugin;
 import com.ning.killbill.zuora.method.CreditCardProperties;
 import com.ning.killbill.zuora.method.PaymentMethodProperties;
 import com.ning.killbill.zuora.method.PaypalProperties;
+import com.ning.killbill.zuora.tracing.Span;
+import com.ning.killbill.zuora.tracing.Tracer;
 import com.ning.killbill.zuora.util.Either;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlProfile;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlProfiles;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlProjection;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlQuery;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.Accounts;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.InvoicePayments;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.Invoices;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.PaymentMethods;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.Payments;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.ProductRatePlanCharges;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.RefundInvoicePayments;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.Refunds;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.Subscriptions;
 import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.zuora.api.RatePlanChargeData;
 import com.zuora.api.RatePlanData;
 import com.zuora.api.SaveResult;
@@ -70,24 +96,255 @@ public class ZuoraApi {
     private final static String DEFAULT_BATCH = "Batch17";
     private final static String DEFAULT_PAYMENT_TERMS = "Due Upon Receipt";
 
+    private static final ZoqlProjection<Account> ACCOUNT_FIELDS = ZoqlProjection.builder(Accounts.OBJECT)
+                                                                                .add(Accounts.ID)
+                                                                                .add(Accounts.ACCOUNT_NUMBER)
+                                                                                .add(Accounts.AUTO_PAY)
+                                                                                .add(Accounts.DEFAULT_PAYMENT_METHOD_ID)
+                                                                                .add(Accounts.BALANCE)
+                                                                                .add(Accounts.BILL_CYCLE_DAY)
+                                                                                .add(Accounts.BILL_TO_ID)
+                                                                                .add(Accounts.CURRENCY)
+                                                                                .add(Accounts.PAYMENT_GATEWAY)
+                                                                                .build();
+
+    private static final ZoqlProfiles<Account> ACCOUNT_PROFILES = ZoqlProfiles.of(ZoqlProjection.builder(Accounts.OBJECT)
+                                                                                                .add(Accounts.ID)
+                                                                                                .add(Accounts.ACCOUNT_NUMBER)
+                                                                                                .add(Accounts.AUTO_PAY)
+                                                                                                .add(Accounts.DEFAULT_PAYMENT_METHOD_ID)
+                                                                                                .add(Accounts.BILL_TO_ID)
+                                                                                                .add(Accounts.CURRENCY)
+                                                                                                .add(Accounts.PAYMENT_GATEWAY)
+                                                                                                .build(),
+                                                                                   ACCOUNT_FIELDS);
+
+    private static final ZoqlProjection<Invoice> INVOICE_FIELDS = ZoqlProjection.builder(Invoices.OBJECT)
+                                                                                .add(Invoices.ID)
+                                                                                .add(Invoices.ACCOUNT_ID)
+                                                                                .add(Invoices.INVOICE_NUMBER)
+                                                                                .add(Invoices.BALANCE)
+                                                                                .add(Invoices.INVOICE_DATE)
+                                                                                .add(Invoices.TARGET_DATE)
+                                                                                .add(Invoices.KILLBILL)
+                                                                                .build();
+
+    private static final ZoqlProfiles<Invoice> INVOICE_PROFILES = ZoqlProfiles.of(ZoqlProjection.builder(Invoices.OBJECT)
+                                                                                                .add(Invoices.ID)
+                                                                                                .add(Invoices.ACCOUNT_ID)
+                                                                                                .add(Invoices.INVOICE_NUMBER)
+                                                                                                .build(),
+                                                                                   INVOICE_FIELDS);
+
+    private static final ZoqlProjection<Invoice> INVOICE_STATEMENT_FIELDS = ZoqlProjection.builder(Invoices.OBJECT)
+                                                                                          .add(Invoices.ACCOUNT_ID)
+                                                                                          .add(Invoices.INVOICE_NUMBER)
+                                                                                          .add(Invoices.AMOUNT)
+                                                                                          .add(Invoices.BALANCE)
+                                                                                          .add(Invoices.INVOICE_DATE)
+                                                                                          .add(Invoices.PAYMENT_AMOUNT)
+                                                                                          .add(Invoices.STATUS)
+                                                                                          .build();
+
+    private static final ZoqlProjection<Invoice> INVOICE_BODY_FIELDS = ZoqlProjection.builder(Invoices.OBJECT)
+                                                                                     .add(Invoices.ACCOUNT_ID)
+                                                                                     .add(Invoices.BODY)
+                                                                                     .build();
+
+    private static final ZoqlProjection<InvoicePayment> INVOICE_PAYMENT_FIELDS = ZoqlProjection.builder(InvoicePayments.OBJECT)
+                                                                                               .add(InvoicePayments.ID)
+                                                                                               .add(InvoicePayments.PAYMENT_ID)
+                                                                                               .add(InvoicePayments.INVOICE_ID)
+                                                                                               .add(InvoicePayments.REFUND_AMOUNT)
+                                                                                               .build();
+
+    private static final ZoqlProjection<InvoicePayment> INVOICE_PAYMENT_AMOUNT_FIELDS = ZoqlProjection.builder(InvoicePayments.OBJECT)
+                                                                                                      .add(InvoicePayments.AMOUNT)
+                                                                                                      .add(InvoicePayments.PAYMENT_ID)
+                                                                                                      .build();
+
+    private static final ZoqlProjection<Payment> PAYMENT_FIELDS = ZoqlProjection.builder(Payments.OBJECT)
+                                                                                .add(Payments.ACCOUNT_ID)
+                                                                                .add(Payments.ACCOUNTING_CODE)
+                                                                                .add(Payments.AMOUNT)
+                                                                                .add(Payments.APPLIED_CREDIT_BALANCE_AMOUNT)
+                                                                                .add(Payments.BANK_IDENTIFICATION_NUMBER)
+                                                                                .add(Payments.COMMENT)
+                                                                                .add(Payments.CREATED_DATE)
+                                                                                .add(Payments.EFFECTIVE_DATE)
+                                                                                .add(Payments.GATEWAY_ORDER_ID)
+                                                                                .add(Payments.GATEWAY_RESPONSE_CODE)
+                                                                                .add(Payments.GATEWAY_RESPONSE)
+                                                                                .add(Payments.ID)
+                                                                                .add(Payments.PAYMENT_METHOD_ID)
+                                                                                .add(Payments.PAYMENT_NUMBER)
+                                                                                .add(Payments.REFERENCE_ID)
+                                                                                .add(Payments.REFUND_AMOUNT)
+                                                                                .add(Payments.SECOND_PAYMENT_REFERENCE_ID)
+                                                                                .add(Payments.STATUS)
+                                                                                .add(Payments.TYPE)
+                                                                                .add(Payments.UPDATED_DATE)
+                                                                                .build();
+
+    // The summary covers PaymentConverter, PaymentEntity and the invoice last payment json
+    private static final ZoqlProfiles<Payment> PAYMENT_PROFILES = ZoqlProfiles.of(ZoqlProjection.builder(Payments.OBJECT)
+                                                                                                .add(Payments.ID)
+                                                                                                .add(Payments.ACCOUNT_ID)
+                                                                                                .add(Payments.AMOUNT)
+                                                                                                .add(Payments.COMMENT)
+                                                                                                .add(Payments.CREATED_DATE)
+                                                                                                .add(Payments.EFFECTIVE_DATE)
+                                                                                                .add(Payments.GATEWAY_RESPONSE)
+                                                                                                .add(Payments.GATEWAY_RESPONSE_CODE)
+                                                                                                .add(Payments.PAYMENT_METHOD_ID)
+                                                                                                .add(Payments.REFERENCE_ID)
+                                                                                                .add(Payments.SECOND_PAYMENT_REFERENCE_ID)
+                                                                                                .add(Payments.STATUS)
+                                                                                                .add(Payments.UPDATED_DATE)
+                                                                                                .build(),
+                                                                                   PAYMENT_FIELDS);
+
+    private static final ZoqlProjection<PaymentMethod> PAYMENT_METHOD_FIELDS = ZoqlProjection.builder(PaymentMethods.OBJECT)
+                                                                                             .add(PaymentMethods.ID)
+                                                                                             .add(PaymentMethods.ACCOUNT_ID)
+                                                                                             .add(PaymentMethods.TYPE)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_HOLDER_NAME)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_ADDRESS1)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_ADDRESS2)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_CITY)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_STATE)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_POSTAL_CODE)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_COUNTRY)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_EXPIRATION_MONTH)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_EXPIRATION_YEAR)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_MASK_NUMBER)
+                                                                                             .add(PaymentMethods.CREDIT_CARD_TYPE)
+                                                                                             .add(PaymentMethods.NUM_CONSECUTIVE_FAILURES)
+                                                                                             .add(PaymentMethods.LAST_TRANSACTION_STATUS)
+                                                                                             .add(PaymentMethods.PAYPAL_BAID)
+                                                                                             .add(PaymentMethods.PAYPAL_EMAIL)
+                                                                                             .build();
+
+    // The summary covers PaymentMethodInfoConverter and the payment gateway check
+    private static final ZoqlProfiles<PaymentMethod> PAYMENT_METHOD_PROFILES = ZoqlProfiles.of(ZoqlProjection.builder(PaymentMethods.OBJECT)
+                                                                                                             .add(PaymentMethods.ID)
+                                                                                                             .add(PaymentMethods.ACCOUNT_ID)
+                                                                                                             .add(PaymentMethods.TYPE)
+                                                                                                             .build(),
+                                                                                                PAYMENT_METHOD_FIELDS);
+
+    private static final ZoqlProjection<PaymentMethod> PAYMENT_METHOD_ID_FIELDS = ZoqlProjection.builder(PaymentMethods.OBJECT)
+                                                                                                .add(PaymentMethods.ID)
+                                                                                                .build();
+
+    private static final ZoqlProjection<ProductRatePlanCharge> RATE_PLAN_CHARGE_FIELDS = ZoqlProjection.builder(ProductRatePlanCharges.OBJECT)
+                                                                                                       .add(ProductRatePlanCharges.ID)
+                                                                                                       .add(ProductRatePlanCharges.CHARGE_MODEL)
+                                                                                                       .add(ProductRatePlanCharges.CHARGE_TYPE)
+                                                                                                       .add(ProductRatePlanCharges.NAME)
+                                                                                                       .add(ProductRatePlanCharges.NUMBER_OF_PERIOD)
+                                                                                                       .add(ProductRatePlanCharges.ACCOUNTING_CODE)
+                                                                                                       .add(ProductRatePlanCharges.BILL_CYCLE_DAY)
+                                                                                                       .add(ProductRatePlanCharges.BILL_CYCLE_TYPE)
+                                                                                                       .add(ProductRatePlanCharges.REV_REC_CODE)
+                                                                                                       .add(ProductRatePlanCharges.REV_REC_TRIGGER_CONDITION)
+                                                                                                       .add(ProductRatePlanCharges.SPECIFIC_BILLING_PERIOD)
+                                                                                                       .add(ProductRatePlanCharges.PRODUCT_RATE_PLAN_ID)
+                                                                                                       .build();
+
+    private static final ZoqlProjection<ProductRatePlanCharge> PROBE_FIELDS = ZoqlProjection.builder(ProductRatePlanCharges.OBJECT)
+                                                                                            .add(ProductRatePlanCharges.ID)
+                                                                                            .build();
+
+    private static final ZoqlProjection<Refund> REFUND_FIELDS = ZoqlProjection.builder(Refunds.OBJECT)
+                                                                              .add(Refunds.ID)
+                                                                              .add(Refunds.ACCOUNT_ID)
+                                                                              .add(Refunds.AMOUNT)
+                                                                              .add(Refunds.GATEWAY_RESPONSE)
+                                                                              .add(Refunds.GATEWAY_RESPONSE_CODE)
+                                                                              .add(Refunds.REFUND_DATE)
+                                                                              .add(Refunds.STATUS)
+                                                                              .add(Refunds.TYPE)
+                                                                              .build();
+
+    private static final ZoqlProjection<RefundInvoicePayment> REFUND_INVOICE_PAYMENT_FIELDS = ZoqlProjection.builder(RefundInvoicePayments.OBJECT)
+                                                                                                            .add(RefundInvoicePayments.INVOICE_PAYMENT_ID)
+                                                                                                            .add(RefundInvoicePayments.REFUND_AMOUNT)
+                                                                                                            .add(RefundInvoicePayments.REFUND_ID)
+                                                                                                            .build();
+
+    private static final ZoqlProjection<Subscription> SUBSCRIPTION_FIELDS = ZoqlProjection.builder(Subscriptions.OBJECT)
+                                                                                          .add(Subscriptions.ID)
+                                                                                          .add(Subscriptions.ORIGINAL_ID)
+                                                                                          .add(Subscriptions.STATUS)
+                                                                                          .add(Subscriptions.ACCOUNT_ID)
+                                                                                          .add(Subscriptions.VERSION)
+                                                                                          .add(Subscriptions.SUBSCRIPTION_START_DATE)
+                                                                                          .add(Subscriptions.CONTRACT_EFFECTIVE_DATE)
+                                                                                          .add(Subscriptions.NAME)
+                                                                                          .add(Subscriptions.KILLBILL)
+                                                                                          .build();
+
     private final ZuoraConfig config;
-    private final StringTemplateLoader stringTemplateLoader;
     private final AtomicReference<ProductRatePlanCharge> killBillPlan = new AtomicReference<ProductRatePlanCharge>();
     private final LogService logService;
 
+    // Active zuora accounts by Id, and their Ids by AccountNumber: invalidating an account by Id is enough.
+    // Null when caching is disabled.
+    private final Cache<String, String> accountIdsByName;
+    private final Cache<String, Account> accountsById;
+
     public ZuoraApi(ZuoraConfig config, final LogService logService) {
         this.config = config;
         this.logService = logService;
-        this.stringTemplateLoader = new StringTemplateLoader(ZuoraApi.class, logService);
+
+        final TimeSpan accountCacheTtl = config.getAccountCacheTtl();
+        final long accountCacheMaxSize = config.getAccountCacheMaxSize();
+        if (accountCacheTtl != null && accountCacheTtl.getMillis() > 0 && accountCacheMaxSize > 0) {
+            this.accountIdsByName = CacheBuilder.newBuilder()
+                                                .maximumSize(accountCacheMaxSize)
+                                                .expireAfterWrite(accountCacheTtl.getMillis(), TimeUnit.MILLISECONDS)
+                                                .build();
+            this.accountsById = CacheBuilder.newBuilder()
+                                            .maximumSize(accountCacheMaxSize)
+                                            .expireAfterWrite(accountCacheTtl.getMillis(), TimeUnit.MILLISECONDS)
+                                            .build();
+        } else {
+            this.accountIdsByName = null;
+            this.accountsById = null;
+        }
+    }
+
+    public Map<String, CacheStats> getCacheStats() {
+        if (accountIdsByName == null) {
+            return ImmutableMap.<String, CacheStats>of();
+        }
+        return ImmutableMap.<String, CacheStats>of("accountIdsByName", accountIdsByName.stats(),
+                                                   "accountsById", accountsById.stats());
     }
 
     //
     //                              ACCOUNT
     //
+
+    // Cached accounts are shared between callers and must not be modified: create a new Account object for updates
     public Either<ZuoraError, Account> getByAccountName(ZuoraConnection connection, String accountName) {
-        final String query = stringTemplateLoader.load("getAccountByAccountName")
-                                                 .define("accountName", accountName)
-                                                 .build();
+        return getByAccountName(connection, accountName, ZoqlProfile.FULL);
+    }
+
+    public Either<ZuoraError, Account> getByAccountName(ZuoraConnection connection, String accountName, ZoqlProfile profile) {
+        if (accountIdsByName != null) {
+            final String cachedAccountId = accountIdsByName.getIfPresent(accountName);
+            final Account cachedAccount = cachedAccountId == null ? null : accountsById.getIfPresent(cachedAccountId);
+            if (cachedAccount != null) {
+                return Either.right(cachedAccount);
+            }
+        }
+
+        final String query = ZoqlQuery.select(ACCOUNT_PROFILES.get(profile))
+                                      .where(Accounts.ACCOUNT_NUMBER.eq(accountName))
+                                      .and(Accounts.STATUS.eq("Active"))
+                                      .build();
         final Either<ZuoraError, Account> accountOrError = connection.querySingle(query);
 
         if (accountOrError.isLeft()) {
@@ -95,14 +352,27 @@ public class ZuoraApi {
         } else if (accountOrError.getRight() == null) {
             return Either.left(new ZuoraError(ZuoraError.ERROR_NOTFOUND, "No account found for accountName " + accountName));
         } else {
+            cacheAccount(accountOrError.getRight(), profile);
             return Either.right(accountOrError.getRight());
         }
     }
 
     public Either<ZuoraError, Account> getAccountById(ZuoraConnection connection, String id) {
-        final String query = stringTemplateLoader.load("getAccountById")
-                                                 .define("id", id)
-                                                 .build();
+        return getAccountById(connection, id, ZoqlProfile.FULL);
+    }
+
+    public Either<ZuoraError, Account> getAccountById(ZuoraConnection connection, String id, ZoqlProfile profile) {
+        if (accountsById != null) {
+            final Account cachedAccount = accountsById.getIfPresent(id);
+            if (cachedAccount != null) {
+                return Either.right(cachedAccount);
+            }
+        }
+
+        final String query = ZoqlQuery.select(ACCOUNT_PROFILES.get(profile))
+                                      .where(Accounts.ID.eq(id))
+                                      .and(Accounts.STATUS.eq("Active"))
+                                      .build();
         final Either<ZuoraError, Account> accountOrError = connection.querySingle(query);
 
         if (accountOrError.isLeft()) {
@@ -110,10 +380,40 @@ public class ZuoraApi {
         } else if (accountOrError.getRight() == null) {
             return Either.left(new ZuoraError(ZuoraError.ERROR_NOTFOUND, "No account found for id " + id));
         } else {
+            cacheAccount(accountOrError.getRight(), profile);
             return Either.right(accountOrError.getRight());
         }
     }
 
+    // Cached accounts are served to every caller whatever its profile, so only full accounts are cached: a summary
+    // read is served from the cache when the account is there, but its own result doesn't go in
+    private void cacheAccount(final Account account, final ZoqlProfile profile) {
+        if (accountsById == null || profile != ZoqlProfile.FULL || account.getId() == null) {
+            return;
+        }
+        accountsById.put(account.getId(), account);
+        if (account.getAccountNumber() != null) {
+            accountIdsByName.put(account.getAccountNumber(), account.getId());
+        }
+    }
+
+    private void invalidateAccount(final String accountId) {
+        if (accountsById == null || accountId == null) {
+            return;
+        }
+        // The AccountNumber entry now points to nothing, and is replaced on the next lookup
+        accountsById.invalidate(accountId);
+    }
+
+    // All the account updates should go through here, to keep the account caches in sync
+    private Either<ZuoraError, String> updateAccount(final ZuoraConnection connection, final Account account) {
+        try {
+            return connection.update(account);
+        } finally {
+            invalidateAccount(account.getId());
+        }
+    }
+
 
     // STEPH should return iFrame URL instead
     public Either<ZuoraError, String> createPaymentProviderAccount(ZuoraConnection connection, com.ning.billing.account.api.Account inputAccount) {
@@ -199,7 +499,7 @@ public class ZuoraApi {
             updateAccount.setStatus("Active");
             updateAccount.setName(inputAccount.getName());
 
-            final Either<ZuoraError, String> accountIdOrError = connection.update(updateAccount);
+            final Either<ZuoraError, String> accountIdOrError = updateAccount(connection, updateAccount);
             if (accountIdOrError.isLeft()) {
                 return Either.left(accountIdOrError.getLeft());
             } else {
@@ -286,7 +586,7 @@ public class ZuoraApi {
             accountToUpdate.setId(zuoraAccount.getId());
             accountToUpdate.setName(account.getName());
 
-            final Either<ZuoraError, String> accountIdOrError = connection.update(accountToUpdate);
+            final Either<ZuoraError, String> accountIdOrError = updateAccount(connection, accountToUpdate);
             if (accountIdOrError.isLeft()) {
                 return Either.left(accountIdOrError.getLeft());
             } else {
@@ -299,6 +599,7 @@ public class ZuoraApi {
 
     public void deleteAccount(ZuoraConnection connection, Account account) {
         connection.delete(Collections.singletonList(account));
+        invalidateAccount(account.getId());
 
     }
 
@@ -316,16 +617,18 @@ public class ZuoraApi {
 
         final String query;
         if (from == null && to != null) {
-            query = stringTemplateLoader.load("getPostedInvoicesForAccountTo")
-                                        .define("accountId", account.getId())
-                                        .define("invoiceDateTo", toDate)
-                                        .build();
+            query = ZoqlQuery.select(INVOICE_STATEMENT_FIELDS)
+                             .where(Invoices.ACCOUNT_ID.eq(account.getId()))
+                             .and(Invoices.STATUS.eq("Posted"))
+                             .and(Invoices.INVOICE_DATE.lt(toDate))
+                             .build();
         } else if (from != null && to != null) {
-            query = stringTemplateLoader.load("getPostedInvoicesForAccountFromTo")
-                                        .define("accountId", account.getId())
-                                        .define("invoiceDateTo", toDate)
-                                        .define("invoiceDateFrom", from.toString())
-                                        .build();
+            query = ZoqlQuery.select(INVOICE_STATEMENT_FIELDS)
+                             .where(Invoices.ACCOUNT_ID.eq(account.getId()))
+                             .and(Invoices.STATUS.eq("Posted"))
+                             .and(Invoices.INVOICE_DATE.lt(toDate))
+                             .and(Invoices.INVOICE_DATE.gt(from.toString()))
+                             .build();
         } else {
             throw new UnsupportedOperationException();
         }
@@ -339,9 +642,9 @@ public class ZuoraApi {
     }
 
     public Either<ZuoraError, String> getInvoiceContent(final ZuoraConnection connection, final Account account, final String invoiceNumber) {
-        final String query = stringTemplateLoader.load("getInvoiceContent")
-                                                 .define("invoiceNumber", invoiceNumber)
-                                                 .build();
+        final String query = ZoqlQuery.select(INVOICE_BODY_FIELDS)
+                                      .where(Invoices.INVOICE_NUMBER.eq(invoiceNumber))
+                                      .build();
         final Either<ZuoraError, Invoice> invoicesOrError = connection.querySingle(query);
         if (invoicesOrError.isLeft()) {
             return Either.left(invoicesOrError.getLeft());
@@ -356,9 +659,9 @@ public class ZuoraApi {
     }
 
     public Either<ZuoraError, Payment> getLastPaymentForInvoice(final ZuoraConnection connection, final String invoiceId) {
-        final String query = stringTemplateLoader.load("getInvoicePaymentsForInvoice")
-                                                 .define("invoiceId", invoiceId)
-                                                 .build();
+        final String query = ZoqlQuery.select(INVOICE_PAYMENT_AMOUNT_FIELDS)
+                                      .where(InvoicePayments.INVOICE_ID.eq(invoiceId))
+                                      .build();
         final Either<ZuoraError, List<InvoicePayment>> invoicePaymentsOrError = connection.query(query);
         if (invoicePaymentsOrError.isLeft()) {
             return Either.left(invoicePaymentsOrError.getLeft());
@@ -366,7 +669,7 @@ public class ZuoraApi {
             final List<InvoicePayment> invoicePayments = invoicePaymentsOrError.getRight();
             Payment result = null;
             for (final InvoicePayment ip : invoicePayments) {
-                final Either<ZuoraError, Payment> paymentOrError = getPaymentById(connection, ip.getPaymentId());
+                final Either<ZuoraError, Payment> paymentOrError = getPaymentById(connection, ip.getPaymentId(), ZoqlProfile.SUMMARY);
                 if (paymentOrError.isLeft()) {
                     return Either.left(paymentOrError.getLeft());
                 } else {
@@ -385,9 +688,13 @@ public class ZuoraApi {
     //                           PAYMENT
     //
     public Either<ZuoraError, Payment> getPaymentById(ZuoraConnection connection, String paymentId) {
-        final String query = stringTemplateLoader.load("getPaymentFromId")
-                                                 .define("id", paymentId)
-                                                 .build();
+        return getPaymentById(connection, paymentId, ZoqlProfile.FULL);
+    }
+
+    public Either<ZuoraError, Payment> getPaymentById(ZuoraConnection connection, String paymentId, ZoqlProfile profile) {
+        final String query = ZoqlQuery.select(PAYMENT_PROFILES.get(profile))
+                                      .where(Payments.ID.eq(paymentId))
+                                      .build();
         final Either<ZuoraError, Payment> paymentOrError = connection.querySingle(query);
 
         if (paymentOrError.isLeft()) {
@@ -401,38 +708,40 @@ public class ZuoraApi {
 
     public Either<ZuoraError, Payment> getPaymentForKillbillPayment(ZuoraConnection connection, String accountKey, String kbPaymentId) {
 
-        Either<ZuoraError, Account> zuoraAccountOrError = getByAccountName(connection, accountKey);
+        Either<ZuoraError, Account> zuoraAccountOrError = getByAccountName(connection, accountKey, ZoqlProfile.SUMMARY);
         if (zuoraAccountOrError.isLeft()) {
             logService.log(LogService.LOG_WARNING, String.format("Could not retrieve zuora account for %s", accountKey));
             return Either.left(zuoraAccountOrError.getLeft());
         }
 
         String accountId = zuoraAccountOrError.getRight().getId();
-        Either<ZuoraError, List<Payment>> paymentAccounts = getProcessedPaymentsForAccount(connection, accountId);
-        if (paymentAccounts.isLeft()) {
-            return Either.left(paymentAccounts.getLeft());
-        }
-
-        for (Payment cur : paymentAccounts.getRight()) {
-            if (cur.getComment() != null && cur.getComment().equals(kbPaymentId)) {
-                return Either.right(cur);
-            }
-        }
-        return Either.left(new ZuoraError(ZuoraError.ERROR_NOTFOUND, "cannot find zuora payment"));
+        return getProcessedPaymentForKillbillPayment(connection, accountId, kbPaymentId);
     }
 
-
-    public Either<ZuoraError, List<Payment>> getProcessedPaymentsForAccount(ZuoraConnection connection, String accountId) {
-        final String query = stringTemplateLoader.load("getProcessedPaymentsForAccount")
-                                                 .define("accountId", accountId)
-                                                 .build();
-        final Either<ZuoraError, List<Payment>> paymentOrError = connection.query(query);
-        if (paymentOrError.isLeft()) {
-            return Either.left(paymentOrError.getLeft());
-        } else if (paymentOrError.getRight() == null) {
-            return Either.left(new ZuoraError(ZuoraError.ERROR_NOTFOUND, "No payment found for accountId " + accountId));
+    // Only the summary fields are loaded: the payment is converted for Kill Bill or refunded, never returned as is
+    public Either<ZuoraError, Payment> getProcessedPaymentForKillbillPayment(ZuoraConnection connection, String accountId, final String kbPaymentId) {
+        // The kbPaymentId is stored in the Comment field of the payment, so zuora can do the filtering for us
+        final String query = ZoqlQuery.select(PAYMENT_PROFILES.getSummary())
+                                      .where(Payments.ACCOUNT_ID.eq(accountId))
+                                      .and(Payments.STATUS.eq("Processed"))
+                                      .and(Payments.COMMENT.eq(kbPaymentId))
+                                      .build();
+
+        final AtomicReference<Payment> firstPayment = new AtomicReference<Payment>();
+        final Either<ZuoraError, Void> doneOrError = connection.queryPages(query, new ZuoraConnection.QueryPageCallback<Payment>() {
+            @Override
+            public boolean onPage(final List<Payment> records) {
+                // Only the first match is used, don't fetch the following pages
+                firstPayment.set(records.get(0));
+                return false;
+            }
+        });
+        if (doneOrError.isLeft()) {
+            return Either.left(doneOrError.getLeft());
+        } else if (firstPayment.get() == null) {
+            return Either.left(new ZuoraError(ZuoraError.ERROR_NOTFOUND, "cannot find zuora payment"));
         } else {
-            return Either.right(paymentOrError.getRight());
+            return Either.right(firstPayment.get());
         }
     }
 
@@ -482,7 +791,7 @@ public class ZuoraApi {
 
             // zuora may return success with error in status field
             if (paymentOrError.isRight()) {
-                Either<ZuoraError, Payment> paymentOrErrorFromGet = getPaymentById(connection, paymentOrError.getRight());
+                Either<ZuoraError, Payment> paymentOrErrorFromGet = getPaymentById(connection, paymentOrError.getRight(), ZoqlProfile.SUMMARY);
                 return paymentOrErrorFromGet;
             } else {
                 logService.log(LogService.LOG_WARNING, String.format("Failed to create payment for account %s : %s ", accountName, paymentOrError.getLeft().getMessage()));
@@ -497,56 +806,212 @@ public class ZuoraApi {
                                                       final String accountName,
                                                       final BigDecimal paymentAmount,
                                                       final String kbPaymentId) {
+        return processPayment(connection, null, ConnectionPriority.NORMAL, accountName, paymentAmount, kbPaymentId);
+    }
+
+    /**
+     * The subscription and invoice lookups only depend on the kbPaymentId: when an async client is passed, they run
+     * on spare pooled connections while the account and rate plan charge are fetched, and only the
+     * subscribe -> invoice -> payment chain is serialized. Lookups which can't get a connection, or which haven't
+     * started by the time they're needed, run inline.
+     *
+     * @param lookupPriority the pool priority of the async lookups, normally the one the caller borrowed its connection with
+     */
+    public Either<ZuoraError, Payment> processPayment(final ZuoraConnection connection,
+                                                      @Nullable final ZuoraAsyncClient asyncClient,
+                                                      final ConnectionPriority lookupPriority,
+                                                      final String accountName,
+                                                      final BigDecimal paymentAmount,
+                                                      final String kbPaymentId) {
         try {
 
             logService.log(LogService.LOG_INFO, String.format("Processing payment for %s, amount = %s kbPaymentId = %s ", accountName, paymentAmount, kbPaymentId));
 
-            final Either<ZuoraError, Account> accountOrError = getByAccountName(connection, accountName);
+            final Lookup<String> subscriptionLookup = new Lookup<String>(new ZuoraAsyncClient.ConnectionCallback<Either<ZuoraError, String>>() {
+                @Override
+                public Either<ZuoraError, String> withConnection(final ZuoraConnection lookupConnection) {
+                    final Span span = Tracer.startSpan("subscriptionLookup");
+                    try {
+                        return getSubscriptionForPayment(lookupConnection, kbPaymentId);
+                    } finally {
+                        span.finish();
+                    }
+                }
+            });
+            final Lookup<String> invoiceLookup = new Lookup<String>(new ZuoraAsyncClient.ConnectionCallback<Either<ZuoraError, String>>() {
+                @Override
+                public Either<ZuoraError, String> withConnection(final ZuoraConnection lookupConnection) {
+                    final Span span = Tracer.startSpan("invoiceLookup");
+                    try {
+                        return getInvoiceForPayment(lookupConnection, kbPaymentId);
+                    } finally {
+                        span.finish();
+                    }
+                }
+            });
+            final ListenableFuture<Either<ZuoraError, String>> pendingSubscriptionLookup = lookupAsync(asyncClient, lookupPriority, subscriptionLookup);
+            final ListenableFuture<Either<ZuoraError, String>> pendingInvoiceLookup = lookupAsync(asyncClient, lookupPriority, invoiceLookup);
 
-            if (accountOrError.isLeft()) {
-                return Either.left(accountOrError.getLeft());
-            }
-            final Account zuoraAccount = accountOrError.getRight();
+            try {
+                final Either<ZuoraError, Account> accountOrError;
+                Span span = Tracer.startSpan("account");
+                try {
+                    accountOrError = getByAccountName(connection, accountName);
+                } finally {
+                    span.finish();
+                }
 
-            Either<ZuoraError, ProductRatePlanCharge> chargeOrError = getRatePlanCharge(connection);
+                if (accountOrError.isLeft()) {
+                    return Either.left(accountOrError.getLeft());
+                }
+                final Account zuoraAccount = accountOrError.getRight();
+
+                final Either<ZuoraError, ProductRatePlanCharge> chargeOrError;
+                span = Tracer.startSpan("ratePlanCharge");
+                try {
+                    chargeOrError = getRatePlanCharge(connection);
+                } finally {
+                    span.finish();
+                }
 
-            if (chargeOrError.isLeft()) {
-                return Either.left(chargeOrError.getLeft());
-            }
+                if (chargeOrError.isLeft()) {
+                    return Either.left(chargeOrError.getLeft());
+                }
 
-            Either<ZuoraError, String> subscriptionOrError = createOrGetSubscription(connection,
-                                                                                     zuoraAccount,
-                                                                                     chargeOrError.getRight(),
-                                                                                     paymentAmount,
-                                                                                     kbPaymentId);
-            if (subscriptionOrError.isLeft()) {
-                logService.log(LogService.LOG_WARNING, String.format("Failed to create subscription for account %s : %s ", accountName, subscriptionOrError.getLeft().getMessage()));
-                return Either.left(subscriptionOrError.getLeft());
-            }
+                final Either<ZuoraError, String> subscriptionOrError;
+                span = Tracer.startSpan("subscription");
+                try {
+                    subscriptionOrError = createOrGetSubscription(connection,
+                                                                  awaitLookup(pendingSubscriptionLookup, connection, subscriptionLookup),
+                                                                  zuoraAccount,
+                                                                  chargeOrError.getRight(),
+                                                                  paymentAmount,
+                                                                  kbPaymentId);
+                } finally {
+                    span.finish();
+                }
+                if (subscriptionOrError.isLeft()) {
+                    logService.log(LogService.LOG_WARNING, String.format("Failed to create subscription for account %s : %s ", accountName, subscriptionOrError.getLeft().getMessage()));
+                    return Either.left(subscriptionOrError.getLeft());
+                }
 
-            Either<ZuoraError, String> invoiceIdOrError = createOrGetInvoice(connection, zuoraAccount.getId(), kbPaymentId);
-            if (invoiceIdOrError.isLeft()) {
-                logService.log(LogService.LOG_WARNING, String.format("Failed to create invoice for account %s : %s ", accountName, invoiceIdOrError.getLeft().getMessage()));
-                return Either.left(invoiceIdOrError.getLeft());
-            }
+                final Either<ZuoraError, String> invoiceIdOrError;
+                span = Tracer.startSpan("invoice");
+                try {
+                    invoiceIdOrError = createOrGetInvoice(connection,
+                                                          awaitLookup(pendingInvoiceLookup, connection, invoiceLookup),
+                                                          zuoraAccount.getId(),
+                                                          kbPaymentId);
+                } finally {
+                    span.finish();
+                }
+                if (invoiceIdOrError.isLeft()) {
+                    logService.log(LogService.LOG_WARNING, String.format("Failed to create invoice for account %s : %s ", accountName, invoiceIdOrError.getLeft().getMessage()));
+                    return Either.left(invoiceIdOrError.getLeft());
+                }
 
-            final String invoiceId = invoiceIdOrError.getRight();
-            final String paymentMethodId = zuoraAccount.getDefaultPaymentMethodId();
+                final String invoiceId = invoiceIdOrError.getRight();
+                final String paymentMethodId = zuoraAccount.getDefaultPaymentMethodId();
 
-            return createPayment(connection, accountName, kbPaymentId, zuoraAccount.getId(), invoiceId, paymentMethodId, paymentAmount);
+                span = Tracer.startSpan("payment");
+                try {
+                    return createPayment(connection, accountName, kbPaymentId, zuoraAccount.getId(), invoiceId, paymentMethodId, paymentAmount);
+                } finally {
+                    span.finish();
+                }
+            } finally {
+                // No-op unless we bailed out early
+                if (pendingSubscriptionLookup != null) {
+                    pendingSubscriptionLookup.cancel(false);
+                }
+                if (pendingInvoiceLookup != null) {
+                    pendingInvoiceLookup.cancel(false);
+                }
+            }
         } catch (Exception ex) {
             return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, ex.getMessage()));
         }
     }
 
+    @Nullable
+    private <T> ListenableFuture<Either<ZuoraError, T>> lookupAsync(@Nullable final ZuoraAsyncClient asyncClient, final ConnectionPriority priority, final Lookup<T> lookup) {
+        // Without state checks the lookups don't hit zuora at all
+        if (asyncClient == null || !config.shouldCheckForStatePayment()) {
+            return null;
+        }
+
+        try {
+            // Only take a spare connection, the caller can always run the lookup itself
+            return asyncClient.submit(lookup, priority, 0, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            return null;
+        }
+    }
+
+    private <T> Either<ZuoraError, T> awaitLookup(@Nullable final ListenableFuture<Either<ZuoraError, T>> pendingLookup,
+                                                  final ZuoraConnection connection,
+                                                  final Lookup<T> lookup) {
+        if (pendingLookup != null) {
+            if (lookup.claim()) {
+                // Still queued behind other calls (or no spare connection): don't wait for it
+                pendingLookup.cancel(false);
+            } else {
+                try {
+                    return pendingLookup.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, "Interrupted while waiting for a zuora lookup"));
+                } catch (ExecutionException ex) {
+                    logService.log(LogService.LOG_DEBUG, "Concurrent zuora lookup failed, running it inline", ex.getCause());
+                }
+            }
+        }
+        return lookup.run(connection);
+    }
+
+    /**
+     * A lookup which is started at most once by the async client: if the caller needs the result before the
+     * async client got to it, the caller claims it and runs it on its own connection.
+     */
+    private static final class Lookup<T> implements ZuoraAsyncClient.ConnectionCallback<Either<ZuoraError, T>> {
+
+        private final ZuoraAsyncClient.ConnectionCallback<Either<ZuoraError, T>> callback;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        private Lookup(final ZuoraAsyncClient.ConnectionCallback<Either<ZuoraError, T>> callback) {
+            this.callback = callback;
+        }
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        private Either<ZuoraError, T> run(final ZuoraConnection connection) {
+            return callback.withConnection(connection);
+        }
+
+        @Override
+        public Either<ZuoraError, T> withConnection(final ZuoraConnection connection) {
+            if (!claim()) {
+                // Already run inline by the caller
+                return null;
+            }
+            return run(connection);
+        }
+    }
+
 
     //
     //                        PAYMENT METHODS
     //
     public Either<ZuoraError, List<PaymentMethod>> getPaymentMethodsForAccount(ZuoraConnection connection, Account account) {
-        String query = stringTemplateLoader.load("getPaymentMethods")
-                                           .define("accountId", account.getId())
-                                           .build();
+        return getPaymentMethodsForAccount(connection, account, ZoqlProfile.FULL);
+    }
+
+    public Either<ZuoraError, List<PaymentMethod>> getPaymentMethodsForAccount(ZuoraConnection connection, Account account, ZoqlProfile profile) {
+        String query = ZoqlQuery.select(PAYMENT_METHOD_PROFILES.get(profile))
+                                .where(PaymentMethods.ACCOUNT_ID.eq(account.getId()))
+                                .build();
         Either<ZuoraError, List<PaymentMethod>> paymentMethodsOrError = connection.query(query);
 
         if (paymentMethodsOrError.isLeft()) {
@@ -605,7 +1070,7 @@ public class ZuoraApi {
                 updatedAccount.setAutoPay(false);
             }
 
-            Either<ZuoraError, String> updateResultOrError = connection.update(updatedAccount);
+            Either<ZuoraError, String> updateResultOrError = updateAccount(connection, updatedAccount);
             if (updateResultOrError.isLeft()) {
                 logService.log(LogService.LOG_WARNING, String.format("Failed to update account  %s", accountName));
             }
@@ -613,9 +1078,9 @@ public class ZuoraApi {
     }
 
     public Either<ZuoraError, PaymentMethod> getPaymentMethodById(ZuoraConnection connection, String paymentMethodId) {
-        final String query = stringTemplateLoader.load("getPaymentMethod")
-                                                 .define("paymentMethodId", paymentMethodId)
-                                                 .build();
+        final String query = ZoqlQuery.select(PAYMENT_METHOD_FIELDS)
+                                      .where(PaymentMethods.ID.eq(paymentMethodId))
+                                      .build();
         final Either<ZuoraError, PaymentMethod> paymentMethodOrError = connection.querySingle(query);
 
         if (paymentMethodOrError.isLeft()) {
@@ -669,7 +1134,7 @@ public class ZuoraApi {
             zuoraAccount.setId(account.getId());
             zuoraAccount.setPaymentGateway(PAYPAL_GATEWAY);
 
-            final Either<ZuoraError, String> accountIdOrError = connection.update(zuoraAccount);
+            final Either<ZuoraError, String> accountIdOrError = updateAccount(connection, zuoraAccount);
 
             if (accountIdOrError.isLeft()) {
                 return Either.left(accountIdOrError.getLeft());
@@ -725,7 +1190,7 @@ public class ZuoraApi {
                 final Account updatedAccount = objectFactory.createAccount();
                 updatedAccount.setId(zuoraAccountOrError.getRight().getId());
                 updatedAccount.setDefaultPaymentMethodId(otherPaymentMethodOrError.getRight());
-                Either<ZuoraError, String> updateResultOrError = connection.update(updatedAccount);
+                Either<ZuoraError, String> updateResultOrError = updateAccount(connection, updatedAccount);
                 if (updateResultOrError.isLeft()) {
                     return new Either.Left<ZuoraError, Void>(updateResultOrError.getLeft());
                 }
@@ -748,8 +1213,9 @@ public class ZuoraApi {
 
     private Either<ZuoraError, String> getOtherPaymentMethod(ZuoraConnection connection) {
 
-        final String query = stringTemplateLoader.load("getOtherPaymentMethod")
-                                                 .build();
+        final String query = ZoqlQuery.select(PAYMENT_METHOD_ID_FIELDS)
+                                      .where(PaymentMethods.TYPE.eq("Other"))
+                                      .build();
 
         final Either<ZuoraError, PaymentMethod> pmOrError = connection.querySingle(query);
         if (pmOrError.isLeft()) {
@@ -772,7 +1238,7 @@ public class ZuoraApi {
             final Account zuoraAccount = objectFactory.createAccount();
             zuoraAccount.setId(account.getId());
 
-            final Either<ZuoraError, String> accountIdOrError = connection.update(zuoraAccount);
+            final Either<ZuoraError, String> accountIdOrError = updateAccount(connection, zuoraAccount);
 
             if (accountIdOrError.isLeft()) {
                 return Either.left(accountIdOrError.getLeft());
@@ -871,9 +1337,9 @@ public class ZuoraApi {
 
     public Either<ZuoraError, List<Subscription>> getSubscriptionsForAccount(ZuoraConnection connection, String accountId) {
 
-        final String query = stringTemplateLoader.load("getSubscriptionsForAccount")
-                                                 .define("accountId", accountId)
-                                                 .build();
+        final String query = ZoqlQuery.select(SUBSCRIPTION_FIELDS)
+                                      .where(Subscriptions.ACCOUNT_ID.eq(accountId))
+                                      .build();
 
         Either<ZuoraError, List<Subscription>> subscriptionsOrError = connection.query(query);
         return subscriptionsOrError;
@@ -881,10 +1347,15 @@ public class ZuoraApi {
 
 
     public Either<ZuoraError, List<Invoice>> getPostedInvoicesForAccount(ZuoraConnection connection, String accountId) {
+        return getPostedInvoicesForAccount(connection, accountId, ZoqlProfile.FULL);
+    }
+
+    public Either<ZuoraError, List<Invoice>> getPostedInvoicesForAccount(ZuoraConnection connection, String accountId, ZoqlProfile profile) {
 
-        final String query = stringTemplateLoader.load("getPostedInvoicesForAccount")
-                                                 .define("accountId", accountId)
-                                                 .build();
+        final String query = ZoqlQuery.select(INVOICE_PROFILES.get(profile))
+                                      .where(Invoices.STATUS.eq("Posted"))
+                                      .and(Invoices.ACCOUNT_ID.eq(accountId))
+                                      .build();
 
         Either<ZuoraError, List<Invoice>> invoicesOrError = connection.query(query);
         return invoicesOrError;
@@ -909,10 +1380,25 @@ public class ZuoraApi {
         }
     }
 
+    // Cheap call used to validate pooled connections: a single field, single row query
+    public Either<ZuoraError, Void> probe(ZuoraConnection connection) {
+        final String query = ZoqlQuery.select(PROBE_FIELDS)
+                                      .where(ProductRatePlanCharges.NAME.eq(config.getRatePlanChargeName()))
+                                      .build();
+
+        // Whatever the result, the first page is enough
+        return connection.queryPages(query, new ZuoraConnection.QueryPageCallback<ProductRatePlanCharge>() {
+            @Override
+            public boolean onPage(final List<ProductRatePlanCharge> records) {
+                return false;
+            }
+        });
+    }
+
     public Either<ZuoraError, ProductRatePlanCharge> loadRatePlanCharge(ZuoraConnection connection) {
-        final String query = stringTemplateLoader.load("getRatePlanCharge")
-                                                 .define("name", config.getRatePlanChargeName())
-                                                 .build();
+        final String query = ZoqlQuery.select(RATE_PLAN_CHARGE_FIELDS)
+                                      .where(ProductRatePlanCharges.NAME.eq(config.getRatePlanChargeName()))
+                                      .build();
 
         final Either<ZuoraError, ProductRatePlanCharge> ratePlanChargeOrError = connection.querySingle(query);
 
@@ -968,9 +1454,9 @@ public class ZuoraApi {
 
     private Either<ZuoraError, Refund> getRefundById(final ZuoraConnection connection, final String refundId) {
 
-        final String query = stringTemplateLoader.load("getRefundFromId")
-                                                 .define("id", refundId)
-                                                 .build();
+        final String query = ZoqlQuery.select(REFUND_FIELDS)
+                                      .where(Refunds.ID.eq(refundId))
+                                      .build();
         final Either<ZuoraError, Refund> refundOrError = connection.querySingle(query);
 
         if (refundOrError.isLeft()) {
@@ -1037,9 +1523,9 @@ public class ZuoraApi {
     private Either<ZuoraError, List<RefundInvoicePayment>> getRefundInvoicePayment(ZuoraConnection connection, String invoicePaymentId) {
 
         try {
-            final String query = stringTemplateLoader.load("getRefundInvoicePayment")
-                                                     .define("invoicePaymentId", invoicePaymentId)
-                                                     .build();
+            final String query = ZoqlQuery.select(REFUND_INVOICE_PAYMENT_FIELDS)
+                                          .where(RefundInvoicePayments.INVOICE_PAYMENT_ID.eq(invoicePaymentId))
+                                          .build();
             return connection.query(query);
         } catch (Exception ex) {
             return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, ex.getMessage()));
@@ -1051,9 +1537,9 @@ public class ZuoraApi {
     private Either<ZuoraError, List<InvoicePayment>> getInvoicePayments(ZuoraConnection connection, String paymentId) {
 
         try {
-            final String query = stringTemplateLoader.load("getInvoicePayments")
-                                                     .define("paymentId", paymentId)
-                                                     .build();
+            final String query = ZoqlQuery.select(INVOICE_PAYMENT_FIELDS)
+                                          .where(InvoicePayments.PAYMENT_ID.eq(paymentId))
+                                          .build();
 
             final Either<ZuoraError, List<InvoicePayment>> invpayOrError = connection.query(query);
             if (invpayOrError.isLeft()) {
@@ -1068,12 +1554,12 @@ public class ZuoraApi {
 
 
     private Either<ZuoraError, String> createOrGetSubscription(ZuoraConnection connection,
+                                                               Either<ZuoraError, String> subscriptionOrError,
                                                                Account account,
                                                                ProductRatePlanCharge productRatePlanCharge,
                                                                BigDecimal newPrice,
                                                                String paymentId) {
 
-        Either<ZuoraError, String> subscriptionOrError = getSubscriptionForPayment(connection, paymentId);
         if (subscriptionOrError.isRight()) {
             if (subscriptionOrError.getRight() != null) {
                 logService.log(LogService.LOG_WARNING, String.format("Found existing z_subscription %s for kbPaymentId %s", subscriptionOrError.getRight(), paymentId));
@@ -1092,9 +1578,9 @@ public class ZuoraApi {
             return Either.right(null);
         }
 
-        final String query = stringTemplateLoader.load("getSubscriptionByKillbilPaymentId")
-                                                 .define("paymentId", paymentId)
-                                                 .build();
+        final String query = ZoqlQuery.select(SUBSCRIPTION_FIELDS)
+                                      .where(Subscriptions.KILLBILL.eq(paymentId))
+                                      .build();
 
         final Either<ZuoraError, Subscription> subscriptionOrError = connection.querySingle(query);
         if (subscriptionOrError.isLeft()) {
@@ -1177,9 +1663,9 @@ public class ZuoraApi {
     }
 
     private Either<ZuoraError, String> createOrGetInvoice(ZuoraConnection connection,
+                                                          Either<ZuoraError, String> invoiceOrError,
                                                           String accountId, String kbPaymentId) {
 
-        Either<ZuoraError, String> invoiceOrError = getInvoiceForPayment(connection, kbPaymentId);
         if (invoiceOrError.isRight()) {
             if (invoiceOrError.getRight() != null) {
                 logService.log(LogService.LOG_WARNING, String.format("Found existing z_invoice %s for kbPaymentId %s", invoiceOrError.getRight(), kbPaymentId));
@@ -1198,9 +1684,10 @@ public class ZuoraApi {
             return Either.right(null);
         }
 
-        final String query = stringTemplateLoader.load("getInvoiceByKillbillPaymentId")
-                                                 .define("paymentId", kbPaymentId)
-                                                 .build();
+        final String query = ZoqlQuery.select(INVOICE_PROFILES.getSummary())
+                                      .where(Invoices.STATUS.eq("Posted"))
+                                      .and(Invoices.KILLBILL.eq(kbPaymentId))
+                                      .build();
 
         final Either<ZuoraError, Invoice> invoiceOrError = connection.querySingle(query);
         if (invoiceOrError.isLeft()) {
@@ -1252,7 +1739,7 @@ public class ZuoraApi {
         updatedAccount.setDefaultPaymentMethodId(paymentMethod.getId());
         updatedAccount.setPaymentGateway(getPaymentGateway(account, paymentMethod));
 
-        Either<ZuoraError, String> updateResultOrError = connection.update(updatedAccount);
+        Either<ZuoraError, String> updateResultOrError = updateAccount(connection, updatedAccount);
         if (updateResultOrError.isLeft()) {
             return new Either.Left<ZuoraError, Void>(updateResultOrError.getLeft());
         }
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.service.log.LogService;
+
+import com.ning.killbill.zuora.tracing.Span;
+import com.ning.killbill.zuora.tracing.Tracer;
+import com.ning.killbill.zuora.util.Either;
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zuora.api.SubscribeRequest;
+import com.zuora.api.SubscribeResult;
+import com.zuora.api.object.ZObject;
+
+/**
+ * Asynchronous variants of the {@link ZuoraConnection} calls.
+ * <p/>
+ * Each call borrows its own connection from the pool and runs on a dedicated executor, so independent calls
+ * can be issued concurrently without parking the caller (e.g. a Kill Bill payment thread) on the socket.
+ */
+public class ZuoraAsyncClient {
+
+    public static interface ConnectionCallback<T> {
+
+        T withConnection(ZuoraConnection connection);
+    }
+
+    private final ConnectionPool pool;
+    private final LogService logService;
+    private final ListeningExecutorService executor;
+
+    public ZuoraAsyncClient(final ConnectionPool pool, final ZuoraConfig config, final LogService logService) {
+        this.pool = pool;
+        this.logService = logService;
+        this.executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(Math.max(1, config.getAsyncThreads()),
+                                                                                      new ThreadFactoryBuilder().setNameFormat("zuora-async-%d")
+                                                                                                                .setDaemon(true)
+                                                                                                                .build()));
+    }
+
+    public void stop() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    public <T> ListenableFuture<T> submit(final ConnectionCallback<T> callback) {
+        return submit(callback, ConnectionPriority.NORMAL);
+    }
+
+    /**
+     * Runs the callback with a pooled connection on the async executor. Pool errors (e.g. timeouts) fail the future.
+     *
+     * @param priority the priority of the borrow: the work done for a payment keeps access to the reserved connections
+     */
+    public <T> ListenableFuture<T> submit(final ConnectionCallback<T> callback, final ConnectionPriority priority) {
+        final Span parent = Tracer.currentSpan();
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final Span span = Tracer.startSpan(parent, "async");
+                try {
+                    return callWithConnection(pool.borrowFromPool(priority), callback);
+                } finally {
+                    span.finish();
+                }
+            }
+        });
+    }
+
+    public <T> ListenableFuture<T> submit(final ConnectionCallback<T> callback, final long borrowTimeout, final TimeUnit unit) {
+        return submit(callback, ConnectionPriority.NORMAL, borrowTimeout, unit);
+    }
+
+    /**
+     * Same as {@link #submit(ConnectionCallback, ConnectionPriority)}, but only waits up to borrowTimeout for a pooled
+     * connection: callers which can run the work themselves use it to only take spare connections.
+     */
+    public <T> ListenableFuture<T> submit(final ConnectionCallback<T> callback, final ConnectionPriority priority, final long borrowTimeout, final TimeUnit unit) {
+        final Span parent = Tracer.currentSpan();
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final Span span = Tracer.startSpan(parent, "async");
+                try {
+                    return callWithConnection(pool.borrowFromPool(priority, borrowTimeout, unit), callback);
+                } finally {
+                    span.finish();
+                }
+            }
+        });
+    }
+
+    private <T> T callWithConnection(final ZuoraConnection connection, final ConnectionCallback<T> callback) {
+        try {
+            return callback.withConnection(connection);
+        } finally {
+            try {
+                pool.returnToPool(connection);
+            } catch (PoolException ex) {
+                logService.log(LogService.LOG_INFO, "Error while returning a zuora connection to the pool", ex);
+            }
+        }
+    }
+
+    public <T extends ZObject> ListenableFuture<Either<ZuoraError, List<T>>> queryAsync(final String queryString) {
+        return submit(new ConnectionCallback<Either<ZuoraError, List<T>>>() {
+            @Override
+            public Either<ZuoraError, List<T>> withConnection(final ZuoraConnection connection) {
+                return connection.query(queryString);
+            }
+        });
+    }
+
+    public <T extends ZObject> ListenableFuture<Either<ZuoraError, T>> querySingleAsync(final String queryString) {
+        return submit(new ConnectionCallback<Either<ZuoraError, T>>() {
+            @Override
+            public Either<ZuoraError, T> withConnection(final ZuoraConnection connection) {
+                return connection.querySingle(queryString);
+            }
+        });
+    }
+
+    public <T extends ZObject> ListenableFuture<Either<ZuoraError, String>> createAsync(final T object) {
+        return submit(new ConnectionCallback<Either<ZuoraError, String>>() {
+            @Override
+            public Either<ZuoraError, String> withConnection(final ZuoraConnection connection) {
+                return connection.createWithId(object);
+            }
+        });
+    }
+
+    public <T extends ZObject> ListenableFuture<Either<ZuoraError, String>> updateAsync(final T object) {
+        return submit(new ConnectionCallback<Either<ZuoraError, String>>() {
+            @Override
+            public Either<ZuoraError, String> withConnection(final ZuoraConnection connection) {
+                return connection.update(object);
+            }
+        });
+    }
+
+    public ListenableFuture<Either<ZuoraError, SubscribeResult>> subscribeAsync(final SubscribeRequest subscribeRequest) {
+        return submit(new ConnectionCallback<Either<ZuoraError, SubscribeResult>>() {
+            @Override
+            public Either<ZuoraError, SubscribeResult> withConnection(final ZuoraConnection connection) {
+                return connection.subscribe(subscribeRequest);
+            }
+        });
+    }
+}
@@ -17,38 +17,32 @@
 package com.ning.killbill.zuora.zuora;
 
 import static com.google.common.collect.Iterables.getOnlyElement;
-import static javax.xml.ws.BindingProvider.ENDPOINT_ADDRESS_PROPERTY;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
-import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
-import javax.xml.ws.BindingProvider;
-import javax.xml.ws.WebServiceClient;
 
+import com.ning.killbill.zuora.metrics.MetricsRegistry;
+import com.ning.killbill.zuora.tracing.Span;
+import com.ning.killbill.zuora.tracing.Tracer;
 import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
 import com.ning.killbill.zuora.util.Either;
 
 import org.apache.commons.collections.CollectionUtils;
-import org.apache.cxf.endpoint.Client;
-import org.apache.cxf.frontend.ClientProxy;
-import org.apache.cxf.interceptor.LoggingInInterceptor;
-import org.apache.cxf.interceptor.LoggingOutInterceptor;
 
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.zuora.api.DeleteResult;
 import com.zuora.api.Error;
 import com.zuora.api.ErrorCode;
-import com.zuora.api.LoginFault;
-import com.zuora.api.LoginResult;
 import com.zuora.api.QueryResult;
 import com.zuora.api.SaveResult;
 import com.zuora.api.SessionHeader;
@@ -56,126 +50,376 @@ import com.zuora.api.Soap;
 import com.zuora.api.SubscribeRequest;
 import com.zuora.api.SubscribeResult;
 import com.zuora.api.UnexpectedErrorFault;
-import com.zuora.api.ZuoraService;
 import com.zuora.api.object.ZObject;
 
 public class ZuoraConnection {
     public static final String ZUORA_ACCOUNT_ID_KEY = "zuoraAccountId";
 
+    // Maximum number of objects accepted by a single create, update or delete call
+    public static final int MAX_OBJECTS_PER_CALL = 50;
+
+    private static final Pattern QUERIED_OBJECT = Pattern.compile("\\sfrom\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+    private static final Predicate<Error> SESSION_INVALID = new Predicate<Error>() {
+        @Override
+        public boolean apply(final Error error) {
+            return error.getCode() == ErrorCode.INVALID_SESSION;
+        }
+    };
+
     private final ZuoraConfig config;
-    private final ZuoraService zuoraService;
+    private final ZuoraSessionManager sessionManager;
+    private final CircuitBreakers circuitBreakers;
+    private final RateLimiters rateLimiters;
+    private final MetricsRegistry metrics;
+    private final RetryPolicy retryPolicy;
+    private final Predicate<Error> retryableError;
     private final Soap stub;
     private final com.zuora.api.ObjectFactory apiFactory;
     private final com.zuora.api.object.ObjectFactory objectFactory;
-    private SessionHeader header;
+    private volatile long lastUsedMillis = System.currentTimeMillis();
 
-    public ZuoraConnection(ZuoraConfig config) {
+    public ZuoraConnection(ZuoraConfig config, ZuoraSessionManager sessionManager, CircuitBreakers circuitBreakers, RateLimiters rateLimiters,
+                           MetricsRegistry metrics, final RetryPolicy retryPolicy, Soap stub) {
         this.config = config;
-        try {
-            URL wsdlLocation = ZuoraService.class.getClassLoader().getResource(ZuoraService.class.getAnnotation(WebServiceClient.class).wsdlLocation());
+        this.sessionManager = sessionManager;
+        this.circuitBreakers = circuitBreakers;
+        this.rateLimiters = rateLimiters;
+        this.metrics = metrics;
+        this.retryPolicy = retryPolicy;
+        this.retryableError = new Predicate<Error>() {
+            @Override
+            public boolean apply(final Error error) {
+                return error.getCode() != null && retryPolicy.isRetryable(error.getCode().toString());
+            }
+        };
+        this.stub = stub;
+        this.apiFactory = new com.zuora.api.ObjectFactory();
+        this.objectFactory = new com.zuora.api.object.ObjectFactory();
+    }
+
+    private SessionHeader createSessionHeader() {
+        final SessionHeader header = apiFactory.createSessionHeader();
+        header.setSession(sessionManager.getSession());
+        return header;
+    }
+
+    public void markUsed() {
+        lastUsedMillis = System.currentTimeMillis();
+    }
+
+    public long getIdleTimeMillis() {
+        return System.currentTimeMillis() - lastUsedMillis;
+    }
 
-            this.zuoraService = new ZuoraService(wsdlLocation);
-            this.stub = zuoraService.getSoap();
+    public com.zuora.api.ObjectFactory getApiFactory() {
+        return apiFactory;
+    }
 
-            BindingProvider bp = (BindingProvider) stub;
-            Map<String, Object> context = bp.getRequestContext();
+    public com.zuora.api.object.ObjectFactory getObjectFactory() {
+        return objectFactory;
+    }
 
-            context.put(ENDPOINT_ADDRESS_PROPERTY, config.getZuoraApiUrl());
+    /**
+     * Receives the records of a query one page at a time, as returned by query/queryMore.
+     */
+    public static interface QueryPageCallback<T extends ZObject> {
 
-            Client client = ClientProxy.getClient(stub);
+        /**
+         * @param records the (non empty) records of the current page
+         * @return true to fetch the next page, false to stop the query early
+         */
+        boolean onPage(List<T> records);
+    }
 
-            client.getInInterceptors().add(new LoggingInInterceptor());
-            client.getOutInterceptors().add(new LoggingOutInterceptor());
+    public <T extends ZObject> Either<ZuoraError, List<T>> query(String queryString) {
+        final List<T> result = new ArrayList<T>();
+        final Either<ZuoraError, Void> doneOrError = queryPages(queryString, new QueryPageCallback<T>() {
+            @Override
+            public boolean onPage(final List<T> records) {
+                result.addAll(records);
+                return true;
+            }
+        });
 
-            this.apiFactory = new com.zuora.api.ObjectFactory();
-            this.objectFactory = new com.zuora.api.object.ObjectFactory();
-            this.header = apiFactory.createSessionHeader();
-            login();
+        if (doneOrError.isLeft()) {
+            return Either.left(doneOrError.getLeft());
+        }
+        else if (result.isEmpty()) {
+            return Either.right(Collections.<T>emptyList());
         }
-        catch (Exception ex) {
-            throw new IllegalArgumentException("Could not login to Zuora", ex);
+        else {
+            return Either.right(result);
         }
     }
 
-    private void login() throws UnexpectedErrorFault, LoginFault, IOException {
+    /**
+     * Streams the results of a query: the first page comes from query, the following ones from queryMore
+     * using the QueryLocator of the previous page, so pages are only fetched (and kept on heap) while the
+     * callback asks for more.
+     */
+    public <T extends ZObject> Either<ZuoraError, Void> queryPages(String queryString, QueryPageCallback<T> callback) {
+        String queryLocator = null;
+
+        while (true) {
+            final Either<ZuoraError, QueryResult> pageOrError = fetchPage(queryString, queryLocator);
+            if (pageOrError.isLeft()) {
+                return Either.left(pageOrError.getLeft());
+            }
 
-        final String user;
-        final String password;
-        final String zuoraPropertyLocaltion = config.getZuoraPropertyFileLocation();
-        final File zuoraCredentialsFile = zuoraPropertyLocaltion != null ? new File(config.getZuoraPropertyFileLocation()) : null;
-        if (zuoraCredentialsFile != null && zuoraCredentialsFile.exists()) {
-            Properties zuoraCredentials = new Properties();
-            zuoraCredentials.load(new FileReader(zuoraCredentialsFile));
-            user = zuoraCredentials.getProperty("user");
-            password = zuoraCredentials.getProperty("password");
-        } else {
-            user = config.getZuoraUserName();
-            password = config.getZuoraPassword();
-        }
+            final QueryResult page = pageOrError.getRight();
+            final List<T> records = getRecords(page);
+            if (!records.isEmpty() && !callback.onPage(records)) {
+                return Either.right(null);
+            }
 
+            if (page.isDone() || page.getQueryLocator() == null) {
+                return Either.right(null);
+            }
+            queryLocator = page.getQueryLocator();
+        }
+    }
 
-        LoginResult session = stub.login(user, password);
+    private Either<ZuoraError, QueryResult> fetchPage(final String queryString, @Nullable final String queryLocator) {
+        return invoke(ZuoraOperation.QUERY, new SoapCall<QueryResult>(getQueriedObject(queryString)) {
+            @Override
+            public QueryResult call(final SessionHeader header) throws Exception {
+                if (queryLocator == null) {
+                    return stub.query(queryString, null, header);
+                }
+                else {
+                    return stub.queryMore(queryLocator, null, header);
+                }
+            }
+        });
+    }
 
-        header.setSession(session.getSession());
+    private static String getQueriedObject(final String queryString) {
+        final Matcher matcher = QUERIED_OBJECT.matcher(queryString);
+        return matcher.find() ? matcher.group(1) : "unknown";
     }
 
-    public com.zuora.api.ObjectFactory getApiFactory() {
-        return apiFactory;
+    /**
+     * A zuora SOAP call, made by invoke with a valid session.
+     */
+    private abstract static class SoapCall<R> {
+
+        // The zuora object type of the call (e.g. Account), metrics are kept per operation and object type
+        private final String objectType;
+
+        protected SoapCall(final String objectType) {
+            this.objectType = objectType;
+        }
+
+        public String getObjectType() {
+            return objectType;
+        }
+
+        public abstract R call(SessionHeader header) throws Exception;
+
+        /**
+         * @return for the calls reporting errors in their result rather than with a fault, the errors of each object
+         */
+        public List<List<Error>> getErrors(R result) {
+            return Collections.emptyList();
+        }
     }
 
-    public com.zuora.api.object.ObjectFactory getObjectFactory() {
-        return objectFactory;
+    /**
+     * Makes a SOAP call through the rate limiter and the circuit breaker of the operation, logging in again on INVALID_SESSION and
+     * retrying the transient failures as allowed by the retry policy.
+     * <p/>
+     * When every object of a result failed with a retryable error and no attempt is left, the result is returned
+     * as is: the caller reports the errors of each object.
+     */
+    private <R> Either<ZuoraError, R> invoke(final ZuoraOperation operation, final SoapCall<R> call) {
+        final String metricPrefix = "zuora." + operation.name().toLowerCase() + "." + call.getObjectType();
+        final Span span = Tracer.startSpan(operation.name().toLowerCase() + " " + call.getObjectType());
+        final long startNanos = System.nanoTime();
+        try {
+            final Either<ZuoraError, R> result = invokeWithRetries(operation, call);
+            if (result.isLeft()) {
+                metrics.counter(metricPrefix + ".errors").inc();
+                span.setError(result.getLeft().getType());
+            }
+            return result;
+        } finally {
+            metrics.histogram(metricPrefix + ".latencyMillis").update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            span.finish();
+        }
     }
 
-    @SuppressWarnings("unchecked")
-    public <T extends ZObject> Either<ZuoraError, List<T>> query(String queryString) {
-        int numTries = 0;
+    private <R> Either<ZuoraError, R> invokeWithRetries(final ZuoraOperation operation, final SoapCall<R> call) {
+        final CircuitBreaker breaker = circuitBreakers.get(operation);
+        int numLogins = 0;
+        int numAttempts = 0;
 
-        while (numTries < config.getMaxLoginRetries()) {
-            numTries++;
+        while (true) {
+            // Waits for a token before asking the breaker: a half-open trial must not be dropped once granted
+            if (!rateLimiters.acquire(operation)) {
+                metrics.counter("zuora." + operation.name().toLowerCase() + ".rateLimited").inc();
+                return Either.left(rateLimitedError(operation));
+            }
+            if (!breaker.allowRequest()) {
+                return Either.left(circuitOpenError(breaker));
+            }
+            numAttempts++;
+
+            ZuoraError error;
+            R retryableResult = null;
+            SessionHeader header = null;
             try {
-                List<T> result = null;
-                QueryResult queryResult;
-
-                do {
-                    queryResult = stub.query(queryString, null, header);
-                    if (result == null) {
-                        int theSize = 0;
-                        if (queryResult.getSize() > 0) {
-                            theSize = queryResult.getSize();
-                        }
-                        result = (List<T>)Lists.newArrayList(queryResult.getRecords().subList(0, theSize));
-                    }
-                    else {
-                        result.addAll((List<T>)Lists.newArrayList(queryResult.getRecords().subList(0, queryResult.getRecords().size())));
-                    }
+                header = createSessionHeader();
+                final R result = call.call(header);
+
+                final List<List<Error>> errors = call.getErrors(result);
+                if (allFailed(errors, retryableError)) {
+                    breaker.onFailure();
+                } else {
+                    breaker.onSuccess();
                 }
-                while (!queryResult.isDone());
-
-                // Crappy zuora API is returning a list with one null element when there is 0 records.
-                if (CollectionUtils.isEmpty(result) || ((result.size() == 1) && result.get(0) == null)) {
-                    return Either.right(Collections.<T>emptyList());
+                if (allFailed(errors, SESSION_INVALID)) {
+                    if (++numLogins >= config.getMaxLoginRetries()) {
+                        return Either.left(sessionError(numLogins));
+                    }
+                    metrics.counter("zuora.relogins").inc();
+                    sessionManager.invalidate(header.getSession());
+                    continue;
                 }
-                else {
+                if (!allFailed(errors, retryableError)) {
                     return Either.right(result);
                 }
+                final Error firstError = errors.get(0).get(0);
+                error = new ZuoraError(firstError.getCode().toString(), firstError.getMessage());
+                retryableResult = result;
             }
             catch (UnexpectedErrorFault fault) {
-                if (fault.getFaultInfo().getFaultCode() == ErrorCode.INVALID_SESSION) {
+                final ErrorCode faultCode = fault.getFaultInfo().getFaultCode();
+                recordFault(breaker, retryPolicy, faultCode.toString());
+                if (faultCode == ErrorCode.INVALID_SESSION) {
+                    if (++numLogins >= config.getMaxLoginRetries()) {
+                        return Either.left(sessionError(numLogins));
+                    }
+                    metrics.counter("zuora.relogins").inc();
                     try {
-                        login();
+                        sessionManager.invalidate(header.getSession());
                         continue;
                     }
                     catch (Exception ex) {
                         return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, ex.getMessage()));
                     }
                 }
+                error = new ZuoraError(faultCode.toString(), fault.getMessage());
+                if (!retryPolicy.isRetryable(faultCode.toString())) {
+                    return Either.left(error);
+                }
             }
             catch (Exception ex) {
-                return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, ex.getMessage()));
+                final ZuoraError faultError = getFaultError(ex);
+                if (faultError != null) {
+                    recordFault(breaker, retryPolicy, faultError.getType());
+                    error = faultError;
+                    if (!retryPolicy.isRetryable(faultError.getType())) {
+                        return Either.left(error);
+                    }
+                } else {
+                    breaker.onFailure();
+                    error = new ZuoraError(ZuoraError.ERROR_UNKNOWN, ex.getMessage());
+                    // Without a session the call wasn't sent, it can be made again whatever the operation
+                    if (header != null && !retryPolicy.isRetryable(operation, ex)) {
+                        return Either.left(error);
+                    }
+                }
+            }
+
+            if (numAttempts >= retryPolicy.getMaxAttempts() || !retryPolicy.backoff(numAttempts)) {
+                return retryableResult != null ? Either.<ZuoraError, R>right(retryableResult) : Either.<ZuoraError, R>left(error);
+            }
+            metrics.counter("zuora." + operation.name().toLowerCase() + ".retries").inc();
+        }
+    }
+
+    /**
+     * A fault means zuora answered, but only a client error (e.g. MALFORMED_QUERY, INVALID_VALUE, INVALID_SESSION) shows
+     * that it is healthy: the retryable codes (SERVER_UNAVAILABLE, TEMPORARY_ERROR, REQUEST_EXCEEDED_LIMIT...) are
+     * zuora failing to serve the call, and count against the breaker.
+     */
+    static void recordFault(final CircuitBreaker breaker, final RetryPolicy retryPolicy, final String faultCode) {
+        if (retryPolicy.isRetryable(faultCode)) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+
+    private static boolean allFailed(final List<List<Error>> errorsPerObject, final Predicate<Error> predicate) {
+        if (errorsPerObject.isEmpty()) {
+            return false;
+        }
+        for (final List<Error> errors : errorsPerObject) {
+            if (errors == null || !Iterables.any(errors, predicate)) {
+                return false;
             }
         }
-        return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, "Could not establish a valid zuora session after " + numTries + " attempts"));
+        return true;
+    }
+
+    /**
+     * The faults declared by the zuora WSDL besides UnexpectedErrorFault (MalformedQueryFault, InvalidQueryLocatorFault,
+     * InvalidTypeFault, InvalidValueFault...) all carry the zuora error in their fault info.
+     *
+     * @return the zuora error of the fault, null if the exception isn't a zuora fault (e.g. a transport failure)
+     */
+    @Nullable
+    static ZuoraError getFaultError(final Exception ex) {
+        final Object faultInfo;
+        try {
+            faultInfo = ex.getClass().getMethod("getFaultInfo").invoke(ex);
+        } catch (Exception notAFault) {
+            return null;
+        }
+
+        String faultCode = ZuoraError.ERROR_UNKNOWN;
+        if (faultInfo != null) {
+            try {
+                final Object code = faultInfo.getClass().getMethod("getFaultCode").invoke(faultInfo);
+                if (code != null) {
+                    faultCode = code.toString();
+                }
+            } catch (Exception ignored) {
+                // Keep ERROR_UNKNOWN
+            }
+        }
+        return new ZuoraError(faultCode, ex.getMessage());
+    }
+
+    private static ZuoraError sessionError(final int numLogins) {
+        return new ZuoraError(ZuoraError.ERROR_UNKNOWN, "Could not establish a valid zuora session after " + numLogins + " attempts");
+    }
+
+    private static ZuoraError circuitOpenError(final CircuitBreaker breaker) {
+        return new ZuoraError(ZuoraError.ERROR_UNAVAILABLE, "Zuora " + breaker.getName() + " calls are failing, circuit breaker is open");
+    }
+
+    private static ZuoraError rateLimitedError(final ZuoraOperation operation) {
+        return new ZuoraError(ZuoraError.ERROR_UNAVAILABLE, "Zuora " + operation.name().toLowerCase() + " rate limit reached");
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends ZObject> List<T> getRecords(QueryResult queryResult) {
+        final List<? extends ZObject> records = queryResult.getRecords();
+        if (CollectionUtils.isEmpty(records)) {
+            return Collections.<T>emptyList();
+        }
+
+        // Crappy zuora API is returning a list with one null element when there is 0 records.
+        final List<T> result = new ArrayList<T>(records.size());
+        for (final ZObject record : records) {
+            if (record != null) {
+                result.add((T) record);
+            }
+        }
+        return result;
     }
 
     public <T extends ZObject> Either<ZuoraError, T> querySingle(String queryString) {
@@ -191,191 +435,237 @@ public class ZuoraConnection {
         }
     }
 
-    private boolean isSessionInvalid(List<com.zuora.api.Error> errors) {
-        if (CollectionUtils.isNotEmpty(errors)) {
-            for (com.zuora.api.Error error : errors) {
-                if (error.getCode() == ErrorCode.INVALID_SESSION) {
-                    return true;
-                }
-            }
+    public <T extends ZObject> Either<ZuoraError, String> createWithId(T object) {
+        final Either<ZuoraError, SaveResult> resultOrError = createWithResult(object);
+        if (resultOrError.isLeft()) {
+            return Either.left(resultOrError.getLeft());
+        }
+        else {
+            return Either.right(resultOrError.getRight().getId());
         }
-        return false;
     }
 
-    public <T extends ZObject> Either<ZuoraError, String> createWithId(T object) {
-        int numTries = 0;
-
-        while (numTries < config.getMaxLoginRetries()) {
-            numTries++;
-            try {
-                List<SaveResult> results = stub.create(Arrays.<ZObject>asList(object), header);
+    public <T extends ZObject> Either<ZuoraError, SaveResult> createWithResult(T object) {
+        return createBatch(Collections.singletonList(object)).get(0);
+    }
 
-                if (CollectionUtils.isEmpty(results)) {
-                    return Either.left(new ZuoraError(ErrorCode.UNKNOWN_ERROR.toString(), "Did not get any result back"));
-                }
-                else {
-                    List<Error> errors = results.get(0).getErrors();
+    public <T extends ZObject> Either<ZuoraError, String> update(T object) {
+        final Either<ZuoraError, SaveResult> resultOrError = updateBatch(Collections.singletonList(object)).get(0);
+        if (resultOrError.isLeft()) {
+            return Either.left(resultOrError.getLeft());
+        }
+        else {
+            return Either.right(resultOrError.getRight().getId());
+        }
+    }
 
-                    if (errors.isEmpty()) {
-                        return Either.right(results.get(0).getId());
-                    }
-                    else if (isSessionInvalid(errors)) {
-                        login();
-                        continue;
-                    }
-                    else {
-                        return Either.left(new ZuoraError(errors.get(0).getCode().toString(), errors.get(0).getMessage()));
-                    }
-                }
+    /**
+     * Creates the objects, MAX_OBJECTS_PER_CALL at a time.
+     *
+     * @return one result per object, in the order of the objects
+     */
+    public <T extends ZObject> List<Either<ZuoraError, SaveResult>> createBatch(List<T> objects) {
+        return saveBatch(objects, ZuoraOperation.CREATE, new SaveCall() {
+            @Override
+            public List<SaveResult> save(final List<ZObject> chunk, final SessionHeader header) throws Exception {
+                return stub.create(chunk, header);
             }
-            catch (Exception ex) {
-                return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, ex.getMessage()));
+        });
+    }
+
+    /**
+     * Updates the objects, MAX_OBJECTS_PER_CALL at a time.
+     *
+     * @return one result per object, in the order of the objects
+     */
+    public <T extends ZObject> List<Either<ZuoraError, SaveResult>> updateBatch(List<T> objects) {
+        return saveBatch(objects, ZuoraOperation.UPDATE, new SaveCall() {
+            @Override
+            public List<SaveResult> save(final List<ZObject> chunk, final SessionHeader header) throws Exception {
+                return stub.update(chunk, header);
             }
-        }
-        return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, "Could not establish a valid zuora session after " + numTries + " attempts"));
+        });
     }
 
-    public <T extends ZObject> Either<ZuoraError, SaveResult> createWithResult(T object) {
-        int numTries = 0;
+    private static interface SaveCall {
 
-        while (numTries < config.getMaxLoginRetries()) {
-            numTries++;
+        List<SaveResult> save(List<ZObject> chunk, SessionHeader header) throws Exception;
+    }
 
-            try {
-                List<SaveResult> results = stub.create(Arrays.<ZObject>asList(object), header);
+    private List<Either<ZuoraError, SaveResult>> saveBatch(List<? extends ZObject> objects, ZuoraOperation operation, SaveCall call) {
+        final List<Either<ZuoraError, SaveResult>> results = new ArrayList<Either<ZuoraError, SaveResult>>(objects.size());
+        for (final List<? extends ZObject> chunk : Lists.partition(objects, MAX_OBJECTS_PER_CALL)) {
+            results.addAll(saveChunk(chunk, operation, call));
+        }
+        return results;
+    }
 
+    private List<Either<ZuoraError, SaveResult>> saveChunk(final List<? extends ZObject> chunk, final ZuoraOperation operation, final SaveCall call) {
+        final Either<ZuoraError, List<SaveResult>> resultsOrError = invoke(operation, new SoapCall<List<SaveResult>>(chunk.get(0).getClass().getSimpleName()) {
+            @Override
+            public List<SaveResult> call(final SessionHeader header) throws Exception {
+                return call.save(new ArrayList<ZObject>(chunk), header);
+            }
+
+            @Override
+            public List<List<Error>> getErrors(final List<SaveResult> results) {
                 if (CollectionUtils.isEmpty(results)) {
-                    return Either.left(new ZuoraError(ErrorCode.UNKNOWN_ERROR.toString(), "Did not get any result back"));
+                    return Collections.emptyList();
                 }
-                else {
-                    List<Error> errors = results.get(0).getErrors();
-
-                    if (errors.isEmpty()) {
-                        return Either.right(results.get(0));
-                    }
-                    else if (isSessionInvalid(errors)) {
-                        login();
-                        continue;
-                    }
-                    else {
-                        return Either.left(new ZuoraError(results.get(0).getErrors().get(0).getCode().toString(),
-                            results.get(0).getErrors().get(0).getMessage()));
+                return Lists.transform(results, new Function<SaveResult, List<Error>>() {
+                    @Override
+                    public List<Error> apply(final SaveResult result) {
+                        return result.getErrors();
                     }
-                }
-            }
-            catch (Exception ex) {
-                return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, ex.getMessage()));
+                });
             }
-        }
-        return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, "Could not establish a valid zuora session after " + numTries + " attempts"));
-    }
-
-    public <T extends ZObject> Either<ZuoraError, String> update(T object) {
-        int numTries = 0;
-
-        while (numTries < config.getMaxLoginRetries()) {
-            numTries++;
+        });
 
-            try {
-                List<SaveResult> results = stub.update(Arrays.<ZObject>asList(object), header);
+        if (resultsOrError.isLeft()) {
+            return failedResults(chunk.size(), resultsOrError.getLeft());
+        }
 
-                if (CollectionUtils.isEmpty(results)) {
-                    return Either.left(new ZuoraError(ErrorCode.UNKNOWN_ERROR.toString(), "Did not get any result back"));
-                }
-                else {
-                    List<Error> errors = results.get(0).getErrors();
+        final List<SaveResult> results = resultsOrError.getRight();
+        if (CollectionUtils.isEmpty(results)) {
+            return failedResults(chunk.size(), new ZuoraError(ErrorCode.UNKNOWN_ERROR.toString(), "Did not get any result back"));
+        }
+        else if (results.size() != chunk.size()) {
+            return failedResults(chunk.size(), new ZuoraError(ErrorCode.UNKNOWN_ERROR.toString(), "Expected " + chunk.size() + " results, got " + results.size()));
+        }
 
-                    if (errors.isEmpty()) {
-                        return Either.right(results.get(0).getId());
-                    }
-                    else if (isSessionInvalid(errors)) {
-                        login();
-                        continue;
-                    }
-                    else {
-                        return Either.left(new ZuoraError(results.get(0).getErrors().get(0).getCode().toString(),
-                            results.get(0).getErrors().get(0).getMessage()));
-                    }
-                }
+        final List<Either<ZuoraError, SaveResult>> chunkResults = new ArrayList<Either<ZuoraError, SaveResult>>(results.size());
+        for (final SaveResult result : results) {
+            final List<Error> errors = result.getErrors();
+            if (errors.isEmpty()) {
+                chunkResults.add(Either.<ZuoraError, SaveResult>right(result));
             }
-            catch (Exception ex) {
-                return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, ex.getMessage()));
+            else {
+                chunkResults.add(Either.<ZuoraError, SaveResult>left(new ZuoraError(errors.get(0).getCode().toString(), errors.get(0).getMessage())));
             }
         }
-        return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, "Could not establish a valid zuora session after " + numTries + " attempts"));
+        return chunkResults;
     }
 
-    public Either<ZuoraError, SubscribeResult> subscribe(SubscribeRequest zuoraSubscribeRequest) {
-        int numTries = 0;
+    private static <V> List<Either<ZuoraError, V>> failedResults(int size, ZuoraError error) {
+        return Collections.nCopies(size, Either.<ZuoraError, V>left(error));
+    }
 
-        while (numTries < config.getMaxLoginRetries()) {
-            numTries++;
-            try {
-                List<SubscribeResult> results = stub.subscribe(Arrays.asList(zuoraSubscribeRequest), header);
+    public Either<ZuoraError, SubscribeResult> subscribe(final SubscribeRequest zuoraSubscribeRequest) {
+        final Either<ZuoraError, List<SubscribeResult>> resultsOrError = invoke(ZuoraOperation.SUBSCRIBE, new SoapCall<List<SubscribeResult>>("Subscription") {
+            @Override
+            public List<SubscribeResult> call(final SessionHeader header) throws Exception {
+                return stub.subscribe(Arrays.asList(zuoraSubscribeRequest), header);
+            }
 
+            @Override
+            public List<List<Error>> getErrors(final List<SubscribeResult> results) {
                 if (CollectionUtils.isEmpty(results)) {
-                    return Either.left(new ZuoraError(ErrorCode.UNKNOWN_ERROR.toString(), "Did not get any result back"));
+                    return Collections.emptyList();
                 }
-                else {
-                    List<Error> errors = results.get(0).getErrors();
+                return Collections.singletonList(results.get(0).getErrors());
+            }
+        });
 
-                    if (errors.isEmpty()) {
-                        return Either.right(results.get(0));
-                    }
-                    else if (isSessionInvalid(errors)) {
-                        login();
-                        continue;
-                    }
-                    else {
-                        return Either.left(new ZuoraError(results.get(0).getErrors().get(0).getCode().toString(),
-                            results.get(0).getErrors().get(0).getMessage()));
-                    }
-                }
+        if (resultsOrError.isLeft()) {
+            return Either.left(resultsOrError.getLeft());
+        }
+
+        final List<SubscribeResult> results = resultsOrError.getRight();
+        if (CollectionUtils.isEmpty(results)) {
+            return Either.left(new ZuoraError(ErrorCode.UNKNOWN_ERROR.toString(), "Did not get any result back"));
+        }
+        else {
+            final List<Error> errors = results.get(0).getErrors();
+            if (errors.isEmpty()) {
+                return Either.right(results.get(0));
             }
-            catch (Exception ex) {
-                return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, ex.getMessage()));
+            else {
+                return Either.left(new ZuoraError(errors.get(0).getCode().toString(), errors.get(0).getMessage()));
             }
         }
-        return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, "Could not establish a valid zuora session after " + numTries + " attempts"));
     }
 
     public Either<ZuoraError, Void> delete(final List<? extends ZObject> objs) {
-        int numTries = 0;
+        for (final Either<ZuoraError, String> resultOrError : deleteBatch(objs)) {
+            if (resultOrError.isLeft()) {
+                return Either.left(resultOrError.getLeft());
+            }
+        }
+        return Either.right(null);
+    }
 
-        while (numTries < config.getMaxLoginRetries()) {
-            numTries++;
-            if (!objs.isEmpty()) {
-                final String className = objs.get(0).getClass().getSimpleName();
+    /**
+     * Deletes the objects, MAX_OBJECTS_PER_CALL at a time. Zuora deletes one type of object per call, so
+     * consecutive objects of the same type are grouped together.
+     *
+     * @return the id of each deleted object or the error, in the order of the objects
+     */
+    public List<Either<ZuoraError, String>> deleteBatch(final List<? extends ZObject> objs) {
+        final List<Either<ZuoraError, String>> results = new ArrayList<Either<ZuoraError, String>>(objs.size());
+
+        int start = 0;
+        while (start < objs.size()) {
+            final String className = objs.get(start).getClass().getSimpleName();
+            int end = start + 1;
+            while (end < objs.size() && end - start < MAX_OBJECTS_PER_CALL && objs.get(end).getClass().getSimpleName().equals(className)) {
+                end++;
+            }
+            results.addAll(deleteChunk(className, objs.subList(start, end)));
+            start = end;
+        }
+        return results;
+    }
+
+    private List<Either<ZuoraError, String>> deleteChunk(final String className, final List<? extends ZObject> chunk) {
+        final List<String> ids = Lists.transform(chunk, new Function<ZObject, String>() {
+            @Override
+            public String apply(@Nullable ZObject from) {
+                return from.getId();
+            }
+        });
+
+        final Either<ZuoraError, List<DeleteResult>> resultsOrError = invoke(ZuoraOperation.DELETE, new SoapCall<List<DeleteResult>>(className) {
+            @Override
+            public List<DeleteResult> call(final SessionHeader header) throws Exception {
+                return stub.delete(className, ids, header);
+            }
 
-                final List<String> ids = Lists.transform(objs, new Function<ZObject, String>() {
+            @Override
+            public List<List<Error>> getErrors(final List<DeleteResult> results) {
+                if (CollectionUtils.isEmpty(results)) {
+                    return Collections.emptyList();
+                }
+                return Lists.transform(results, new Function<DeleteResult, List<Error>>() {
                     @Override
-                    public String apply(@Nullable ZObject from) {
-                        return from.getId();
+                    public List<Error> apply(final DeleteResult result) {
+                        return result.getErrors();
                     }
                 });
-                try {
-                    List<DeleteResult> results = stub.delete(className, ids, header);
-                    if (CollectionUtils.isEmpty(results)) {
-                        return Either.left(new ZuoraError(ErrorCode.UNKNOWN_ERROR.toString(), "Did not get any result back"));
-                    }
+            }
+        });
 
-                    if (results.get(0).getErrors().isEmpty()) {
-                        return Either.right(null);
-                    } else {
-                        if (isSessionInvalid(results.get(0).getErrors())) {
-                            login();
-                            continue;
-                        }
+        if (resultsOrError.isLeft()) {
+            return failedResults(chunk.size(), resultsOrError.getLeft());
+        }
 
-                        return Either.left(new ZuoraError(results.get(0).getErrors().get(0).getCode().toString(),
-                                results.get(0).getErrors().get(0).getMessage()));
+        final List<DeleteResult> results = resultsOrError.getRight();
+        if (CollectionUtils.isEmpty(results)) {
+            return failedResults(chunk.size(), new ZuoraError(ErrorCode.UNKNOWN_ERROR.toString(), "Did not get any result back"));
+        }
+        else if (results.size() != chunk.size()) {
+            return failedResults(chunk.size(), new ZuoraError(ErrorCode.UNKNOWN_ERROR.toString(), "Expected " + chunk.size() + " results, got " + results.size()));
+        }
 
-                    }
-                } catch (Exception ex) {
-                    return Either.left(new ZuoraError(ZuoraError.ERROR_UNKNOWN, ex.getMessage()));
-                }
+        final List<Either<ZuoraError, String>> chunkResults = new ArrayList<Either<ZuoraError, String>>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            final List<Error> errors = results.get(i).getErrors();
+            if (errors.isEmpty()) {
+                chunkResults.add(Either.<ZuoraError, String>right(ids.get(i)));
+            }
+            else {
+                chunkResults.add(Either.<ZuoraError, String>left(new ZuoraError(errors.get(0).getCode().toString(), errors.get(0).getMessage())));
             }
         }
-        return Either.right(null);
+        return chunkResults;
     }
 }
@@ -21,6 +21,7 @@ public class ZuoraError {
     public static final String ERROR_UNKNOWN = "unknown";
     public static final String ERROR_ACCOUNT_NOT_FOUND = "no such account";
     public static final String ERROR_UNSUPPORTED = "unsupported";
+    public static final String ERROR_UNAVAILABLE = "unavailable";
 
     private final String type;
     private final String msg;
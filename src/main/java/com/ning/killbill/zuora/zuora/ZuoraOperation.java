@@ -0,0 +1,43 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+/**
+ * The zuora SOAP operations, each one has its own circuit breaker.
+ */
+public enum ZuoraOperation {
+    // query and queryMore
+    QUERY(true),
+    CREATE(false),
+    UPDATE(true),
+    DELETE(true),
+    SUBSCRIBE(false);
+
+    private final boolean idempotent;
+
+    ZuoraOperation(final boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+
+    /**
+     * @return whether a call can be made again when we don't know if zuora processed it (e.g. read timeout):
+     *         replaying a create or a subscribe could create the objects twice
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+}
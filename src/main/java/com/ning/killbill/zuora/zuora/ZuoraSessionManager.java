@@ -0,0 +1,209 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.osgi.service.log.LogService;
+
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zuora.api.LoginResult;
+import com.zuora.api.Soap;
+
+/**
+ * Owns the zuora session shared by all the pooled connections.
+ * <p/>
+ * Concurrent re-logins (e.g. all the connections hitting INVALID_SESSION at once) are coalesced into a single
+ * login call, and the session is refreshed in the background before it gets too old.
+ */
+public class ZuoraSessionManager {
+
+    // The background refresh kicks in well before getSession() would log in inline, so that callers never wait for a login
+    private static final double BACKGROUND_REFRESH_RATIO = 0.8;
+
+    private final ZuoraConfig config;
+    private final LogService logService;
+    private final Soap loginStub;
+    private final Object loginLock = new Object();
+    private final AtomicLong logins = new AtomicLong();
+
+    private volatile Session current;
+    private ScheduledExecutorService refresher;
+
+    public ZuoraSessionManager(final ZuoraConfig config, final ZuoraStubFactory stubFactory, final LogService logService) {
+        this.config = config;
+        this.logService = logService;
+        this.loginStub = stubFactory.createStub();
+    }
+
+    public synchronized void start() {
+        if (refresher != null) {
+            return;
+        }
+
+        final long refreshIntervalMillis = getRefreshIntervalMillis();
+        final long checkIntervalMillis = Math.max(1000, refreshIntervalMillis / 10);
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("zuora-session-refresher-%d")
+                                                                                         .setDaemon(true)
+                                                                                         .build());
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                final Session session = current;
+                if (session != null && isAboutToExpire(session)) {
+                    try {
+                        refresh(session.getId());
+                    } catch (RuntimeException ex) {
+                        logService.log(LogService.LOG_WARNING, "Failed to refresh the zuora session in the background", ex);
+                    }
+                }
+            }
+        }, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /**
+     * @return a valid session, logging in if there is none yet or if the current one is too old
+     */
+    public String getSession() {
+        final Session session = current;
+        if (session == null || isTooOld(session)) {
+            return refresh(session == null ? null : session.getId());
+        }
+        return session.getId();
+    }
+
+    /**
+     * Called when zuora rejected a session with INVALID_SESSION.
+     *
+     * @param staleSession the session that was rejected
+     * @return a new session; if another thread already replaced the stale session, its session is returned
+     *         without logging in again
+     */
+    public String invalidate(final String staleSession) {
+        return refresh(staleSession);
+    }
+
+    public long getSessionAgeMillis() {
+        final Session session = current;
+        return session == null ? Long.MAX_VALUE : System.currentTimeMillis() - session.getCreatedMillis();
+    }
+
+    public boolean isSessionFresh() {
+        final Session session = current;
+        return session != null && !isTooOld(session);
+    }
+
+    public long getLoginCount() {
+        return logins.get();
+    }
+
+    private String refresh(@Nullable final String staleSession) {
+        synchronized (loginLock) {
+            final Session session = current;
+            if (session != null && !session.getId().equals(staleSession) && !isTooOld(session)) {
+                // Somebody else logged in while we were waiting for the lock
+                return session.getId();
+            }
+
+            current = login();
+            return current.getId();
+        }
+    }
+
+    private Session login() {
+        final String user;
+        final String password;
+        try {
+            final String zuoraPropertyLocation = config.getZuoraPropertyFileLocation();
+            final File zuoraCredentialsFile = zuoraPropertyLocation != null ? new File(zuoraPropertyLocation) : null;
+            if (zuoraCredentialsFile != null && zuoraCredentialsFile.exists()) {
+                final Properties zuoraCredentials = new Properties();
+                final FileReader reader = new FileReader(zuoraCredentialsFile);
+                try {
+                    zuoraCredentials.load(reader);
+                } finally {
+                    reader.close();
+                }
+                user = zuoraCredentials.getProperty("user");
+                password = zuoraCredentials.getProperty("password");
+            } else {
+                user = config.getZuoraUserName();
+                password = config.getZuoraPassword();
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not read the zuora credentials", ex);
+        }
+
+        try {
+            final LoginResult loginResult = loginStub.login(user, password);
+            logins.incrementAndGet();
+            logService.log(LogService.LOG_INFO, "Logged in to zuora");
+            return new Session(loginResult.getSession(), System.currentTimeMillis());
+        } catch (Exception ex) {
+            throw new IllegalStateException("Could not login to Zuora", ex);
+        }
+    }
+
+    private boolean isTooOld(final Session session) {
+        return System.currentTimeMillis() - session.getCreatedMillis() >= getRefreshIntervalMillis();
+    }
+
+    private boolean isAboutToExpire(final Session session) {
+        return System.currentTimeMillis() - session.getCreatedMillis() >= (long) (getRefreshIntervalMillis() * BACKGROUND_REFRESH_RATIO);
+    }
+
+    private long getRefreshIntervalMillis() {
+        return config.getSessionRefreshInterval().getMillis();
+    }
+
+    private static final class Session {
+
+        private final String id;
+        private final long createdMillis;
+
+        private Session(final String id, final long createdMillis) {
+            this.id = id;
+            this.createdMillis = createdMillis;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getCreatedMillis() {
+            return createdMillis;
+        }
+    }
+}
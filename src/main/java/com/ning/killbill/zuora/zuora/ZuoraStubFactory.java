@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.net.URL;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLContext;
+import javax.xml.namespace.QName;
+import javax.xml.ws.WebEndpoint;
+import javax.xml.ws.WebServiceClient;
+
+import org.apache.cxf.configuration.jsse.TLSClientParameters;
+import org.apache.cxf.endpoint.Client;
+import org.apache.cxf.frontend.ClientProxy;
+import org.apache.cxf.jaxws.JaxWsProxyFactoryBean;
+import org.apache.cxf.transport.common.gzip.GZIPInInterceptor;
+import org.apache.cxf.transport.common.gzip.GZIPOutInterceptor;
+import org.apache.cxf.transport.http.HTTPConduit;
+import org.apache.cxf.transports.http.configuration.ConnectionType;
+import org.apache.cxf.transports.http.configuration.HTTPClientPolicy;
+
+import com.ning.killbill.zuora.metrics.MetricsRegistry;
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+import com.zuora.api.Soap;
+import com.zuora.api.ZuoraService;
+
+/**
+ * Creates the zuora SOAP stubs of a plugin instance.
+ * <p/>
+ * The WSDL is resolved once and the proxy factory is reused: CXF builds the service model and the JAXB data binding
+ * on the first stub only, the following ones just get their own client and proxy.
+ * <p/>
+ * Each stub gets the HTTP client policy of the config (timeouts, keep-alive, compression) and, for https, the SSL
+ * context shared by the plugin instance so that TLS sessions are resumed instead of renegotiated.
+ */
+public class ZuoraStubFactory {
+
+    private final ZuoraConfig config;
+    private final JaxWsProxyFactoryBean proxyFactory;
+    private final WireLogPolicy wireLogPolicy;
+    private final MetricsRegistry metrics;
+    private final SSLContext sslContext;
+
+    public ZuoraStubFactory(final ZuoraConfig config, final MetricsRegistry metrics) {
+        this.config = config;
+        this.metrics = metrics;
+        try {
+            final WebServiceClient serviceClient = ZuoraService.class.getAnnotation(WebServiceClient.class);
+            final WebEndpoint endpoint = ZuoraService.class.getMethod("getSoap").getAnnotation(WebEndpoint.class);
+            final URL wsdlLocation = ZuoraService.class.getClassLoader().getResource(serviceClient.wsdlLocation());
+
+            this.proxyFactory = new JaxWsProxyFactoryBean();
+            proxyFactory.setServiceClass(Soap.class);
+            proxyFactory.setWsdlURL(wsdlLocation.toExternalForm());
+            proxyFactory.setServiceName(new QName(serviceClient.targetNamespace(), serviceClient.name()));
+            proxyFactory.setEndpointName(new QName(serviceClient.targetNamespace(), endpoint.name()));
+            proxyFactory.setAddress(config.getZuoraApiUrl());
+        } catch (Exception ex) {
+            throw new IllegalArgumentException("Could not resolve the Zuora WSDL", ex);
+        }
+        this.wireLogPolicy = new WireLogPolicy(config);
+        this.sslContext = config.getZuoraApiUrl().startsWith("https") ? createSslContext(config) : null;
+    }
+
+    @Nullable
+    private static SSLContext createSslContext(final ZuoraConfig config) {
+        try {
+            final SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+            sslContext.getClientSessionContext().setSessionCacheSize(config.getHttpTlsSessionCacheSize());
+            sslContext.getClientSessionContext().setSessionTimeout((int) (config.getHttpTlsSessionTimeout().getMillis() / 1000));
+            return sslContext;
+        } catch (Exception ex) {
+            throw new IllegalArgumentException("Could not create the SSL context for Zuora", ex);
+        }
+    }
+
+    // The proxy factory isn't thread safe, stub creation is rare enough (pool growth) to simply serialize it
+    public synchronized Soap createStub() {
+        try {
+            final Soap stub = (Soap) proxyFactory.create();
+
+            final Client client = ClientProxy.getClient(stub);
+            configureConduit((HTTPConduit) client.getConduit());
+            if (config.isHttpGzipResponses()) {
+                client.getInInterceptors().add(new GZIPInInterceptor());
+            }
+            if (config.isHttpGzipRequests()) {
+                client.getOutInterceptors().add(new GZIPOutInterceptor());
+            }
+            client.getOutInterceptors().add(new CorrelationIdOutInterceptor());
+            client.getOutInterceptors().add(new PayloadSizeOutInterceptor(metrics));
+            client.getInInterceptors().add(new PayloadSizeInInterceptor(metrics));
+            if (wireLogPolicy.isLoggingCalls()) {
+                client.getOutInterceptors().add(new WireLoggingOutInterceptor(wireLogPolicy));
+                client.getInInterceptors().add(new WireLoggingInInterceptor(wireLogPolicy, false));
+            }
+            if (wireLogPolicy.isLoggingFaults()) {
+                client.getInFaultInterceptors().add(new WireLoggingInInterceptor(wireLogPolicy, true));
+            }
+
+            return stub;
+        } catch (RuntimeException ex) {
+            throw new IllegalArgumentException("Could not create the Zuora stub", ex);
+        }
+    }
+
+    private void configureConduit(final HTTPConduit conduit) {
+        final HTTPClientPolicy policy = new HTTPClientPolicy();
+        policy.setConnectionTimeout(config.getHttpConnectTimeout().getMillis());
+        policy.setReceiveTimeout(config.getHttpReceiveTimeout().getMillis());
+        policy.setConnection(config.isHttpKeepAlive() ? ConnectionType.KEEP_ALIVE : ConnectionType.CLOSE);
+        policy.setAllowChunking(config.isHttpAllowChunking());
+        if (config.isHttpGzipResponses()) {
+            policy.setAcceptEncoding("gzip");
+        }
+        conduit.setClient(policy);
+
+        if (sslContext != null) {
+            final TLSClientParameters tlsParameters = new TLSClientParameters();
+            tlsParameters.setSSLSocketFactory(sslContext.getSocketFactory());
+            conduit.setTlsClientParameters(tlsParameters);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora.setup;
+
+/**
+ * How the pool validates a zuora connection when it is borrowed.
+ */
+public enum ConnectionValidation {
+    // Never validate
+    NONE,
+    // Only check that the shared session is not too old (renewing it if needed), no zuora call otherwise
+    SESSION_AGE,
+    // Run a one field query against zuora
+    PROBE,
+    // Run the probe only if the connection has been idle for longer than pool.validationIdleTime
+    IDLE_PROBE
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora.setup;
+
+/**
+ * Which SOAP envelopes are written to the log.
+ */
+public enum WireLogging {
+    // Never log, except for the operations listed in wireLogging.operations
+    OFF,
+    // Only log the zuora faults
+    ERRORS,
+    // Log the faults, and the requests and responses of wireLogging.samplePercent of the calls
+    SAMPLED,
+    // Log every request and response
+    ALL
+}
@@ -19,6 +19,7 @@ package com.ning.killbill.zuora.zuora.setup;
 import org.skife.config.Config;
 import org.skife.config.Default;
 import org.skife.config.DefaultNull;
+import org.skife.config.TimeSpan;
 
 public interface ZuoraConfig {
     
@@ -60,10 +61,225 @@ public interface ZuoraConfig {
     @Default("8")
     public int getPoolMaxActive();
 
+    // How long a caller waits for a connection when maxActive connections are already borrowed
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.pool.maxWait")
+    @Default("30s")
+    public TimeSpan getPoolMaxWait();
+
+    // Connections only payments and refunds can borrow (at most maxActive - 1), so that reads can't starve them
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.pool.reservedForPayments")
+    @Default("2")
+    public int getPoolReservedForPayments();
+
+    // Idle connections above minIdle are closed after that long
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.pool.idleTimeout")
+    @Default("10m")
+    public TimeSpan getPoolIdleTimeout();
+
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.pool.evictionInterval")
+    @Default("1m")
+    public TimeSpan getPoolEvictionInterval();
+
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.pool.validation")
+    @Default("SESSION_AGE")
+    public ConnectionValidation getPoolValidation();
+
+    // Only used by the IDLE_PROBE validation
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.pool.validationIdleTime")
+    @Default("5m")
+    public TimeSpan getPoolValidationIdleTime();
+
+    // Threads running the asynchronous zuora calls, each holding a pooled connection while it runs
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.async.threads")
+    @Default("8")
+    public int getAsyncThreads();
+
+    // Consecutive transport failures of an operation (query, create, subscribe...) after which its calls fail fast, 0 to disable
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.circuitBreaker.failureThreshold")
+    @Default("5")
+    public int getCircuitBreakerFailureThreshold();
+
+    // How long an open circuit breaker fails fast before letting a trial call through
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.circuitBreaker.openDuration")
+    @Default("30s")
+    public TimeSpan getCircuitBreakerOpenDuration();
+
+    // Max connections held at once by the (read-only) private api calls of the servlet
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.bulkhead.private.maxConcurrent")
+    @Default("2")
+    public int getBulkheadPrivateMaxConcurrent();
+
+    // How long a call waits for its bulkhead before failing
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.bulkhead.maxWait")
+    @Default("1s")
+    public TimeSpan getBulkheadMaxWait();
+
+    // Max zuora query (and queryMore) calls per second for the tenant, 0 for no limit
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.rateLimit.query")
+    @Default("0")
+    public double getRateLimitQueryPerSecond();
+
+    // Max zuora create, update and delete calls per second for the tenant, 0 for no limit
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.rateLimit.write")
+    @Default("0")
+    public double getRateLimitWritePerSecond();
+
+    // Max zuora subscribe calls per second for the tenant, 0 for no limit
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.rateLimit.subscribe")
+    @Default("0")
+    public double getRateLimitSubscribePerSecond();
+
+    // How long a call waits for its rate limit before failing
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.rateLimit.maxWait")
+    @Default("2s")
+    public TimeSpan getRateLimitMaxWait();
+
+    // Split the rate limits between the plugin nodes, which keep track of each other in the Kill Bill database
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.rateLimit.clustered")
+    @Default("false")
+    public boolean isRateLimitClustered();
+
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.rateLimit.heartbeatInterval")
+    @Default("10s")
+    public TimeSpan getRateLimitHeartbeatInterval();
+
     @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.maxLoginRetries")
     @Default("3")
     public int getMaxLoginRetries();
 
+    // Attempts of a zuora call failing with a transient error, 1 to never retry
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.retry.maxAttempts")
+    @Default("3")
+    public int getRetryMaxAttempts();
+
+    // Wait before the first retry, doubled for each following one
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.retry.initialBackoff")
+    @Default("200ms")
+    public TimeSpan getRetryInitialBackoff();
+
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.retry.maxBackoff")
+    @Default("5s")
+    public TimeSpan getRetryMaxBackoff();
+
+    // Up to that fraction of each wait is randomly removed, so that the callers failing together don't retry together
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.retry.jitter")
+    @Default("0.5")
+    public double getRetryJitter();
+
+    // Comma separated zuora error codes meaning the request was rejected without being processed
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.retry.retryableCodes")
+    @Default("REQUEST_EXCEEDED_LIMIT,REQUEST_EXCEEDED_RATE,LOCK_COMPETITION,SERVER_UNAVAILABLE,TEMPORARY_ERROR")
+    public String getRetryRetryableCodes();
+
+    // Age after which the shared zuora session is renewed in the background
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.session.refreshInterval")
+    @Default("30m")
+    public TimeSpan getSessionRefreshInterval();
+
+    // Zuora accounts are cached for that long, a ttl of 0 disables the cache
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.accountCache.ttl")
+    @Default("5m")
+    public TimeSpan getAccountCacheTtl();
+
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.accountCache.maxSize")
+    @Default("10000")
+    public long getAccountCacheMaxSize();
+
+    // Max number of payment method, payment and account ids whose Kill Bill account external key is cached
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.killbillCache.maxSize")
+    @Default("10000")
+    public long getKillbillCacheMaxSize();
+
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.http.connectTimeout")
+    @Default("10s")
+    public TimeSpan getHttpConnectTimeout();
+
+    // Max time to wait for a zuora response: a hung socket holds its pooled connection that long
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.http.receiveTimeout")
+    @Default("60s")
+    public TimeSpan getHttpReceiveTimeout();
+
+    // Keep the HTTP connections open between calls, so that they are reused by the JDK connection cache
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.http.keepAlive")
+    @Default("true")
+    public boolean isHttpKeepAlive();
+
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.http.allowChunking")
+    @Default("false")
+    public boolean isHttpAllowChunking();
+
+    // Ask zuora for gzip compressed responses
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.http.gzipResponses")
+    @Default("true")
+    public boolean isHttpGzipResponses();
+
+    // Compress the requests (above 1KB), only if the zuora endpoint accepts it
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.http.gzipRequests")
+    @Default("false")
+    public boolean isHttpGzipRequests();
+
+    // TLS sessions are cached by all the stubs of the plugin instance, so that new connections can resume them
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.http.tlsSessionCacheSize")
+    @Default("100")
+    public int getHttpTlsSessionCacheSize();
+
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.http.tlsSessionTimeout")
+    @Default("1h")
+    public TimeSpan getHttpTlsSessionTimeout();
+
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.wireLogging")
+    @Default("ERRORS")
+    public WireLogging getWireLogging();
+
+    // Percentage of the calls logged by the SAMPLED wire logging, e.g. 0.5
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.wireLogging.samplePercent")
+    @Default("1")
+    public double getWireLoggingSamplePercent();
+
+    // Comma separated SOAP operations (e.g. subscribe,create) whose calls are always logged, whatever the wire logging mode
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.wireLogging.operations")
+    @Default("")
+    public String getWireLoggingOperations();
+
+    // Logged envelopes are truncated after that many bytes
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.wireLogging.maxPayloadSize")
+    @Default("8192")
+    public int getWireLoggingMaxPayloadSize();
+
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.tracing.enabled")
+    @Default("true")
+    public boolean isTracingEnabled();
+
+    // Plugin api calls taking longer are logged with the time spent in each step and zuora call, 0 to log them all
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.tracing.slowThreshold")
+    @Default("2s")
+    public TimeSpan getTracingSlowThreshold();
+
+    // Queues the payment inserts and writes them in batches off the payment threads
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.writeBehind.enabled")
+    @Default("false")
+    public boolean isWriteBehindEnabled();
+
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.writeBehind.batchSize")
+    @Default("100")
+    public int getWriteBehindBatchSize();
+
+    // Longest time a queued payment waits for its batch to fill up
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.writeBehind.maxDelay")
+    @Default("500ms")
+    public TimeSpan getWriteBehindMaxDelay();
+
+    // Once that many payments are queued, the inserts are made synchronously again
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.writeBehind.queueSize")
+    @Default("10000")
+    public int getWriteBehindQueueSize();
+
+    // Where the payments which could not be written are kept until the next start: required with writeBehind.enabled,
+    // it has to survive restarts (not java.io.tmpdir)
+    @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.writeBehind.journalDir")
+    @DefaultNull
+    public String getWriteBehindJournalDir();
+
     @Config(ZuoraConfigPropertyPrefix + "${pluginInstanceName}.isOverrideCreditCardGateway")
     @Default("false")
     public boolean isOverrideCreditcardGateway();
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora.zoql;
+
+import com.zuora.api.object.ZObject;
+
+public final class ZoqlField<T extends ZObject> {
+
+    private final ZoqlObject<T> object;
+    private final String name;
+    private final int estimatedSize;
+
+    ZoqlField(final ZoqlObject<T> object, final String name, final int estimatedSize) {
+        this.object = object;
+        this.name = name;
+        this.estimatedSize = estimatedSize;
+    }
+
+    public ZoqlPredicate<T> eq(final Object value) {
+        return new ZoqlPredicate<T>(this, "=", value);
+    }
+
+    public ZoqlPredicate<T> notEq(final Object value) {
+        return new ZoqlPredicate<T>(this, "!=", value);
+    }
+
+    public ZoqlPredicate<T> lt(final Object value) {
+        return new ZoqlPredicate<T>(this, "<", value);
+    }
+
+    public ZoqlPredicate<T> gt(final Object value) {
+        return new ZoqlPredicate<T>(this, ">", value);
+    }
+
+    public ZoqlObject<T> getObject() {
+        return object;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    @Override
+    public String toString() {
+        return object.getName() + "." + name;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora.zoql;
+
+import com.zuora.api.object.ZObject;
+
+/**
+ * A zuora object which can be queried with ZOQL. The type parameter ties the fields and predicates to the object,
+ * so that a query can't mix fields of different objects.
+ */
+public final class ZoqlObject<T extends ZObject> {
+
+    static final int DEFAULT_FIELD_SIZE = 16;
+
+    private final String name;
+
+    public ZoqlObject(final String name) {
+        this.name = name;
+    }
+
+    public ZoqlField<T> field(final String fieldName) {
+        return field(fieldName, DEFAULT_FIELD_SIZE);
+    }
+
+    /**
+     * @param estimatedSize typical length of the field value, used to estimate the size of the responses
+     */
+    public ZoqlField<T> field(final String fieldName, final int estimatedSize) {
+        return new ZoqlField<T>(this, fieldName, estimatedSize);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora.zoql;
+
+import com.zuora.api.object.ZObject;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A comparison between a field and a value. Values are always rendered as escaped ZOQL string literals,
+ * which zuora converts to the type of the field.
+ */
+public final class ZoqlPredicate<T extends ZObject> {
+
+    private final ZoqlField<T> field;
+    private final String operator;
+    private final String value;
+
+    ZoqlPredicate(final ZoqlField<T> field, final String operator, final Object value) {
+        Preconditions.checkNotNull(value, "ZOQL has no null literal, cannot compare %s to null", field);
+        this.field = field;
+        this.operator = operator;
+        this.value = value.toString();
+    }
+
+    void appendTo(final StringBuilder output) {
+        output.append(field.getName()).append(' ').append(operator).append(" '");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\'' || c == '\\') {
+                output.append('\\');
+            }
+            output.append(c);
+        }
+        output.append('\'');
+    }
+
+    int estimatedLength() {
+        return field.getName().length() + operator.length() + value.length() + 6;
+    }
+}
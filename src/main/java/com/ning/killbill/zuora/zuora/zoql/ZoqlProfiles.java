@@ -0,0 +1,60 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora.zoql;
+
+import com.zuora.api.object.ZObject;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The summary and full projections of a zuora object, so that call sites can pick one by {@link ZoqlProfile}.
+ */
+public final class ZoqlProfiles<T extends ZObject> {
+
+    private final ZoqlProjection<T> summary;
+    private final ZoqlProjection<T> full;
+
+    public static <T extends ZObject> ZoqlProfiles<T> of(final ZoqlProjection<T> summary, final ZoqlProjection<T> full) {
+        return new ZoqlProfiles<T>(summary, full);
+    }
+
+    private ZoqlProfiles(final ZoqlProjection<T> summary, final ZoqlProjection<T> full) {
+        Preconditions.checkArgument(summary.getObject() == full.getObject(), "Projections of %s and %s can't be mixed", summary.getObject(), full.getObject());
+        Preconditions.checkArgument(full.getFields().containsAll(summary.getFields()), "The summary projection of %s selects fields missing from the full one", full.getObject());
+        this.summary = summary;
+        this.full = full;
+    }
+
+    public ZoqlProjection<T> get(final ZoqlProfile profile) {
+        switch (profile) {
+            case SUMMARY:
+                return summary;
+            case FULL:
+                return full;
+            default:
+                throw new IllegalArgumentException("Unknown profile " + profile);
+        }
+    }
+
+    public ZoqlProjection<T> getSummary() {
+        return summary;
+    }
+
+    public ZoqlProjection<T> getFull() {
+        return full;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora.zoql;
+
+import java.util.List;
+
+import com.zuora.api.object.ZObject;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The fields selected from a zuora object. The select clause is rendered once, projections are meant to be constants.
+ */
+public final class ZoqlProjection<T extends ZObject> {
+
+    // Per record: the records element and its xsi:type; per field: the opening and closing tags with their prefix
+    private static final int RECORD_OVERHEAD = 48;
+    private static final int FIELD_OVERHEAD = 9;
+
+    private final ZoqlObject<T> object;
+    private final List<ZoqlField<T>> fields;
+    private final String selectClause;
+    private final int estimatedRecordSize;
+
+    // A builder rather than varargs: generic arrays make every call site an unchecked warning
+    public static <T extends ZObject> Builder<T> builder(final ZoqlObject<T> object) {
+        return new Builder<T>(object);
+    }
+
+    private ZoqlProjection(final ZoqlObject<T> object, final List<ZoqlField<T>> fields) {
+        Preconditions.checkArgument(!fields.isEmpty(), "A projection needs at least one field");
+        this.object = object;
+        this.fields = fields;
+
+        final StringBuilder select = new StringBuilder("select ");
+        int recordSize = RECORD_OVERHEAD;
+        for (int i = 0; i < fields.size(); i++) {
+            final ZoqlField<T> field = fields.get(i);
+            Preconditions.checkArgument(field.getObject() == object, "Field %s doesn't belong to %s", field, object);
+            if (i > 0) {
+                select.append(", ");
+            }
+            select.append(field.getName());
+            recordSize += field.getEstimatedSize() + 2 * field.getName().length() + FIELD_OVERHEAD;
+        }
+        select.append(" from ").append(object.getName());
+
+        this.selectClause = select.toString();
+        this.estimatedRecordSize = recordSize;
+    }
+
+    public ZoqlObject<T> getObject() {
+        return object;
+    }
+
+    public List<ZoqlField<T>> getFields() {
+        return fields;
+    }
+
+    public String getSelectClause() {
+        return selectClause;
+    }
+
+    /**
+     * @return rough size, in bytes, of one record of this projection in a SOAP query response
+     */
+    public int getEstimatedRecordSize() {
+        return estimatedRecordSize;
+    }
+
+    public static final class Builder<T extends ZObject> {
+
+        private final ZoqlObject<T> object;
+        private final ImmutableList.Builder<ZoqlField<T>> fields = ImmutableList.<ZoqlField<T>>builder();
+
+        private Builder(final ZoqlObject<T> object) {
+            this.object = object;
+        }
+
+        public Builder<T> add(final ZoqlField<T> field) {
+            fields.add(field);
+            return this;
+        }
+
+        public ZoqlProjection<T> build() {
+            return new ZoqlProjection<T>(object, fields.build());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora.zoql;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.zuora.api.object.ZObject;
+
+/**
+ * Typed ZOQL query builder:
+ * <pre>
+ *     ZoqlQuery.select(PAYMENT_PROJECTION)
+ *              .where(Payments.ACCOUNT_ID.eq(accountId))
+ *              .and(Payments.STATUS.eq("Processed"))
+ *              .build();
+ * </pre>
+ * Predicates can only reference fields of the selected object, and all the values are escaped.
+ */
+public final class ZoqlQuery<T extends ZObject> {
+
+    private final ZoqlProjection<T> projection;
+    private final List<ZoqlPredicate<T>> predicates = new ArrayList<ZoqlPredicate<T>>(2);
+
+    public static <T extends ZObject> ZoqlQuery<T> select(final ZoqlProjection<T> projection) {
+        return new ZoqlQuery<T>(projection);
+    }
+
+    private ZoqlQuery(final ZoqlProjection<T> projection) {
+        this.projection = projection;
+    }
+
+    public ZoqlQuery<T> where(final ZoqlPredicate<T> predicate) {
+        predicates.add(predicate);
+        return this;
+    }
+
+    public ZoqlQuery<T> and(final ZoqlPredicate<T> predicate) {
+        return where(predicate);
+    }
+
+    public String build() {
+        final String selectClause = projection.getSelectClause();
+        if (predicates.isEmpty()) {
+            return selectClause;
+        }
+
+        int length = selectClause.length() + 7;
+        for (final ZoqlPredicate<T> predicate : predicates) {
+            length += predicate.estimatedLength() + 5;
+        }
+
+        final StringBuilder query = new StringBuilder(length).append(selectClause).append(" where ");
+        for (int i = 0; i < predicates.size(); i++) {
+            if (i > 0) {
+                query.append(" and ");
+            }
+            predicates.get(i).appendTo(query);
+        }
+        return query.toString();
+    }
+
+    /**
+     * @return rough size, in bytes, of one record of the result in the SOAP response
+     */
+    public int getEstimatedRecordSize() {
+        return projection.getEstimatedRecordSize();
+    }
+
+    /**
+     * @param expectedRecords expected number of records, e.g. 1 for lookups by id
+     * @return rough size, in bytes, of the result records in the SOAP response
+     */
+    public long getEstimatedResultSize(final int expectedRecords) {
+        return (long) expectedRecords * projection.getEstimatedRecordSize();
+    }
+
+    @Override
+    public String toString() {
+        return build();
+    }
+}
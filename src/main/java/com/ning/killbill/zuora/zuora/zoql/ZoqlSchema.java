@@ -0,0 +1,218 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora.zoql;
+
+import com.zuora.api.object.Account;
+import com.zuora.api.object.Invoice;
+import com.zuora.api.object.InvoicePayment;
+import com.zuora.api.object.Payment;
+import com.zuora.api.object.PaymentMethod;
+import com.zuora.api.object.ProductRatePlanCharge;
+import com.zuora.api.object.Refund;
+import com.zuora.api.object.RefundInvoicePayment;
+import com.zuora.api.object.Subscription;
+
+/**
+ * The zuora objects and fields queried by the plugin.
+ */
+public final class ZoqlSchema {
+
+    private static final int ID_SIZE = 32;
+    private static final int DATE_SIZE = 29;
+    private static final int AMOUNT_SIZE = 10;
+
+    private ZoqlSchema() {
+    }
+
+    public static final class Accounts {
+
+        public static final ZoqlObject<Account> OBJECT = new ZoqlObject<Account>("Account");
+
+        public static final ZoqlField<Account> ID = OBJECT.field("Id", ID_SIZE);
+        public static final ZoqlField<Account> ACCOUNT_NUMBER = OBJECT.field("AccountNumber", ID_SIZE);
+        public static final ZoqlField<Account> AUTO_PAY = OBJECT.field("AutoPay", 5);
+        public static final ZoqlField<Account> DEFAULT_PAYMENT_METHOD_ID = OBJECT.field("DefaultPaymentMethodId", ID_SIZE);
+        public static final ZoqlField<Account> BALANCE = OBJECT.field("Balance", AMOUNT_SIZE);
+        public static final ZoqlField<Account> BILL_CYCLE_DAY = OBJECT.field("BillCycleDay", 2);
+        public static final ZoqlField<Account> BILL_TO_ID = OBJECT.field("BillToId", ID_SIZE);
+        public static final ZoqlField<Account> CURRENCY = OBJECT.field("Currency", 3);
+        public static final ZoqlField<Account> PAYMENT_GATEWAY = OBJECT.field("PaymentGateway");
+        public static final ZoqlField<Account> STATUS = OBJECT.field("Status", 8);
+
+        private Accounts() {
+        }
+    }
+
+    public static final class Invoices {
+
+        public static final ZoqlObject<Invoice> OBJECT = new ZoqlObject<Invoice>("Invoice");
+
+        public static final ZoqlField<Invoice> ID = OBJECT.field("Id", ID_SIZE);
+        public static final ZoqlField<Invoice> ACCOUNT_ID = OBJECT.field("AccountId", ID_SIZE);
+        public static final ZoqlField<Invoice> INVOICE_NUMBER = OBJECT.field("InvoiceNumber");
+        public static final ZoqlField<Invoice> AMOUNT = OBJECT.field("Amount", AMOUNT_SIZE);
+        public static final ZoqlField<Invoice> BALANCE = OBJECT.field("Balance", AMOUNT_SIZE);
+        public static final ZoqlField<Invoice> PAYMENT_AMOUNT = OBJECT.field("PaymentAmount", AMOUNT_SIZE);
+        public static final ZoqlField<Invoice> INVOICE_DATE = OBJECT.field("InvoiceDate", DATE_SIZE);
+        public static final ZoqlField<Invoice> TARGET_DATE = OBJECT.field("TargetDate", DATE_SIZE);
+        public static final ZoqlField<Invoice> STATUS = OBJECT.field("Status", 8);
+        public static final ZoqlField<Invoice> KILLBILL = OBJECT.field("Killbill__c", 36);
+        // Base64 encoded PDF
+        public static final ZoqlField<Invoice> BODY = OBJECT.field("Body", 64 * 1024);
+
+        private Invoices() {
+        }
+    }
+
+    public static final class InvoicePayments {
+
+        public static final ZoqlObject<InvoicePayment> OBJECT = new ZoqlObject<InvoicePayment>("InvoicePayment");
+
+        public static final ZoqlField<InvoicePayment> ID = OBJECT.field("Id", ID_SIZE);
+        public static final ZoqlField<InvoicePayment> PAYMENT_ID = OBJECT.field("PaymentId", ID_SIZE);
+        public static final ZoqlField<InvoicePayment> INVOICE_ID = OBJECT.field("InvoiceId", ID_SIZE);
+        public static final ZoqlField<InvoicePayment> AMOUNT = OBJECT.field("Amount", AMOUNT_SIZE);
+        public static final ZoqlField<InvoicePayment> REFUND_AMOUNT = OBJECT.field("RefundAmount", AMOUNT_SIZE);
+
+        private InvoicePayments() {
+        }
+    }
+
+    public static final class Payments {
+
+        public static final ZoqlObject<Payment> OBJECT = new ZoqlObject<Payment>("Payment");
+
+        public static final ZoqlField<Payment> ID = OBJECT.field("Id", ID_SIZE);
+        public static final ZoqlField<Payment> ACCOUNT_ID = OBJECT.field("AccountId", ID_SIZE);
+        public static final ZoqlField<Payment> ACCOUNTING_CODE = OBJECT.field("AccountingCode");
+        public static final ZoqlField<Payment> AMOUNT = OBJECT.field("Amount", AMOUNT_SIZE);
+        public static final ZoqlField<Payment> APPLIED_CREDIT_BALANCE_AMOUNT = OBJECT.field("AppliedCreditBalanceAmount", AMOUNT_SIZE);
+        public static final ZoqlField<Payment> BANK_IDENTIFICATION_NUMBER = OBJECT.field("BankIdentificationNumber", 6);
+        public static final ZoqlField<Payment> COMMENT = OBJECT.field("Comment", 36);
+        public static final ZoqlField<Payment> CREATED_DATE = OBJECT.field("CreatedDate", DATE_SIZE);
+        public static final ZoqlField<Payment> EFFECTIVE_DATE = OBJECT.field("EffectiveDate", DATE_SIZE);
+        public static final ZoqlField<Payment> GATEWAY_ORDER_ID = OBJECT.field("GatewayOrderId", ID_SIZE);
+        public static final ZoqlField<Payment> GATEWAY_RESPONSE_CODE = OBJECT.field("GatewayResponseCode", 8);
+        public static final ZoqlField<Payment> GATEWAY_RESPONSE = OBJECT.field("GatewayResponse", 64);
+        public static final ZoqlField<Payment> PAYMENT_METHOD_ID = OBJECT.field("PaymentMethodId", ID_SIZE);
+        public static final ZoqlField<Payment> PAYMENT_NUMBER = OBJECT.field("PaymentNumber");
+        public static final ZoqlField<Payment> REFERENCE_ID = OBJECT.field("ReferenceId", ID_SIZE);
+        public static final ZoqlField<Payment> REFUND_AMOUNT = OBJECT.field("RefundAmount", AMOUNT_SIZE);
+        public static final ZoqlField<Payment> SECOND_PAYMENT_REFERENCE_ID = OBJECT.field("SecondPaymentReferenceId", ID_SIZE);
+        public static final ZoqlField<Payment> STATUS = OBJECT.field("Status", 9);
+        public static final ZoqlField<Payment> TYPE = OBJECT.field("Type", 10);
+        public static final ZoqlField<Payment> UPDATED_DATE = OBJECT.field("UpdatedDate", DATE_SIZE);
+
+        private Payments() {
+        }
+    }
+
+    public static final class PaymentMethods {
+
+        public static final ZoqlObject<PaymentMethod> OBJECT = new ZoqlObject<PaymentMethod>("PaymentMethod");
+
+        public static final ZoqlField<PaymentMethod> ID = OBJECT.field("Id", ID_SIZE);
+        public static final ZoqlField<PaymentMethod> ACCOUNT_ID = OBJECT.field("AccountId", ID_SIZE);
+        public static final ZoqlField<PaymentMethod> TYPE = OBJECT.field("Type", 10);
+        public static final ZoqlField<PaymentMethod> CREDIT_CARD_HOLDER_NAME = OBJECT.field("CreditCardHolderName", 24);
+        public static final ZoqlField<PaymentMethod> CREDIT_CARD_ADDRESS1 = OBJECT.field("CreditCardAddress1", 32);
+        public static final ZoqlField<PaymentMethod> CREDIT_CARD_ADDRESS2 = OBJECT.field("CreditCardAddress2");
+        public static final ZoqlField<PaymentMethod> CREDIT_CARD_CITY = OBJECT.field("CreditCardCity");
+        public static final ZoqlField<PaymentMethod> CREDIT_CARD_STATE = OBJECT.field("CreditCardState");
+        public static final ZoqlField<PaymentMethod> CREDIT_CARD_POSTAL_CODE = OBJECT.field("CreditCardPostalCode", 10);
+        public static final ZoqlField<PaymentMethod> CREDIT_CARD_COUNTRY = OBJECT.field("CreditCardCountry");
+        public static final ZoqlField<PaymentMethod> CREDIT_CARD_EXPIRATION_MONTH = OBJECT.field("CreditCardExpirationMonth", 2);
+        public static final ZoqlField<PaymentMethod> CREDIT_CARD_EXPIRATION_YEAR = OBJECT.field("CreditCardExpirationYear", 4);
+        public static final ZoqlField<PaymentMethod> CREDIT_CARD_MASK_NUMBER = OBJECT.field("CreditCardMaskNumber", 16);
+        public static final ZoqlField<PaymentMethod> CREDIT_CARD_TYPE = OBJECT.field("CreditCardType", 10);
+        public static final ZoqlField<PaymentMethod> NUM_CONSECUTIVE_FAILURES = OBJECT.field("NumConsecutiveFailures", 1);
+        public static final ZoqlField<PaymentMethod> LAST_TRANSACTION_STATUS = OBJECT.field("LastTransactionStatus", 8);
+        public static final ZoqlField<PaymentMethod> PAYPAL_BAID = OBJECT.field("PaypalBaid", 20);
+        public static final ZoqlField<PaymentMethod> PAYPAL_EMAIL = OBJECT.field("PaypalEmail", 32);
+
+        private PaymentMethods() {
+        }
+    }
+
+    public static final class ProductRatePlanCharges {
+
+        public static final ZoqlObject<ProductRatePlanCharge> OBJECT = new ZoqlObject<ProductRatePlanCharge>("ProductRatePlanCharge");
+
+        public static final ZoqlField<ProductRatePlanCharge> ID = OBJECT.field("Id", ID_SIZE);
+        public static final ZoqlField<ProductRatePlanCharge> CHARGE_MODEL = OBJECT.field("ChargeModel");
+        public static final ZoqlField<ProductRatePlanCharge> CHARGE_TYPE = OBJECT.field("ChargeType");
+        public static final ZoqlField<ProductRatePlanCharge> NAME = OBJECT.field("Name", 24);
+        public static final ZoqlField<ProductRatePlanCharge> NUMBER_OF_PERIOD = OBJECT.field("NumberOfPeriod", 2);
+        public static final ZoqlField<ProductRatePlanCharge> ACCOUNTING_CODE = OBJECT.field("AccountingCode");
+        public static final ZoqlField<ProductRatePlanCharge> BILL_CYCLE_DAY = OBJECT.field("BillCycleDay", 2);
+        public static final ZoqlField<ProductRatePlanCharge> BILL_CYCLE_TYPE = OBJECT.field("BillCycleType");
+        public static final ZoqlField<ProductRatePlanCharge> REV_REC_CODE = OBJECT.field("RevRecCode");
+        public static final ZoqlField<ProductRatePlanCharge> REV_REC_TRIGGER_CONDITION = OBJECT.field("RevRecTriggerCondition");
+        public static final ZoqlField<ProductRatePlanCharge> SPECIFIC_BILLING_PERIOD = OBJECT.field("SpecificBillingPeriod", 2);
+        public static final ZoqlField<ProductRatePlanCharge> PRODUCT_RATE_PLAN_ID = OBJECT.field("ProductRatePlanId", ID_SIZE);
+
+        private ProductRatePlanCharges() {
+        }
+    }
+
+    public static final class Refunds {
+
+        public static final ZoqlObject<Refund> OBJECT = new ZoqlObject<Refund>("Refund");
+
+        public static final ZoqlField<Refund> ID = OBJECT.field("Id", ID_SIZE);
+        public static final ZoqlField<Refund> ACCOUNT_ID = OBJECT.field("AccountId", ID_SIZE);
+        public static final ZoqlField<Refund> AMOUNT = OBJECT.field("Amount", AMOUNT_SIZE);
+        public static final ZoqlField<Refund> GATEWAY_RESPONSE = OBJECT.field("GatewayResponse", 64);
+        public static final ZoqlField<Refund> GATEWAY_RESPONSE_CODE = OBJECT.field("GatewayResponseCode", 8);
+        public static final ZoqlField<Refund> REFUND_DATE = OBJECT.field("RefundDate", DATE_SIZE);
+        public static final ZoqlField<Refund> STATUS = OBJECT.field("Status", 9);
+        public static final ZoqlField<Refund> TYPE = OBJECT.field("Type", 10);
+
+        private Refunds() {
+        }
+    }
+
+    public static final class RefundInvoicePayments {
+
+        public static final ZoqlObject<RefundInvoicePayment> OBJECT = new ZoqlObject<RefundInvoicePayment>("RefundInvoicePayment");
+
+        public static final ZoqlField<RefundInvoicePayment> INVOICE_PAYMENT_ID = OBJECT.field("InvoicePaymentId", ID_SIZE);
+        public static final ZoqlField<RefundInvoicePayment> REFUND_AMOUNT = OBJECT.field("RefundAmount", AMOUNT_SIZE);
+        public static final ZoqlField<RefundInvoicePayment> REFUND_ID = OBJECT.field("RefundId", ID_SIZE);
+
+        private RefundInvoicePayments() {
+        }
+    }
+
+    public static final class Subscriptions {
+
+        public static final ZoqlObject<Subscription> OBJECT = new ZoqlObject<Subscription>("Subscription");
+
+        public static final ZoqlField<Subscription> ID = OBJECT.field("Id", ID_SIZE);
+        public static final ZoqlField<Subscription> ORIGINAL_ID = OBJECT.field("OriginalId", ID_SIZE);
+        public static final ZoqlField<Subscription> STATUS = OBJECT.field("Status", 9);
+        public static final ZoqlField<Subscription> ACCOUNT_ID = OBJECT.field("AccountId", ID_SIZE);
+        public static final ZoqlField<Subscription> VERSION = OBJECT.field("Version", 2);
+        public static final ZoqlField<Subscription> SUBSCRIPTION_START_DATE = OBJECT.field("SubscriptionStartDate", DATE_SIZE);
+        public static final ZoqlField<Subscription> CONTRACT_EFFECTIVE_DATE = OBJECT.field("ContractEffectiveDate", DATE_SIZE);
+        public static final ZoqlField<Subscription> NAME = OBJECT.field("Name", 36);
+        public static final ZoqlField<Subscription> KILLBILL = OBJECT.field("Killbill__c", 36);
+
+        private Subscriptions() {
+        }
+    }
+}
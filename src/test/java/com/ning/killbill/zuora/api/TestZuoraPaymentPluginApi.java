@@ -46,7 +46,7 @@ public class TestZuoraPaymentPluginApi extends TestZuoraApiBase {
             super.setup();
             dataSource = TestZuoraPluginDao.getC3P0DataSource();
             zuoraPluginDao = new JDBIZuoraPluginDao(dataSource);
-            zuoraPaymentPluginApi = new ZuoraPaymentPluginApi(pool, zuoraApi, logService, getKillbillApi(), zuoraPluginDao, ZuoraActivator.PLUGIN_NAME);
+            zuoraPaymentPluginApi = new ZuoraPaymentPluginApi(pool, null, zuoraApi, logService, getKillbillApi(), zuoraPluginDao, ZuoraActivator.PLUGIN_NAME);
 
         } catch (Exception e) {
             Assert.fail(e.getMessage());
@@ -124,7 +124,7 @@ public class TestZuoraPaymentPluginApi extends TestZuoraApiBase {
         Mockito.when(osgiKillbill.getPaymentApi()).thenReturn(paymentApi);
         Mockito.when(osgiKillbill.getAccountUserApi()).thenReturn(accountUserApi);
 
-        return new DefaultKillbillApi(osgiKillbill, logService);
+        return new DefaultKillbillApi(osgiKillbill, logService, 100);
     }
 
 }
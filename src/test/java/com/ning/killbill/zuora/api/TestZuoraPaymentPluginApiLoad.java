@@ -0,0 +1,255 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+
+package com.ning.killbill.zuora.api;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mockito.Mockito;
+import org.osgi.service.log.LogService;
+import org.skife.config.ConfigurationObjectFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ning.billing.catalog.api.Currency;
+import com.ning.billing.util.callcontext.CallContext;
+import com.ning.killbill.zuora.dao.MockZuoraPluginDao;
+import com.ning.killbill.zuora.killbill.MockDefaultKillbillApi;
+import com.ning.killbill.zuora.metrics.Histogram;
+import com.ning.killbill.zuora.metrics.MetricsRegistry;
+import com.ning.killbill.zuora.zuora.CircuitBreakers;
+import com.ning.killbill.zuora.zuora.ConnectionFactory;
+import com.ning.killbill.zuora.zuora.ConnectionPool;
+import com.ning.killbill.zuora.zuora.LogServiceTest;
+import com.ning.killbill.zuora.zuora.RateLimiters;
+import com.ning.killbill.zuora.zuora.ZuoraApi;
+import com.ning.killbill.zuora.zuora.ZuoraAsyncClient;
+import com.ning.killbill.zuora.zuora.ZuoraSessionManager;
+import com.ning.killbill.zuora.zuora.ZuoraSimulator;
+import com.ning.killbill.zuora.zuora.ZuoraStubFactory;
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+import com.google.common.collect.ImmutableMap;
+import com.zuora.api.object.Account;
+import com.zuora.api.object.PaymentMethod;
+import com.zuora.api.object.ProductRatePlanCharge;
+
+/**
+ * Drives processPayment through the whole plugin stack (pool, sessions, retries, CXF) against the
+ * {@link ZuoraSimulator}. Not part of the default build, run it with <code>mvn test -Pload</code>.
+ * <p/>
+ * The load can be tuned with the killbill.zuora.load.threads, .payments, .accounts, .latency (ms) and .jitter (ms)
+ * system properties; the pool and retry settings with the usual killbill.zuora.config.load-zuora.* ones.
+ */
+public class TestZuoraPaymentPluginApiLoad {
+
+    private static final Logger log = LoggerFactory.getLogger(TestZuoraPaymentPluginApiLoad.class);
+
+    private static final String INSTANCE_NAME = "load-zuora";
+    private static final String LOAD_PROPERTY_PREFIX = "killbill.zuora.load.";
+
+    private final int threads = Integer.getInteger(LOAD_PROPERTY_PREFIX + "threads", 16);
+    private final int payments = Integer.getInteger(LOAD_PROPERTY_PREFIX + "payments", 1000);
+    private final int accounts = Integer.getInteger(LOAD_PROPERTY_PREFIX + "accounts", 50);
+    private final long latencyMillis = Long.getLong(LOAD_PROPERTY_PREFIX + "latency", 20L);
+    private final long jitterMillis = Long.getLong(LOAD_PROPERTY_PREFIX + "jitter", 30L);
+
+    private final CallContext callContext = Mockito.mock(CallContext.class);
+
+    private ZuoraSimulator simulator;
+    private MetricsRegistry metrics;
+    private ZuoraSessionManager sessionManager;
+    private ConnectionPool pool;
+    private ZuoraAsyncClient asyncClient;
+    private MockZuoraPluginDao zuoraPluginDao;
+    private ZuoraPaymentPluginApi zuoraPaymentPluginApi;
+    private List<UUID[]> kbAccountAndPaymentMethodIds;
+
+    @BeforeMethod(groups = "load")
+    public void setup() throws Exception {
+        simulator = new ZuoraSimulator("http://localhost:" + findFreePort() + "/apps/services/a/27.0");
+        simulator.setLatency(latencyMillis, jitterMillis);
+        simulator.start();
+
+        final Properties props = new Properties();
+        props.putAll(System.getProperties());
+        final String configPrefix = ZuoraConfig.ZuoraConfigPropertyPrefix + INSTANCE_NAME + ".";
+        props.setProperty(configPrefix + "url", simulator.getAddress());
+        setDefault(props, configPrefix + "pool.maxActive", String.valueOf(threads));
+        setDefault(props, configPrefix + "pool.maxIdle", String.valueOf(threads));
+        setDefault(props, configPrefix + "retry.initialBackoff", "10ms");
+        final ZuoraConfig config = new ConfigurationObjectFactory(props).buildWithReplacements(ZuoraConfig.class,
+                                                                                                ImmutableMap.of("pluginInstanceName", INSTANCE_NAME));
+
+        final LogService logService = new LogServiceTest(log);
+        metrics = new MetricsRegistry();
+        final ZuoraApi zuoraApi = new ZuoraApi(config, logService);
+        final ZuoraStubFactory stubFactory = new ZuoraStubFactory(config, metrics);
+        sessionManager = new ZuoraSessionManager(config, stubFactory, logService);
+        sessionManager.start();
+        final ConnectionFactory connectionFactory = new ConnectionFactory(config, zuoraApi, sessionManager, stubFactory, new CircuitBreakers(config),
+                                                                          new RateLimiters(config), metrics, logService);
+        pool = new ConnectionPool(connectionFactory, config, logService);
+        pool.start();
+        asyncClient = new ZuoraAsyncClient(pool, config, logService);
+
+        zuoraPluginDao = new MockZuoraPluginDao();
+        final MockDefaultKillbillApi defaultKillbillApi = new MockDefaultKillbillApi();
+        zuoraPaymentPluginApi = new ZuoraPaymentPluginApi(pool,
+                                                          asyncClient,
+                                                          zuoraApi,
+                                                          logService,
+                                                          defaultKillbillApi,
+                                                          zuoraPluginDao,
+                                                          INSTANCE_NAME);
+
+        final ProductRatePlanCharge charge = new ProductRatePlanCharge();
+        charge.setName(config.getRatePlanChargeName());
+        charge.setProductRatePlanId(UUID.randomUUID().toString().replace("-", ""));
+        simulator.seed(charge);
+
+        kbAccountAndPaymentMethodIds = new ArrayList<UUID[]>();
+        for (int i = 0; i < accounts; i++) {
+            final UUID kbAccountId = UUID.randomUUID();
+            final UUID kbPaymentMethodId = UUID.randomUUID();
+            final String externalKey = "load-" + kbAccountId;
+            defaultKillbillApi.createKbAccount(kbAccountId, externalKey);
+            defaultKillbillApi.createKbPaymentMethodId(kbPaymentMethodId, externalKey);
+
+            final Account account = new Account();
+            account.setAccountNumber(externalKey);
+            account.setStatus("Active");
+            account.setCurrency("USD");
+            final String zuoraAccountId = simulator.seed(account);
+
+            final PaymentMethod paymentMethod = new PaymentMethod();
+            paymentMethod.setAccountId(zuoraAccountId);
+            paymentMethod.setType("CreditCard");
+            paymentMethod.setCreditCardMaskNumber("************1111");
+            account.setDefaultPaymentMethodId(simulator.seed(paymentMethod));
+
+            kbAccountAndPaymentMethodIds.add(new UUID[]{kbAccountId, kbPaymentMethodId});
+        }
+    }
+
+    @AfterMethod(groups = "load")
+    public void tearDown() throws Exception {
+        asyncClient.stop();
+        pool.close();
+        sessionManager.stop();
+        simulator.stop();
+    }
+
+    @Test(groups = "load")
+    public void testProcessPayments() throws Exception {
+        final LoadResult result = run();
+
+        Assert.assertEquals(result.failures.get(), 0);
+        Assert.assertEquals(simulator.getObjects("Payment").size(), payments);
+        Assert.assertEquals(simulator.getObjects("Subscription").size(), payments);
+    }
+
+    @Test(groups = "load")
+    public void testProcessPaymentsWithTransientErrorsAndExpiringSessions() throws Exception {
+        // Low enough for the retries and re-logins to absorb nearly all of them
+        simulator.setErrorRate(0.02);
+        simulator.setSessionTtlMillis(500);
+
+        final LoadResult result = run();
+
+        Assert.assertTrue(result.failures.get() <= payments / 100, "Too many failed payments: " + result.failures.get());
+        Assert.assertTrue(sessionManager.getLoginCount() > 1);
+    }
+
+    private LoadResult run() throws Exception {
+        final LoadResult result = new LoadResult();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final long startNanos = System.nanoTime();
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>(payments);
+            for (int i = 0; i < payments; i++) {
+                final UUID[] ids = kbAccountAndPaymentMethodIds.get(i % kbAccountAndPaymentMethodIds.size());
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        final long paymentStartNanos = System.nanoTime();
+                        try {
+                            zuoraPaymentPluginApi.processPayment(ids[0], UUID.randomUUID(), ids[1], new BigDecimal("9.99"), Currency.USD, callContext);
+                        } catch (Exception ex) {
+                            result.failures.incrementAndGet();
+                            log.debug("Payment failed", ex);
+                        } finally {
+                            result.latencies.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - paymentStartNanos));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+            final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+            log.info(String.format("%d payments with %d threads in %d ms: %.1f payments/s, %d failed, latency p50=%d p95=%d p99=%d max=%d ms",
+                                   payments, threads, elapsedMillis, payments * 1000.0 / Math.max(1, elapsedMillis), result.failures.get(),
+                                   result.latencies.getQuantile(0.5), result.latencies.getQuantile(0.95), result.latencies.getQuantile(0.99),
+                                   result.latencies.getMax()));
+            log.info("Zuora calls: " + simulator.getCallCounts() + ", logins: " + sessionManager.getLoginCount());
+            log.info("Metrics: " + metrics.getSnapshot());
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private static final class LoadResult {
+
+        private final AtomicLong failures = new AtomicLong();
+        private final Histogram latencies = new Histogram();
+    }
+
+    private static void setDefault(final Properties props, final String key, final String value) {
+        if (props.getProperty(key) == null) {
+            props.setProperty(key, value);
+        }
+    }
+
+    private static int findFreePort() throws IOException {
+        final ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -40,6 +40,7 @@ public class TestZuoraPaymentPluginApiWithMocks {
         zuoraPluginDao = new MockZuoraPluginDao();
         final MockDefaultKillbillApi defaultKillbillApi = new MockDefaultKillbillApi();
         zuoraPaymentPluginApi = new ZuoraPaymentPluginApi(Mockito.mock(ConnectionPool.class),
+                                                          null,
                                                           zuoraApi,
                                                           Mockito.mock(LogService.class),
                                                           defaultKillbillApi,
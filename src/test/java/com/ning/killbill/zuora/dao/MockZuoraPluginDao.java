@@ -129,11 +129,20 @@ public class MockZuoraPluginDao implements ZuoraPluginDao {
         }
     }
 
+    @Override
+    public void insertPayments(final List<PaymentEntity> payments) {
+        synchronized (paymentEntities) {
+            paymentEntities.addAll(payments);
+        }
+    }
+
     @Override
     public PaymentEntity getPayment(final String kbPaymentId) {
-        for (PaymentEntity cur : paymentEntities) {
-            if (cur.getKbPaymentId().equals(kbPaymentId)) {
-                return cur;
+        synchronized (paymentEntities) {
+            for (PaymentEntity cur : paymentEntities) {
+                if (cur.getKbPaymentId().equals(kbPaymentId)) {
+                    return cur;
+                }
             }
         }
         return null;
@@ -0,0 +1,242 @@
+package com.ning.killbill.zuora.dao;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mockito.Mockito;
+import org.skife.config.TimeSpan;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ning.killbill.zuora.dao.entities.PaymentEntity;
+import com.ning.killbill.zuora.zuora.LogServiceTest;
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+public class TestWriteBehindZuoraPluginDao {
+
+    private final LogServiceTest logService = new LogServiceTest(LoggerFactory.getLogger(TestWriteBehindZuoraPluginDao.class));
+
+    private File journalDir;
+    private FailingZuoraPluginDao delegate;
+
+    @BeforeMethod(groups = "fast")
+    public void setup() throws Exception {
+        journalDir = new File(System.getProperty("java.io.tmpdir"), "killbill-zuora-journal-" + UUID.randomUUID());
+        delegate = new FailingZuoraPluginDao();
+    }
+
+    @AfterMethod(groups = "fast")
+    public void tearDown() throws Exception {
+        final File[] files = journalDir.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        journalDir.delete();
+    }
+
+    @Test(groups = "fast")
+    public void testWritesFullBatches() throws Exception {
+        final WriteBehindZuoraPluginDao dao = new WriteBehindZuoraPluginDao(delegate, 5, TimeUnit.HOURS.toMillis(1), 100, journalDir, logService);
+        dao.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                dao.insertPayment(createPayment());
+            }
+            waitForWrites(10);
+            Assert.assertEquals(delegate.batches.get(), 2);
+            Assert.assertEquals(dao.getBatchCount(), 2);
+            Assert.assertEquals(dao.getPendingCount(), 0);
+            Assert.assertEquals(dao.getSynchronousCount(), 0);
+        } finally {
+            dao.stop();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testWritesPartialBatchAfterMaxDelay() throws Exception {
+        final WriteBehindZuoraPluginDao dao = new WriteBehindZuoraPluginDao(delegate, 100, 50, 100, journalDir, logService);
+        dao.start();
+        try {
+            dao.insertPayment(createPayment());
+            dao.insertPayment(createPayment());
+            waitForWrites(2);
+            Assert.assertEquals(delegate.batches.get(), 1);
+        } finally {
+            dao.stop();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testQueuedPaymentsAreVisibleAndWrittenOnStop() throws Exception {
+        final WriteBehindZuoraPluginDao dao = new WriteBehindZuoraPluginDao(delegate, 100, TimeUnit.HOURS.toMillis(1), 100, journalDir, logService);
+        dao.start();
+
+        final PaymentEntity payment = createPayment();
+        dao.insertPayment(payment);
+        Assert.assertEquals(dao.getPayment(payment.getKbPaymentId()), payment);
+        Assert.assertNull(delegate.getPayment(payment.getKbPaymentId()));
+        Assert.assertEquals(dao.getPendingCount(), 1);
+
+        dao.stop();
+        Assert.assertEquals(delegate.getPayment(payment.getKbPaymentId()), payment);
+        Assert.assertEquals(dao.getPendingCount(), 0);
+
+        // Stopped, inserts are synchronous again
+        final PaymentEntity next = createPayment();
+        dao.insertPayment(next);
+        Assert.assertEquals(delegate.getPayment(next.getKbPaymentId()), next);
+        Assert.assertEquals(dao.getSynchronousCount(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testJournalsUnwrittenPaymentsAndReplaysThem() throws Exception {
+        delegate.failing = true;
+        final WriteBehindZuoraPluginDao dao = new WriteBehindZuoraPluginDao(delegate, 100, TimeUnit.HOURS.toMillis(1), 100, journalDir, logService);
+        dao.start();
+        final List<PaymentEntity> payments = new ArrayList<PaymentEntity>();
+        for (int i = 0; i < 3; i++) {
+            payments.add(createPayment());
+            dao.insertPayment(payments.get(i));
+        }
+        dao.stop();
+        Assert.assertEquals(dao.getJournaledCount(), 3);
+        Assert.assertEquals(journalDir.list().length, 1);
+        Assert.assertEquals(delegate.paymentEntities.size(), 0);
+
+        delegate.failing = false;
+        final WriteBehindZuoraPluginDao restarted = new WriteBehindZuoraPluginDao(delegate, 100, TimeUnit.HOURS.toMillis(1), 100, journalDir, logService);
+        restarted.start();
+        restarted.stop();
+        Assert.assertEquals(journalDir.list().length, 0);
+        for (final PaymentEntity payment : payments) {
+            Assert.assertEquals(delegate.getPayment(payment.getKbPaymentId()), payment);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testReplayQuarantinesBadPayments() throws Exception {
+        delegate.failing = true;
+        final WriteBehindZuoraPluginDao dao = new WriteBehindZuoraPluginDao(delegate, 100, TimeUnit.HOURS.toMillis(1), 100, journalDir, logService);
+        dao.start();
+        final PaymentEntity good = createPayment();
+        final PaymentEntity bad = createPayment();
+        dao.insertPayment(good);
+        dao.insertPayment(bad);
+        dao.stop();
+
+        // The database is back, but one of the payments can't be written
+        delegate.failing = false;
+        delegate.badPaymentId = bad.getKbPaymentId();
+        final WriteBehindZuoraPluginDao restarted = new WriteBehindZuoraPluginDao(delegate, 100, TimeUnit.HOURS.toMillis(1), 100, journalDir, logService);
+        restarted.start();
+        restarted.stop();
+
+        Assert.assertEquals(delegate.getPayment(good.getKbPaymentId()), good);
+        Assert.assertNull(delegate.getPayment(bad.getKbPaymentId()));
+        final String[] files = journalDir.list();
+        Assert.assertEquals(files.length, 1);
+        Assert.assertTrue(files[0].endsWith(".quarantined"), files[0]);
+    }
+
+    @Test(groups = "fast")
+    public void testReplayKeepsJournalWhileDatabaseIsDown() throws Exception {
+        delegate.failing = true;
+        final WriteBehindZuoraPluginDao dao = new WriteBehindZuoraPluginDao(delegate, 100, TimeUnit.HOURS.toMillis(1), 100, journalDir, logService);
+        dao.start();
+        dao.insertPayment(createPayment());
+        dao.stop();
+
+        final WriteBehindZuoraPluginDao restarted = new WriteBehindZuoraPluginDao(delegate, 100, TimeUnit.HOURS.toMillis(1), 100, journalDir, logService);
+        restarted.start();
+        restarted.stop();
+        final String[] files = journalDir.list();
+        Assert.assertEquals(files.length, 1);
+        Assert.assertTrue(files[0].endsWith(".payments"), files[0]);
+        Assert.assertEquals(delegate.paymentEntities.size(), 0);
+    }
+
+    @Test(groups = "fast", expectedExceptions = IllegalArgumentException.class)
+    public void testJournalDirIsRequired() throws Exception {
+        final ZuoraConfig config = Mockito.mock(ZuoraConfig.class);
+        Mockito.when(config.getWriteBehindBatchSize()).thenReturn(100);
+        Mockito.when(config.getWriteBehindMaxDelay()).thenReturn(new TimeSpan("500ms"));
+        Mockito.when(config.getWriteBehindQueueSize()).thenReturn(100);
+        new WriteBehindZuoraPluginDao(delegate, config, logService);
+    }
+
+    @Test(groups = "fast")
+    public void testJournalLineRoundTrip() throws Exception {
+        final PaymentEntity payment = new PaymentEntity(UUID.randomUUID().toString(), UUID.randomUUID().toString(), null,
+                                                        new Date(), new Date(), new BigDecimal("12.30"), "Processed",
+                                                        "Declined\tby\\the gateway\n", null, "ref", "");
+        final PaymentEntity read = WriteBehindZuoraPluginDao.fromJournalLine(WriteBehindZuoraPluginDao.toJournalLine(payment));
+        Assert.assertEquals(read, payment);
+        Assert.assertEquals(read.getGatewayError(), payment.getGatewayError());
+        Assert.assertNull(read.getZuoraPaymentId());
+        Assert.assertEquals(read.getSecondReferenceId(), "");
+    }
+
+    private void waitForWrites(final int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (delegate.paymentEntities.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(delegate.paymentEntities.size(), count);
+    }
+
+    private PaymentEntity createPayment() {
+        return new PaymentEntity(UUID.randomUUID().toString(), UUID.randomUUID().toString(), UUID.randomUUID().toString(),
+                                 new Date(), new Date(), BigDecimal.TEN, "Processed", null, null, null, null);
+    }
+
+    private static final class FailingZuoraPluginDao extends MockZuoraPluginDao {
+
+        private final AtomicInteger batches = new AtomicInteger();
+        private volatile boolean failing = false;
+        private volatile String badPaymentId = null;
+
+        @Override
+        public void insertPayment(final PaymentEntity p) {
+            if (failing) {
+                throw new IllegalStateException("Database down");
+            }
+            if (p.getKbPaymentId().equals(badPaymentId)) {
+                throw new IllegalArgumentException("Bad payment");
+            }
+            super.insertPayment(p);
+        }
+
+        @Override
+        public void insertPayments(final List<PaymentEntity> payments) {
+            if (failing) {
+                throw new IllegalStateException("Database down");
+            }
+            for (final PaymentEntity p : payments) {
+                if (p.getKbPaymentId().equals(badPaymentId)) {
+                    throw new IllegalArgumentException("Bad payment");
+                }
+            }
+            batches.incrementAndGet();
+            super.insertPayments(payments);
+        }
+
+        @Override
+        public PaymentEntity getPayment(final String kbPaymentId) {
+            if (failing) {
+                throw new IllegalStateException("Database down");
+            }
+            return super.getPayment(kbPaymentId);
+        }
+    }
+}
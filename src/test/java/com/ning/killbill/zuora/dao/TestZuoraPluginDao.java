@@ -23,6 +23,7 @@ import com.ning.killbill.zuora.dao.entities.PaymentMethodDetailEntity;
 import com.ning.killbill.zuora.dao.entities.PaymentMethodEntity;
 import com.ning.killbill.zuora.dao.jpa.JPAZuoraPluginDao;
 
+import com.google.common.collect.ImmutableList;
 import com.jolbox.bonecp.BoneCPConfig;
 import com.jolbox.bonecp.BoneCPDataSource;
 import com.mchange.v2.c3p0.ComboPooledDataSource;
@@ -111,6 +112,24 @@ public class TestZuoraPluginDao {
         Assert.assertEquals(res, p1);
     }
 
+    @Test(groups = "slow", enabled = true)
+    public void testPaymentBatch() throws Exception {
+
+        final String accountId = UUID.randomUUID().toString();
+        DateTime now = new DateTime();
+        now = now.minus(now.getMillisOfSecond());
+
+        final PaymentEntity p1 = new PaymentEntity(UUID.randomUUID().toString(), accountId, "zid2", now.toDate(), now.toDate(), new BigDecimal("12.56"), "processed", "ok", "1", "foo", "bar");
+        final PaymentEntity p2 = new PaymentEntity(UUID.randomUUID().toString(), accountId, "zid3", now.toDate(), now.toDate(), new BigDecimal("7.10"), "processed", "ok", "1", "foo", "bar");
+
+        defaultZuoraPluginDao.insertPayments(ImmutableList.<PaymentEntity>of(p1, p2));
+        // Already inserted payments are ignored
+        defaultZuoraPluginDao.insertPayments(ImmutableList.<PaymentEntity>of(p1));
+
+        Assert.assertEquals(defaultZuoraPluginDao.getPayment(p1.getKbPaymentId()), p1);
+        Assert.assertEquals(defaultZuoraPluginDao.getPayment(p2.getKbPaymentId()), p2);
+    }
+
 
 
         @Test(groups = "slow", enabled = true)
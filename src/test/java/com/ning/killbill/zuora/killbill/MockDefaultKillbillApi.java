@@ -19,7 +19,7 @@ public class MockDefaultKillbillApi extends DefaultKillbillApi {
     private final Map<UUID, String> accountMapping = new HashMap<UUID, String>();
 
     public MockDefaultKillbillApi() {
-        super(Mockito.mock(OSGIKillbill.class), Mockito.mock(LogService.class));
+        super(Mockito.mock(OSGIKillbill.class), Mockito.mock(LogService.class), 0);
     }
 
     @Override
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.metrics;
+
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestMetricsRegistry {
+
+    @Test(groups = "fast")
+    public void testHistogram() throws Exception {
+        final Histogram histogram = new Histogram();
+        Assert.assertEquals(histogram.getQuantile(0.99), 0);
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.update(i);
+        }
+        Assert.assertEquals(histogram.getCount(), 100);
+        Assert.assertEquals(histogram.getMin(), 1);
+        Assert.assertEquals(histogram.getMax(), 100);
+        Assert.assertEquals(histogram.getMean(), 50.5);
+
+        // Quantiles are the upper bound of their power of two bucket
+        Assert.assertEquals(histogram.getQuantile(0.5), 63);
+        Assert.assertEquals(histogram.getQuantile(0.99), 100);
+        Assert.assertEquals(histogram.getQuantile(0.01), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testBuckets() throws Exception {
+        Assert.assertEquals(Histogram.bucketOf(-1), 0);
+        Assert.assertEquals(Histogram.bucketOf(0), 0);
+        Assert.assertEquals(Histogram.bucketOf(1), 1);
+        Assert.assertEquals(Histogram.bucketOf(3), 2);
+        Assert.assertEquals(Histogram.bucketOf(4), 3);
+        Assert.assertEquals(Histogram.bucketOf(Long.MAX_VALUE), 63);
+    }
+
+    @Test(groups = "fast")
+    public void testSnapshot() throws Exception {
+        final MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("zuora.relogins").inc();
+        metrics.counter("zuora.relogins").inc(2);
+        metrics.histogram("zuora.query.Account.latencyMillis").update(12);
+        metrics.register("pool.active", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return 3;
+            }
+        });
+
+        final Map<String, Object> snapshot = metrics.getSnapshot();
+        Assert.assertEquals(snapshot.get("zuora.relogins"), 3L);
+        Assert.assertEquals(snapshot.get("pool.active"), 3);
+        Assert.assertEquals(((Map<?, ?>) snapshot.get("zuora.query.Account.latencyMillis")).get("count"), 1L);
+    }
+}
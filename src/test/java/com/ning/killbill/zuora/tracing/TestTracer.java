@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.tracing;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.osgi.service.log.LogService;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestTracer {
+
+    @Test(groups = "fast")
+    public void testSpanTree() throws Exception {
+        final LogService logService = Mockito.mock(LogService.class);
+        final Tracer tracer = new Tracer(true, 0, logService);
+
+        final Span root = tracer.startTrace("processPayment", "kb-payment-id");
+        final Span step = Tracer.startSpan("account");
+        Assert.assertSame(Tracer.currentSpan(), step);
+        Assert.assertEquals(Tracer.currentCorrelationId(), "kb-payment-id");
+
+        final Span call = Tracer.startSpan("query Account");
+        call.setError("unavailable");
+        call.finish();
+        step.finish();
+        Assert.assertSame(Tracer.currentSpan(), root);
+
+        // Work handed over to another thread hangs off the captured span
+        final Span parent = Tracer.currentSpan();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    final Span span = Tracer.startSpan(parent, "async");
+                    Assert.assertEquals(Tracer.currentCorrelationId(), "kb-payment-id");
+                    span.finish();
+                    Assert.assertNull(Tracer.currentSpan());
+                    return null;
+                }
+            }).get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        root.finish();
+        Assert.assertNull(Tracer.currentSpan());
+        Assert.assertEquals(root.getChildren().size(), 2);
+        Assert.assertSame(step.getChildren().get(0), call);
+
+        final ArgumentCaptor<String> message = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(logService).log(Mockito.eq(LogService.LOG_INFO), message.capture());
+        Assert.assertTrue(message.getValue().contains("processPayment [kb-payment-id]"));
+        Assert.assertTrue(message.getValue().contains("    query Account"));
+        Assert.assertTrue(message.getValue().contains("error=unavailable"));
+    }
+
+    @Test(groups = "fast")
+    public void testNoActiveTrace() throws Exception {
+        final Span span = Tracer.startSpan("query Account");
+        Assert.assertNull(Tracer.currentSpan());
+        span.finish();
+
+        final Tracer disabled = new Tracer(false, 0, Mockito.mock(LogService.class));
+        disabled.startTrace("processPayment", "kb-payment-id");
+        Assert.assertNull(Tracer.currentSpan());
+        Assert.assertNull(Tracer.currentCorrelationId());
+    }
+
+    @Test(groups = "fast")
+    public void testFastTracesAreNotLogged() throws Exception {
+        final LogService logService = Mockito.mock(LogService.class);
+        final Tracer tracer = new Tracer(true, 60000, logService);
+        tracer.startTrace("getPaymentInfo", "kb-payment-id").finish();
+        Mockito.verifyZeroInteractions(logService);
+    }
+}
@@ -11,6 +11,7 @@ import org.osgi.service.log.LogService;
 import com.ning.billing.payment.api.PaymentMethodPlugin;
 import com.ning.killbill.zuora.util.Either;
 import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlProfile;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
@@ -50,7 +51,7 @@ public class MockZuoraApi extends ZuoraApi {
     }
 
     @Override
-    public Either<ZuoraError, List<PaymentMethod>> getPaymentMethodsForAccount(final ZuoraConnection connection, final Account account) {
+    public Either<ZuoraError, List<PaymentMethod>> getPaymentMethodsForAccount(final ZuoraConnection connection, final Account account, final ZoqlProfile profile) {
         final List<PaymentMethod> results = ImmutableList.<PaymentMethod>copyOf(Collections2.filter(paymentMethods.values(), new Predicate<PaymentMethod>() {
             @Override
             public boolean apply(final PaymentMethod input) {
@@ -109,13 +110,13 @@ public class MockZuoraApi extends ZuoraApi {
     }
 
     @Override
-    public Either<ZuoraError, Account> getAccountById(final ZuoraConnection connection, final String id) {
+    public Either<ZuoraError, Account> getAccountById(final ZuoraConnection connection, final String id, final ZoqlProfile profile) {
         final Account account = accounts.get(UUID.fromString(id));
         return Either.right(account);
     }
 
     @Override
-    public Either<ZuoraError, Account> getByAccountName(final ZuoraConnection connection, final String accountName) {
+    public Either<ZuoraError, Account> getByAccountName(final ZuoraConnection connection, final String accountName, final ZoqlProfile profile) {
         final UUID zuoraAccountId = accountExternalKeys.get(accountName);
         if (zuoraAccountId == null) {
             return Either.left(new ZuoraError(ZuoraError.ERROR_NOTFOUND, "Can't find Account"));
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.ning.killbill.zuora.zuora.CircuitBreaker.State;
+
+public class TestCircuitBreaker {
+
+    @Test(groups = "fast")
+    public void testOpensAfterConsecutiveFailures() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker("query", 3, 60000);
+
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        Assert.assertEquals(breaker.getState(), State.CLOSED);
+        Assert.assertTrue(breaker.allowRequest());
+
+        breaker.onFailure();
+        Assert.assertEquals(breaker.getState(), State.OPEN);
+        Assert.assertFalse(breaker.allowRequest());
+        Assert.assertEquals(breaker.getRejectedCount(), 1);
+        Assert.assertEquals(breaker.getOpenedCount(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testHalfOpenTrial() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker("create", 1, 0);
+
+        breaker.onFailure();
+        Assert.assertEquals(breaker.getState(), State.OPEN);
+
+        // The open duration is over: a single trial call goes through
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertEquals(breaker.getState(), State.HALF_OPEN);
+        Assert.assertFalse(breaker.allowRequest());
+
+        // It fails, the breaker opens again
+        breaker.onFailure();
+        Assert.assertEquals(breaker.getState(), State.OPEN);
+        Assert.assertEquals(breaker.getOpenedCount(), 2);
+
+        // The next trial succeeds
+        Assert.assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        Assert.assertEquals(breaker.getState(), State.CLOSED);
+        Assert.assertTrue(breaker.allowRequest());
+    }
+
+    @Test(groups = "fast")
+    public void testDisabled() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker("subscribe", 0, 60000);
+        for (int i = 0; i < 100; i++) {
+            breaker.onFailure();
+        }
+        Assert.assertEquals(breaker.getState(), State.CLOSED);
+        Assert.assertEquals(breaker.getFailureCount(), 100);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.service.log.LogService;
+import org.skife.config.TimeSpan;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ning.killbill.zuora.zuora.setup.ConnectionValidation;
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+public class TestConnectionPool {
+
+    private ZuoraConfig config;
+    private LogService logService;
+    private ConnectionFactory factory;
+    private ConnectionPool pool;
+
+    @BeforeMethod(groups = "fast")
+    public void setup() throws Exception {
+        config = Mockito.mock(ZuoraConfig.class);
+        Mockito.when(config.getPoolMinIdle()).thenReturn(1);
+        Mockito.when(config.getPoolMaxIdle()).thenReturn(2);
+        Mockito.when(config.getPoolMaxActive()).thenReturn(2);
+        Mockito.when(config.getPoolMaxWait()).thenReturn(new TimeSpan("1s"));
+        Mockito.when(config.getPoolIdleTimeout()).thenReturn(new TimeSpan("10m"));
+        Mockito.when(config.getPoolEvictionInterval()).thenReturn(new TimeSpan("0s"));
+        Mockito.when(config.getPoolValidation()).thenReturn(ConnectionValidation.PROBE);
+
+        factory = Mockito.mock(ConnectionFactory.class);
+        Mockito.when(factory.makeObject()).thenAnswer(new Answer<ZuoraConnection>() {
+            @Override
+            public ZuoraConnection answer(final InvocationOnMock invocation) throws Throwable {
+                return Mockito.mock(ZuoraConnection.class);
+            }
+        });
+        Mockito.when(factory.validateObject(Mockito.<ZuoraConnection>any())).thenReturn(true);
+
+        logService = Mockito.mock(LogService.class);
+        pool = new ConnectionPool(factory, config, logService);
+        pool.start();
+    }
+
+    @AfterMethod(groups = "fast")
+    public void tearDown() throws Exception {
+        pool.close();
+    }
+
+    @Test(groups = "fast")
+    public void testWarmUpAndReuse() throws Exception {
+        Assert.assertEquals(pool.getNumIdle(), 1);
+        Assert.assertEquals(pool.getCreatedCount(), 1);
+
+        final ZuoraConnection connection = pool.borrowFromPool();
+        Assert.assertEquals(pool.getNumActive(), 1);
+        Assert.assertEquals(pool.getNumIdle(), 0);
+        pool.returnToPool(connection);
+
+        Assert.assertSame(pool.borrowFromPool(), connection);
+        Assert.assertEquals(pool.getCreatedCount(), 1);
+        Assert.assertEquals(pool.getBorrowedCount(), 2);
+    }
+
+    @Test(groups = "fast")
+    public void testBorrowTimesOutWhenExhausted() throws Exception {
+        pool.borrowFromPool();
+        pool.borrowFromPool();
+        try {
+            pool.borrowFromPool(10, TimeUnit.MILLISECONDS);
+            Assert.fail("Pool should be exhausted");
+        } catch (PoolException expected) {
+            Assert.assertEquals(pool.getTimeoutCount(), 1);
+        }
+        Assert.assertEquals(pool.getNumActive(), 2);
+    }
+
+    @Test(groups = "fast")
+    public void testInvalidConnectionIsReplaced() throws Exception {
+        Mockito.when(factory.validateObject(Mockito.<ZuoraConnection>any())).thenReturn(false);
+
+        final ZuoraConnection connection = pool.borrowFromPool();
+        Assert.assertNotNull(connection);
+        Assert.assertEquals(pool.getValidationFailureCount(), 1);
+        Assert.assertEquals(pool.getDestroyedCount(), 1);
+        Assert.assertEquals(pool.getCreatedCount(), 2);
+    }
+
+    @Test(groups = "fast")
+    public void testCloseDestroysIdleConnections() throws Exception {
+        final ZuoraConnection first = pool.borrowFromPool();
+        final ZuoraConnection second = pool.borrowFromPool();
+        pool.returnToPool(first);
+        pool.returnToPool(second);
+        Assert.assertEquals(pool.getNumIdle(), 2);
+        Assert.assertEquals(pool.getNumActive(), 0);
+
+        pool.close();
+        Assert.assertEquals(pool.getNumIdle(), 0);
+        Assert.assertEquals(pool.getDestroyedCount(), 2);
+    }
+
+    @Test(groups = "fast")
+    public void testEvictorSurvivesFactoryFailures() throws Exception {
+        Mockito.when(config.getPoolEvictionInterval()).thenReturn(new TimeSpan("10ms"));
+        final ConnectionPool evictedPool = new ConnectionPool(factory, config, logService);
+        try {
+            Mockito.when(factory.makeObject()).thenThrow(new IllegalStateException("Zuora down"))
+                                              .thenThrow(new IllegalStateException("Zuora down"))
+                                              .thenReturn(Mockito.mock(ZuoraConnection.class));
+
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (evictedPool.getNumIdle() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(evictedPool.getNumIdle(), 1);
+            Mockito.verify(logService, Mockito.times(2)).log(Mockito.eq(LogService.LOG_WARNING), Mockito.anyString(), Mockito.<Throwable>any());
+        } finally {
+            evictedPool.close();
+        }
+    }
+}
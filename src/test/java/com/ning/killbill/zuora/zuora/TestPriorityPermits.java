@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestPriorityPermits {
+
+    @Test(groups = "fast")
+    public void testReservedPermits() throws Exception {
+        final PriorityPermits permits = new PriorityPermits(3, 1);
+
+        Assert.assertTrue(permits.tryAcquire(ConnectionPriority.NORMAL, 0, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(permits.tryAcquire(ConnectionPriority.NORMAL, 0, TimeUnit.MILLISECONDS));
+        // The last permit is reserved
+        Assert.assertFalse(permits.tryAcquire(ConnectionPriority.NORMAL, 10, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(permits.tryAcquire(ConnectionPriority.HIGH, 0, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(permits.tryAcquire(ConnectionPriority.HIGH, 10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(permits.getAvailablePermits(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testReservationLeavesOnePermit() throws Exception {
+        final PriorityPermits permits = new PriorityPermits(2, 5);
+        Assert.assertEquals(permits.getReserved(), 1);
+        Assert.assertTrue(permits.tryAcquire(ConnectionPriority.NORMAL, 0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(groups = "fast")
+    public void testHighPriorityWaitersGoFirst() throws Exception {
+        final PriorityPermits permits = new PriorityPermits(1, 0);
+        Assert.assertTrue(permits.tryAcquire(ConnectionPriority.NORMAL, 0, TimeUnit.MILLISECONDS));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Boolean> normal = executor.submit(acquire(permits, ConnectionPriority.NORMAL, 300));
+            waitForQueue(permits, ConnectionPriority.NORMAL);
+            final Future<Boolean> high = executor.submit(acquire(permits, ConnectionPriority.HIGH, 5000));
+            waitForQueue(permits, ConnectionPriority.HIGH);
+
+            // The NORMAL caller was queued first, but the released permit goes to the HIGH one
+            permits.release();
+            Assert.assertTrue(high.get(5, TimeUnit.SECONDS));
+            Assert.assertFalse(normal.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Callable<Boolean> acquire(final PriorityPermits permits, final ConnectionPriority priority, final long timeoutMillis) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return permits.tryAcquire(priority, timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+
+    private static void waitForQueue(final PriorityPermits permits, final ConnectionPriority priority) throws InterruptedException {
+        for (int i = 0; i < 200 && permits.getQueueLength(priority) == 0; i++) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(permits.getQueueLength(priority), 1);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import javax.xml.ws.WebServiceException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class TestRetryPolicy {
+
+    private final RetryPolicy retryPolicy = new RetryPolicy(3, 100, 250, 0.5, ImmutableSet.<String>of("REQUEST_EXCEEDED_LIMIT"));
+
+    @Test(groups = "fast")
+    public void testErrorCodes() throws Exception {
+        Assert.assertTrue(retryPolicy.isRetryable("REQUEST_EXCEEDED_LIMIT"));
+        Assert.assertFalse(retryPolicy.isRetryable("INVALID_VALUE"));
+    }
+
+    @Test(groups = "fast")
+    public void testTransportFailures() throws Exception {
+        final Exception readTimeout = new WebServiceException(new SocketTimeoutException("Read timed out"));
+        Assert.assertTrue(retryPolicy.isRetryable(ZuoraOperation.QUERY, readTimeout));
+        Assert.assertTrue(retryPolicy.isRetryable(ZuoraOperation.UPDATE, readTimeout));
+        // The create may have been processed
+        Assert.assertFalse(retryPolicy.isRetryable(ZuoraOperation.CREATE, readTimeout));
+        Assert.assertFalse(retryPolicy.isRetryable(ZuoraOperation.SUBSCRIBE, readTimeout));
+
+        // The request was never sent
+        final Exception connectFailure = new WebServiceException(new ConnectException("Connection refused"));
+        Assert.assertTrue(retryPolicy.isRetryable(ZuoraOperation.CREATE, connectFailure));
+    }
+
+    @Test(groups = "fast")
+    public void testFaultsAreNotRetried() throws Exception {
+        final Exception fault = new TestZuoraConnection.MalformedQueryFault("You have an error in your ZOQL syntax");
+        Assert.assertFalse(retryPolicy.isRetryable(ZuoraOperation.QUERY, fault));
+        Assert.assertFalse(retryPolicy.isRetryable(ZuoraOperation.UPDATE, fault));
+        Assert.assertFalse(retryPolicy.isRetryable(ZuoraOperation.DELETE, new WebServiceException(fault)));
+
+        Assert.assertTrue(retryPolicy.isRetryable(ZuoraOperation.QUERY, new WebServiceException(new IOException("Connection reset"))));
+    }
+
+    @Test(groups = "fast")
+    public void testBackoff() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            final long first = retryPolicy.getBackoffMillis(1);
+            Assert.assertTrue(first > 50 && first <= 100, "Unexpected backoff " + first);
+            final long second = retryPolicy.getBackoffMillis(2);
+            Assert.assertTrue(second > 100 && second <= 200, "Unexpected backoff " + second);
+            final long capped = retryPolicy.getBackoffMillis(10);
+            Assert.assertTrue(capped > 125 && capped <= 250, "Unexpected backoff " + capped);
+        }
+    }
+}
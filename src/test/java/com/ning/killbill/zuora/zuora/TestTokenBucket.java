@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+
+public class TestTokenBucket {
+
+    private static final class ManualTicker extends Ticker {
+
+        private long nanos = 0;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        public void advance(final long duration, final TimeUnit unit) {
+            nanos += unit.toNanos(duration);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testBurstThenRate() throws Exception {
+        final ManualTicker ticker = new ManualTicker();
+        final TokenBucket bucket = new TokenBucket("query", 4, ticker);
+
+        // A full bucket lets one second worth of calls through at once
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(bucket.tryAcquire(0, TimeUnit.MILLISECONDS));
+        }
+        Assert.assertFalse(bucket.tryAcquire(0, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(bucket.getRejectedCount(), 1);
+
+        // Then one token every 250ms
+        ticker.advance(250, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(bucket.tryAcquire(0, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(bucket.tryAcquire(0, TimeUnit.MILLISECONDS));
+
+        // Idle time doesn't build up more than the burst
+        ticker.advance(1, TimeUnit.HOURS);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(bucket.tryAcquire(0, TimeUnit.MILLISECONDS));
+        }
+        Assert.assertFalse(bucket.tryAcquire(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(groups = "fast")
+    public void testWaitsForAToken() throws Exception {
+        final TokenBucket bucket = new TokenBucket("write", 50);
+        for (int i = 0; i < 50; i++) {
+            Assert.assertTrue(bucket.tryAcquire(0, TimeUnit.MILLISECONDS));
+        }
+        // The next token comes 20ms later
+        Assert.assertTrue(bucket.tryAcquire(1, TimeUnit.SECONDS));
+        Assert.assertEquals(bucket.getRejectedCount(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testDisabled() throws Exception {
+        final TokenBucket bucket = new TokenBucket("subscribe", 0, new ManualTicker());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(bucket.tryAcquire(0, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testRatesAreSplitBetweenNodes() throws Exception {
+        final RateLimiters rateLimiters = new RateLimiters(10, 6, 0, 0);
+        Assert.assertSame(rateLimiters.get(ZuoraOperation.CREATE), rateLimiters.get(ZuoraOperation.DELETE));
+        Assert.assertEquals(rateLimiters.getAll().size(), 3);
+
+        rateLimiters.setNumNodes(2);
+        Assert.assertEquals(rateLimiters.get(ZuoraOperation.QUERY).getRate(), 5.0);
+        Assert.assertEquals(rateLimiters.get(ZuoraOperation.UPDATE).getRate(), 3.0);
+        Assert.assertEquals(rateLimiters.get(ZuoraOperation.SUBSCRIBE).getRate(), 0.0);
+
+        rateLimiters.setNumNodes(0);
+        Assert.assertEquals(rateLimiters.getNumNodes(), 1);
+        Assert.assertEquals(rateLimiters.get(ZuoraOperation.QUERY).getRate(), 10.0);
+    }
+}
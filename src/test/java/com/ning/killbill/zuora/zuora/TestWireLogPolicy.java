@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.ning.killbill.zuora.zuora.setup.WireLogging;
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+public class TestWireLogPolicy {
+
+    private WireLogPolicy createPolicy(final WireLogging mode, final double samplePercent, final String operations) {
+        final ZuoraConfig config = Mockito.mock(ZuoraConfig.class);
+        Mockito.when(config.getWireLogging()).thenReturn(mode);
+        Mockito.when(config.getWireLoggingSamplePercent()).thenReturn(samplePercent);
+        Mockito.when(config.getWireLoggingOperations()).thenReturn(operations);
+        Mockito.when(config.getWireLoggingMaxPayloadSize()).thenReturn(1024);
+        return new WireLogPolicy(config);
+    }
+
+    @Test(groups = "fast")
+    public void testModes() throws Exception {
+        final WireLogPolicy off = createPolicy(WireLogging.OFF, 100, "");
+        Assert.assertFalse(off.isLoggingCalls());
+        Assert.assertFalse(off.isLoggingFaults());
+        Assert.assertFalse(off.isLogged("query"));
+
+        final WireLogPolicy errors = createPolicy(WireLogging.ERRORS, 100, "");
+        Assert.assertFalse(errors.isLoggingCalls());
+        Assert.assertTrue(errors.isLoggingFaults());
+        Assert.assertFalse(errors.isLogged("query"));
+
+        Assert.assertTrue(createPolicy(WireLogging.ALL, 0, "").isLogged("query"));
+        Assert.assertTrue(createPolicy(WireLogging.SAMPLED, 100, "").isLogged("query"));
+        Assert.assertFalse(createPolicy(WireLogging.SAMPLED, 0, "").isLogged("query"));
+    }
+
+    @Test(groups = "fast")
+    public void testOperations() throws Exception {
+        final WireLogPolicy policy = createPolicy(WireLogging.OFF, 0, "subscribe, create");
+        Assert.assertTrue(policy.isLoggingCalls());
+        Assert.assertTrue(policy.isLogged("subscribe"));
+        Assert.assertTrue(policy.isLogged("create"));
+        Assert.assertFalse(policy.isLogged("query"));
+        Assert.assertFalse(policy.isLogged((String) null));
+    }
+
+    @Test(groups = "fast")
+    public void testMask() throws Exception {
+        final WireLogPolicy policy = createPolicy(WireLogging.ALL, 0, "");
+        Assert.assertEquals(policy.mask("<ns2:CreditCardNumber>4111111111111111</ns2:CreditCardNumber><ns2:CreditCardSecurityCode>123</ns2:CreditCardSecurityCode>"),
+                            "<ns2:CreditCardNumber>****</ns2:CreditCardNumber><ns2:CreditCardSecurityCode>****</ns2:CreditCardSecurityCode>");
+        Assert.assertEquals(policy.mask("<ns1:username>foo</ns1:username><ns1:password>bar</ns1:password>"),
+                            "<ns1:username>foo</ns1:username><ns1:password>****</ns1:password>");
+        Assert.assertEquals(policy.mask("<ns1:SessionHeader><ns1:session>abc</ns1:session></ns1:SessionHeader>"),
+                            "<ns1:SessionHeader><ns1:session>****</ns1:session></ns1:SessionHeader>");
+        Assert.assertEquals(policy.mask("<ns2:CreditCardHolderName>John</ns2:CreditCardHolderName>"), "<ns2:CreditCardHolderName>John</ns2:CreditCardHolderName>");
+        Assert.assertEquals(policy.mask("<ns2:AchAbaCode>123456789</ns2:AchAbaCode><ns2:BankTransferAccountNumber>DE89370400440532013000</ns2:BankTransferAccountNumber>"),
+                            "<ns2:AchAbaCode>****</ns2:AchAbaCode><ns2:BankTransferAccountNumber>****</ns2:BankTransferAccountNumber>");
+    }
+
+    @Test(groups = "fast")
+    public void testMaskElementsWithAttributes() throws Exception {
+        final WireLogPolicy policy = createPolicy(WireLogging.ALL, 0, "");
+        Assert.assertEquals(policy.mask("<ns2:AchAccountNumber xsi:type=\"xs:string\">1234567890</ns2:AchAccountNumber>"),
+                            "<ns2:AchAccountNumber xsi:type=\"xs:string\">****</ns2:AchAccountNumber>");
+        Assert.assertEquals(policy.mask("<CreditCardNumber xmlns=\"http://object.api.zuora.com/\">4111111111111111</CreditCardNumber>"),
+                            "<CreditCardNumber xmlns=\"http://object.api.zuora.com/\">****</CreditCardNumber>");
+        Assert.assertEquals(policy.mask("<ns2:CreditCardNumberMask>************1111</ns2:CreditCardNumberMask>"),
+                            "<ns2:CreditCardNumberMask>************1111</ns2:CreditCardNumberMask>");
+    }
+
+    @Test(groups = "fast")
+    public void testMaskTruncatedPayload() throws Exception {
+        final WireLogPolicy policy = createPolicy(WireLogging.ALL, 0, "");
+        Assert.assertEquals(policy.mask("<ns2:CreditCardHolderName>John</ns2:CreditCardHolderName><ns2:CreditCardNumber>41111111"),
+                            "<ns2:CreditCardHolderName>John</ns2:CreditCardHolderName><ns2:CreditCardNumber>****");
+        Assert.assertEquals(policy.mask("<ns1:username>foo</ns1:username><ns1:password>ba"), "<ns1:username>foo</ns1:username><ns1:password>****");
+
+        final StringBuilder payload = new StringBuilder("<ns2:CreditCardSecurityCode>123</ns2:CreditCardSecurityCode><ns2:CreditCardNumber>4111");
+        policy.mask(payload);
+        Assert.assertEquals(payload.toString(), "<ns2:CreditCardSecurityCode>****</ns2:CreditCardSecurityCode><ns2:CreditCardNumber>****");
+    }
+}
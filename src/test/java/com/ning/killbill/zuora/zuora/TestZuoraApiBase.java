@@ -33,6 +33,7 @@ import com.ning.billing.payment.api.PaymentApiException;
 import com.ning.killbill.zuora.api.ZuoraPaymentPluginApi;
 import com.ning.killbill.zuora.dao.ZuoraPluginDao;
 import com.ning.killbill.zuora.killbill.DefaultKillbillApi;
+import com.ning.killbill.zuora.metrics.MetricsRegistry;
 import com.ning.killbill.zuora.method.CreditCardProperties;
 import com.ning.killbill.zuora.method.PaymentMethodProperties;
 import com.ning.killbill.zuora.method.PaypalProperties;
@@ -72,6 +73,7 @@ public class TestZuoraApiBase {
 
     protected ZuoraConfig zuoraConfig;
     protected ZuoraApi zuoraApi;
+    protected ZuoraSessionManager sessionManager;
     protected ConnectionFactory connectionFactory;
     protected ConnectionPool pool;
     protected Account account;
@@ -104,8 +106,12 @@ public class TestZuoraApiBase {
         zuoraConfig = factory.buildWithReplacements(ZuoraConfig.class,
                                                     ImmutableMap.of("pluginInstanceName", instanceName));
         zuoraApi = new ZuoraApi(zuoraConfig, logService);
-        connectionFactory = new ConnectionFactory(zuoraConfig, zuoraApi, logService);
-        pool = new ConnectionPool(connectionFactory, zuoraConfig);
+        final MetricsRegistry metrics = new MetricsRegistry();
+        final ZuoraStubFactory stubFactory = new ZuoraStubFactory(zuoraConfig, metrics);
+        sessionManager = new ZuoraSessionManager(zuoraConfig, stubFactory, logService);
+        connectionFactory = new ConnectionFactory(zuoraConfig, zuoraApi, sessionManager, stubFactory, new CircuitBreakers(zuoraConfig),
+                                                  new RateLimiters(zuoraConfig), metrics, logService);
+        pool = new ConnectionPool(connectionFactory, zuoraConfig, logService);
     }
 
 
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.net.SocketTimeoutException;
+
+import javax.xml.ws.WebServiceException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.ning.killbill.zuora.zuora.CircuitBreaker.State;
+
+import com.google.common.collect.ImmutableSet;
+
+public class TestZuoraConnection {
+
+    @Test(groups = "fast")
+    public void testFaultsAreZuoraErrors() throws Exception {
+        final ZuoraError error = ZuoraConnection.getFaultError(new MalformedQueryFault("You have an error in your ZOQL syntax"));
+        Assert.assertNotNull(error);
+        Assert.assertEquals(error.getType(), "MALFORMED_QUERY");
+        Assert.assertEquals(error.getMessage(), "You have an error in your ZOQL syntax");
+    }
+
+    @Test(groups = "fast")
+    public void testTransportFailuresAreNotZuoraErrors() throws Exception {
+        Assert.assertNull(ZuoraConnection.getFaultError(new WebServiceException(new SocketTimeoutException("Read timed out"))));
+        Assert.assertNull(ZuoraConnection.getFaultError(new IllegalStateException()));
+    }
+
+    @Test(groups = "fast")
+    public void testUnavailableFaultsOpenTheBreaker() throws Exception {
+        final RetryPolicy retryPolicy = new RetryPolicy(3, 100, 250, 0.5, ImmutableSet.<String>of("SERVER_UNAVAILABLE", "REQUEST_EXCEEDED_LIMIT"));
+        final CircuitBreaker breaker = new CircuitBreaker("query", 3, 60000);
+
+        ZuoraConnection.recordFault(breaker, retryPolicy, "SERVER_UNAVAILABLE");
+        ZuoraConnection.recordFault(breaker, retryPolicy, "SERVER_UNAVAILABLE");
+        Assert.assertEquals(breaker.getState(), State.CLOSED);
+        ZuoraConnection.recordFault(breaker, retryPolicy, "SERVER_UNAVAILABLE");
+        Assert.assertEquals(breaker.getState(), State.OPEN);
+        Assert.assertFalse(breaker.allowRequest());
+    }
+
+    @Test(groups = "fast")
+    public void testClientFaultsKeepTheBreakerClosed() throws Exception {
+        final RetryPolicy retryPolicy = new RetryPolicy(3, 100, 250, 0.5, ImmutableSet.<String>of("SERVER_UNAVAILABLE", "REQUEST_EXCEEDED_LIMIT"));
+        final CircuitBreaker breaker = new CircuitBreaker("query", 3, 60000);
+
+        final ZuoraError malformedQuery = ZuoraConnection.getFaultError(new MalformedQueryFault("You have an error in your ZOQL syntax"));
+        for (int i = 0; i < 10; i++) {
+            ZuoraConnection.recordFault(breaker, retryPolicy, malformedQuery.getType());
+            ZuoraConnection.recordFault(breaker, retryPolicy, "INVALID_SESSION");
+        }
+        Assert.assertEquals(breaker.getState(), State.CLOSED);
+        Assert.assertEquals(breaker.getFailureCount(), 0);
+    }
+
+    // Same shape as the faults generated from the zuora WSDL
+    public static class MalformedQueryFault extends Exception {
+
+        private final FaultInfo faultInfo = new FaultInfo();
+
+        public MalformedQueryFault(final String message) {
+            super(message);
+        }
+
+        public FaultInfo getFaultInfo() {
+            return faultInfo;
+        }
+    }
+
+    public static class FaultInfo {
+
+        public String getFaultCode() {
+            return "MALFORMED_QUERY";
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.service.log.LogService;
+import org.skife.config.TimeSpan;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ning.killbill.zuora.zuora.setup.ZuoraConfig;
+
+import com.zuora.api.LoginResult;
+import com.zuora.api.Soap;
+
+public class TestZuoraSessionManager {
+
+    private static final int THREADS = 8;
+
+    private final AtomicInteger logins = new AtomicInteger();
+
+    private ZuoraSessionManager sessionManager;
+    private ExecutorService executor;
+
+    @BeforeMethod(groups = "fast")
+    public void setup() throws Exception {
+        final ZuoraConfig config = Mockito.mock(ZuoraConfig.class);
+        Mockito.when(config.getZuoraUserName()).thenReturn("foo");
+        Mockito.when(config.getZuoraPassword()).thenReturn("bar");
+        Mockito.when(config.getSessionRefreshInterval()).thenReturn(new TimeSpan("10m"));
+
+        // Slow logins, so that the concurrent callers pile up behind the first one
+        logins.set(0);
+        final Soap stub = Mockito.mock(Soap.class);
+        Mockito.when(stub.login(Mockito.anyString(), Mockito.anyString())).thenAnswer(new Answer<LoginResult>() {
+            @Override
+            public LoginResult answer(final InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(100);
+                final LoginResult result = new LoginResult();
+                result.setSession("session-" + logins.incrementAndGet());
+                return result;
+            }
+        });
+        final ZuoraStubFactory stubFactory = Mockito.mock(ZuoraStubFactory.class);
+        Mockito.when(stubFactory.createStub()).thenReturn(stub);
+
+        sessionManager = new ZuoraSessionManager(config, stubFactory, Mockito.mock(LogService.class));
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterMethod(groups = "fast")
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test(groups = "fast")
+    public void testConcurrentFirstLoginsAreCoalesced() throws Exception {
+        for (final String session : runConcurrently(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return sessionManager.getSession();
+            }
+        })) {
+            Assert.assertEquals(session, "session-1");
+        }
+        Assert.assertEquals(logins.get(), 1);
+        Assert.assertEquals(sessionManager.getLoginCount(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testConcurrentInvalidationsAreCoalesced() throws Exception {
+        final String staleSession = sessionManager.getSession();
+        final AtomicInteger calls = new AtomicInteger();
+        for (final String session : runConcurrently(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                // Half the callers hit INVALID_SESSION, the others just need a session
+                return calls.incrementAndGet() % 2 == 0 ? sessionManager.invalidate(staleSession) : sessionManager.getSession();
+            }
+        })) {
+            Assert.assertTrue(session.equals("session-1") || session.equals("session-2"), session);
+        }
+        Assert.assertEquals(logins.get(), 2);
+        Assert.assertEquals(sessionManager.getSession(), "session-2");
+    }
+
+    private List<String> runConcurrently(final Callable<String> task) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    start.await();
+                    return task.call();
+                }
+            }));
+        }
+        start.countDown();
+
+        final List<String> results = new ArrayList<String>();
+        for (final Future<String> future : futures) {
+            results.add(future.get(10, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,570 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+
+package com.ning.killbill.zuora.zuora;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.namespace.QName;
+import javax.xml.ws.WebEndpoint;
+import javax.xml.ws.WebServiceClient;
+
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.jaxws.JaxWsServerFactoryBean;
+import org.apache.cxf.service.invoker.BeanInvoker;
+import org.joda.time.DateTime;
+
+import com.zuora.api.DeleteResult;
+import com.zuora.api.Error;
+import com.zuora.api.ErrorCode;
+import com.zuora.api.LoginResult;
+import com.zuora.api.QueryResult;
+import com.zuora.api.SaveResult;
+import com.zuora.api.SessionHeader;
+import com.zuora.api.Soap;
+import com.zuora.api.SubscribeRequest;
+import com.zuora.api.SubscribeResult;
+import com.zuora.api.UnexpectedErrorFault;
+import com.zuora.api.ZuoraService;
+import com.zuora.api.object.Payment;
+import com.zuora.api.object.Subscription;
+import com.zuora.api.object.ZObject;
+
+/**
+ * In-memory zuora SOAP endpoint, served over HTTP with the real WSDL so that the plugin goes through its whole
+ * CXF stack (stubs, interceptors, pool, sessions, retries) without the sandbox.
+ * <p/>
+ * Supports login, query, queryMore, create, update, delete and subscribe. Queries only understand the
+ * <code>select ... from Object where Field = 'value' and ...</code> form generated by the ZOQL builder; the
+ * projection is ignored and whole objects are returned. Latency, errors and session expiry can be injected
+ * and changed while the simulator runs.
+ */
+public class ZuoraSimulator {
+
+    private static final Pattern QUERY = Pattern.compile("\\sfrom\\s+(\\w+)(?:\\s+where\\s+(.*))?$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern CONDITION = Pattern.compile("(\\w+)\\s*(=|!=|<|>)\\s*'((?:\\\\.|[^'\\\\])*)'");
+
+    private final String address;
+    private final Random random = new Random();
+
+    // Objects by zuora type (e.g. Payment) and id
+    private final ConcurrentMap<String, ConcurrentMap<String, ZObject>> objects = new ConcurrentHashMap<String, ConcurrentMap<String, ZObject>>();
+    // Login time of each session
+    private final ConcurrentMap<String, Long> sessions = new ConcurrentHashMap<String, Long>();
+    // Records left to be returned by queryMore
+    private final ConcurrentMap<String, List<ZObject>> queryLocators = new ConcurrentHashMap<String, List<ZObject>>();
+    private final ConcurrentMap<String, AtomicLong> callCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, Method> getters = new ConcurrentHashMap<String, Method>();
+
+    private volatile long latencyMillis = 0;
+    private volatile long latencyJitterMillis = 0;
+    private volatile double errorRate = 0.0;
+    private volatile double failureRate = 0.0;
+    private volatile long sessionTtlMillis = 0;
+    private volatile int queryBatchSize = 2000;
+
+    private Server server;
+
+    /**
+     * @param address where to serve the endpoint, e.g. http://localhost:9797/apps/services/a/27.0
+     */
+    public ZuoraSimulator(final String address) {
+        this.address = address;
+    }
+
+    public synchronized void start() {
+        try {
+            final WebServiceClient serviceClient = ZuoraService.class.getAnnotation(WebServiceClient.class);
+            final WebEndpoint endpoint = ZuoraService.class.getMethod("getSoap").getAnnotation(WebEndpoint.class);
+            final URL wsdlLocation = ZuoraService.class.getClassLoader().getResource(serviceClient.wsdlLocation());
+
+            // The calls are dispatched by name to a proxy of the SEI, only the supported ones need to be implemented
+            final Soap soap = (Soap) Proxy.newProxyInstance(Soap.class.getClassLoader(), new Class<?>[]{Soap.class}, new SoapHandler());
+
+            final JaxWsServerFactoryBean serverFactory = new JaxWsServerFactoryBean();
+            serverFactory.setServiceClass(Soap.class);
+            serverFactory.setInvoker(new BeanInvoker(soap));
+            serverFactory.setWsdlURL(wsdlLocation.toExternalForm());
+            serverFactory.setServiceName(new QName(serviceClient.targetNamespace(), serviceClient.name()));
+            serverFactory.setEndpointName(new QName(serviceClient.targetNamespace(), endpoint.name()));
+            serverFactory.setAddress(address);
+            server = serverFactory.create();
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException("Could not resolve the Zuora WSDL", ex);
+        }
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop();
+            server.destroy();
+            server = null;
+        }
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Every call waits latencyMillis plus a random part of up to jitterMillis before being served.
+     */
+    public void setLatency(final long latencyMillis, final long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = jitterMillis;
+    }
+
+    /**
+     * Fraction of the calls failing with a SERVER_UNAVAILABLE fault (retryable zuora error).
+     */
+    public void setErrorRate(final double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Fraction of the calls failing with an unexpected server error (plain SOAP fault), as a broken zuora would.
+     */
+    public void setFailureRate(final double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Sessions are rejected with INVALID_SESSION once older than the ttl, 0 for sessions which never expire.
+     */
+    public void setSessionTtlMillis(final long sessionTtlMillis) {
+        this.sessionTtlMillis = sessionTtlMillis;
+    }
+
+    public void setQueryBatchSize(final int queryBatchSize) {
+        this.queryBatchSize = queryBatchSize;
+    }
+
+    /**
+     * Makes all the current sessions invalid, the next calls have to login again.
+     */
+    public void expireSessions() {
+        sessions.clear();
+    }
+
+    /**
+     * Stores an object as is (e.g. the accounts or the rate plan charge the tested calls rely on).
+     *
+     * @return the id of the object, generated if it didn't have one
+     */
+    public String seed(final ZObject object) {
+        if (object.getId() == null) {
+            object.setId(newId());
+        }
+        objectsOf(getType(object)).put(object.getId(), object);
+        return object.getId();
+    }
+
+    public List<ZObject> getObjects(final String type) {
+        return new ArrayList<ZObject>(objectsOf(type).values());
+    }
+
+    public long getCallCount(final String operation) {
+        final AtomicLong count = callCounts.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    public Map<String, AtomicLong> getCallCounts() {
+        return Collections.unmodifiableMap(callCounts);
+    }
+
+    private class SoapHandler implements InvocationHandler {
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String operation = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(ZuoraSimulator.this, args);
+            }
+            countCall(operation);
+            simulateLatency();
+
+            if ("login".equals(operation)) {
+                return login();
+            }
+
+            checkSession(findSessionHeader(args));
+            if (random.nextDouble() < failureRate) {
+                throw new IllegalStateException("Simulated zuora failure");
+            }
+            if (random.nextDouble() < errorRate) {
+                throw fault(ErrorCode.SERVER_UNAVAILABLE, "Simulated zuora unavailability");
+            }
+
+            if ("query".equals(operation)) {
+                return query((String) args[0]);
+            } else if ("queryMore".equals(operation)) {
+                return queryMore((String) args[0]);
+            } else if ("create".equals(operation)) {
+                return create(zObjects(args[0]));
+            } else if ("update".equals(operation)) {
+                return update(zObjects(args[0]));
+            } else if ("delete".equals(operation)) {
+                return delete((String) args[0], strings(args[1]));
+            } else if ("subscribe".equals(operation)) {
+                return subscribe(subscribeRequests(args[0]));
+            }
+            throw new UnsupportedOperationException("The zuora simulator does not support " + operation);
+        }
+    }
+
+    private LoginResult login() {
+        final String session = newId();
+        sessions.put(session, System.currentTimeMillis());
+
+        final LoginResult result = new LoginResult();
+        result.setSession(session);
+        result.setServerUrl(address);
+        return result;
+    }
+
+    private void checkSession(final SessionHeader header) throws Exception {
+        final Long loginTime = header == null ? null : sessions.get(header.getSession());
+        if (loginTime == null) {
+            throw fault(ErrorCode.INVALID_SESSION, "Invalid session");
+        }
+        if (sessionTtlMillis > 0 && System.currentTimeMillis() - loginTime > sessionTtlMillis) {
+            sessions.remove(header.getSession());
+            throw fault(ErrorCode.INVALID_SESSION, "Session expired");
+        }
+    }
+
+    private QueryResult query(final String queryString) throws Exception {
+        final Matcher query = QUERY.matcher(queryString);
+        if (!query.find()) {
+            throw fault(ErrorCode.MALFORMED_QUERY, "Cannot parse query " + queryString);
+        }
+
+        final List<Condition> conditions = new ArrayList<Condition>();
+        if (query.group(2) != null) {
+            final Matcher condition = CONDITION.matcher(query.group(2));
+            while (condition.find()) {
+                conditions.add(new Condition(condition.group(1), condition.group(2), condition.group(3).replaceAll("\\\\(.)", "$1")));
+            }
+        }
+
+        final List<ZObject> records = new ArrayList<ZObject>();
+        for (final ZObject object : objectsOf(query.group(1)).values()) {
+            if (matches(object, conditions)) {
+                records.add(object);
+            }
+        }
+        return page(records);
+    }
+
+    private QueryResult queryMore(final String queryLocator) throws Exception {
+        final List<ZObject> records = queryLocators.remove(queryLocator);
+        if (records == null) {
+            throw fault(ErrorCode.INVALID_VALUE, "Unknown query locator " + queryLocator);
+        }
+        return page(records);
+    }
+
+    private QueryResult page(final List<ZObject> records) {
+        final QueryResult result = new QueryResult();
+        final int pageSize = Math.min(records.size(), queryBatchSize);
+        result.getRecords().addAll(records.subList(0, pageSize));
+        result.setSize(records.size());
+        if (pageSize < records.size()) {
+            final String queryLocator = newId();
+            queryLocators.put(queryLocator, new ArrayList<ZObject>(records.subList(pageSize, records.size())));
+            result.setQueryLocator(queryLocator);
+            result.setDone(false);
+        } else {
+            result.setDone(true);
+        }
+        return result;
+    }
+
+    private List<SaveResult> create(final List<ZObject> toCreate) {
+        final List<SaveResult> results = new ArrayList<SaveResult>(toCreate.size());
+        for (final ZObject object : toCreate) {
+            object.setId(newId());
+            if (object instanceof Payment) {
+                fillProcessedPayment((Payment) object);
+            }
+            objectsOf(getType(object)).put(object.getId(), object);
+            results.add(saveResult(object.getId()));
+        }
+        return results;
+    }
+
+    // What the payment gateway would have filled for a successful payment
+    private void fillProcessedPayment(final Payment payment) {
+        final DateTime now = new DateTime();
+        payment.setCreatedDate(now);
+        payment.setUpdatedDate(now);
+        if (payment.getEffectiveDate() == null) {
+            payment.setEffectiveDate(now);
+        }
+        if (payment.getAmount() == null) {
+            payment.setAmount(payment.getAppliedInvoiceAmount() != null ? payment.getAppliedInvoiceAmount() : BigDecimal.ZERO);
+        }
+        payment.setGatewayResponse("Approved");
+        payment.setGatewayResponseCode("100");
+        payment.setReferenceId(newId());
+    }
+
+    private List<SaveResult> update(final List<ZObject> toUpdate) throws Exception {
+        final List<SaveResult> results = new ArrayList<SaveResult>(toUpdate.size());
+        for (final ZObject changes : toUpdate) {
+            final ZObject existing = changes.getId() == null ? null : objectsOf(getType(changes)).get(changes.getId());
+            if (existing == null) {
+                results.add(saveResult(error(ErrorCode.INVALID_ID, "No " + getType(changes) + " with id " + changes.getId())));
+                continue;
+            }
+            merge(changes, existing);
+            results.add(saveResult(existing.getId()));
+        }
+        return results;
+    }
+
+    private List<DeleteResult> delete(final String type, final List<String> ids) {
+        final List<DeleteResult> results = new ArrayList<DeleteResult>(ids.size());
+        for (final String id : ids) {
+            final DeleteResult result = new DeleteResult();
+            result.setId(id);
+            if (objectsOf(type).remove(id) != null) {
+                result.setSuccess(true);
+            } else {
+                result.setSuccess(false);
+                result.getErrors().add(error(ErrorCode.INVALID_ID, "No " + type + " with id " + id));
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    private List<SubscribeResult> subscribe(final List<SubscribeRequest> requests) {
+        final List<SubscribeResult> results = new ArrayList<SubscribeResult>(requests.size());
+        for (final SubscribeRequest request : requests) {
+            final Subscription subscription = request.getSubscriptionData().getSubscription();
+            subscription.setId(newId());
+            subscription.setAccountId(request.getAccount().getId());
+            subscription.setStatus("Active");
+            objectsOf(getType(subscription)).put(subscription.getId(), subscription);
+
+            final SubscribeResult result = new SubscribeResult();
+            result.setSuccess(true);
+            result.setSubscriptionId(subscription.getId());
+            result.setAccountId(request.getAccount().getId());
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static SaveResult saveResult(final String id) {
+        final SaveResult result = new SaveResult();
+        result.setId(id);
+        result.setSuccess(true);
+        return result;
+    }
+
+    private static SaveResult saveResult(final Error error) {
+        final SaveResult result = new SaveResult();
+        result.setSuccess(false);
+        result.getErrors().add(error);
+        return result;
+    }
+
+    private static Error error(final ErrorCode code, final String message) {
+        final Error error = new Error();
+        error.setCode(code);
+        error.setMessage(message);
+        return error;
+    }
+
+    // The fault info class depends on the version of the generated api, so it is only reached by reflection
+    private static UnexpectedErrorFault fault(final ErrorCode code, final String message) throws Exception {
+        final Class<?> faultInfoClass = UnexpectedErrorFault.class.getMethod("getFaultInfo").getReturnType();
+        final Object faultInfo = faultInfoClass.newInstance();
+        faultInfoClass.getMethod("setFaultCode", ErrorCode.class).invoke(faultInfo, code);
+        faultInfoClass.getMethod("setFaultMessage", String.class).invoke(faultInfo, message);
+
+        final Constructor<UnexpectedErrorFault> constructor = UnexpectedErrorFault.class.getConstructor(String.class, faultInfoClass);
+        return constructor.newInstance(message, faultInfo);
+    }
+
+    private boolean matches(final ZObject object, final List<Condition> conditions) throws Exception {
+        for (final Condition condition : conditions) {
+            final Method getter = getter(object.getClass(), condition.field);
+            final Object value = getter == null ? null : getter.invoke(object);
+            if (!condition.matches(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Copies the fields set on the changes, like a zuora update does
+    private void merge(final ZObject changes, final ZObject existing) throws Exception {
+        for (final Method method : changes.getClass().getMethods()) {
+            if (!method.getName().startsWith("set") || method.getParameterTypes().length != 1) {
+                continue;
+            }
+            final Method getter = getter(changes.getClass(), method.getName().substring(3));
+            if (getter == null) {
+                continue;
+            }
+            final Object value = getter.invoke(changes);
+            if (value != null) {
+                method.invoke(existing, value);
+            }
+        }
+    }
+
+    // ZOQL names custom fields Name__c, the generated getter is getNameC
+    private Method getter(final Class<?> objectClass, final String field) {
+        final String property = field.replace("__c", "C");
+        final String key = objectClass.getName() + "#" + property.toLowerCase();
+        final Method cached = getters.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        for (final Method method : objectClass.getMethods()) {
+            if (method.getParameterTypes().length == 0 &&
+                (method.getName().equalsIgnoreCase("get" + property) || method.getName().equalsIgnoreCase("is" + property))) {
+                getters.put(key, method);
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static final class Condition {
+
+        private final String field;
+        private final String operator;
+        private final String value;
+
+        private Condition(final String field, final String operator, final String value) {
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        private boolean matches(final Object actual) {
+            if (actual == null) {
+                return "!=".equals(operator);
+            }
+            final int comparison = compare(actual, value);
+            if ("=".equals(operator)) {
+                return comparison == 0;
+            } else if ("!=".equals(operator)) {
+                return comparison != 0;
+            } else if ("<".equals(operator)) {
+                return comparison < 0;
+            } else {
+                return comparison > 0;
+            }
+        }
+
+        private static int compare(final Object actual, final String literal) {
+            if (actual instanceof BigDecimal) {
+                return ((BigDecimal) actual).compareTo(new BigDecimal(literal));
+            } else if (actual instanceof Number) {
+                return new BigDecimal(actual.toString()).compareTo(new BigDecimal(literal));
+            } else if (actual instanceof DateTime) {
+                return ((DateTime) actual).compareTo(new DateTime(literal));
+            } else if (actual instanceof String) {
+                // ZOQL string comparisons are case insensitive
+                return ((String) actual).compareToIgnoreCase(literal);
+            } else {
+                return actual.toString().compareToIgnoreCase(literal);
+            }
+        }
+    }
+
+    private void simulateLatency() throws InterruptedException {
+        final long jitter = latencyJitterMillis;
+        final long waitMillis = latencyMillis + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+        if (waitMillis > 0) {
+            Thread.sleep(waitMillis);
+        }
+    }
+
+    private void countCall(final String operation) {
+        AtomicLong count = callCounts.get(operation);
+        if (count == null) {
+            callCounts.putIfAbsent(operation, new AtomicLong());
+            count = callCounts.get(operation);
+        }
+        count.incrementAndGet();
+    }
+
+    private ConcurrentMap<String, ZObject> objectsOf(final String type) {
+        ConcurrentMap<String, ZObject> objectsOfType = objects.get(type);
+        if (objectsOfType == null) {
+            objects.putIfAbsent(type, new ConcurrentHashMap<String, ZObject>());
+            objectsOfType = objects.get(type);
+        }
+        return objectsOfType;
+    }
+
+    private static String getType(final ZObject object) {
+        return object.getClass().getSimpleName();
+    }
+
+    // Zuora ids are 32 hex characters
+    private static String newId() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    private static SessionHeader findSessionHeader(final Object[] args) {
+        for (final Object arg : args) {
+            if (arg instanceof SessionHeader) {
+                return (SessionHeader) arg;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<ZObject> zObjects(final Object arg) {
+        return (List<ZObject>) arg;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> strings(final Object arg) {
+        return (List<String>) arg;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<SubscribeRequest> subscribeRequests(final Object arg) {
+        return (List<SubscribeRequest>) arg;
+    }
+}
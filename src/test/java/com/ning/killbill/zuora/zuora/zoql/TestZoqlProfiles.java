@@ -0,0 +1,54 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora.zoql;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.Invoices;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.Payments;
+
+import com.zuora.api.object.Payment;
+
+public class TestZoqlProfiles {
+
+    private static final ZoqlProjection<Payment> SUMMARY = ZoqlProjection.builder(Payments.OBJECT).add(Payments.ID).add(Payments.STATUS).build();
+    private static final ZoqlProjection<Payment> FULL = ZoqlProjection.builder(Payments.OBJECT)
+                                                                      .add(Payments.ID)
+                                                                      .add(Payments.STATUS)
+                                                                      .add(Payments.GATEWAY_ORDER_ID)
+                                                                      .add(Payments.PAYMENT_NUMBER)
+                                                                      .build();
+
+    @Test(groups = "fast")
+    public void testGet() throws Exception {
+        final ZoqlProfiles<Payment> profiles = ZoqlProfiles.of(SUMMARY, FULL);
+        Assert.assertSame(profiles.get(ZoqlProfile.SUMMARY), SUMMARY);
+        Assert.assertSame(profiles.get(ZoqlProfile.FULL), FULL);
+        Assert.assertTrue(SUMMARY.getEstimatedRecordSize() < FULL.getEstimatedRecordSize());
+    }
+
+    @Test(groups = "fast", expectedExceptions = IllegalArgumentException.class)
+    public void testSummaryMustBeIncludedInFull() throws Exception {
+        ZoqlProfiles.of(ZoqlProjection.builder(Payments.OBJECT).add(Payments.ID).add(Payments.COMMENT).build(), FULL);
+    }
+
+    @Test(groups = "fast", expectedExceptions = IllegalArgumentException.class)
+    public void testObjectsCantBeMixed() throws Exception {
+        ZoqlProfiles.of((ZoqlProjection) ZoqlProjection.builder(Invoices.OBJECT).add(Invoices.ID).build(), FULL);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2013 Ning, Inc.
+ *
+ *  Ning licenses this file to you under the Apache License, version 2.0
+ *  (the "License"); you may not use this file except in compliance with the
+ *  License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ *  License for the specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.ning.killbill.zuora.zuora.zoql;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.Accounts;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.Invoices;
+import com.ning.killbill.zuora.zuora.zoql.ZoqlSchema.Payments;
+
+import com.zuora.api.object.Account;
+import com.zuora.api.object.Invoice;
+import com.zuora.api.object.Payment;
+
+public class TestZoqlQuery {
+
+    private static final ZoqlProjection<Account> ACCOUNT_FIELDS = ZoqlProjection.builder(Accounts.OBJECT)
+                                                                                .add(Accounts.ID)
+                                                                                .add(Accounts.ACCOUNT_NUMBER)
+                                                                                .build();
+
+    @Test(groups = "fast")
+    public void testSelect() throws Exception {
+        Assert.assertEquals(ZoqlQuery.select(ACCOUNT_FIELDS).build(), "select Id, AccountNumber from Account");
+        Assert.assertEquals(ZoqlQuery.select(ACCOUNT_FIELDS)
+                                     .where(Accounts.ACCOUNT_NUMBER.eq("foo"))
+                                     .and(Accounts.STATUS.eq("Active"))
+                                     .build(),
+                            "select Id, AccountNumber from Account where AccountNumber = 'foo' and Status = 'Active'");
+    }
+
+    @Test(groups = "fast")
+    public void testComparisons() throws Exception {
+        final ZoqlProjection<Invoice> invoiceFields = ZoqlProjection.builder(Invoices.OBJECT).add(Invoices.INVOICE_NUMBER).build();
+        Assert.assertEquals(ZoqlQuery.select(invoiceFields)
+                                     .where(Invoices.INVOICE_DATE.gt("2013-01-01"))
+                                     .and(Invoices.INVOICE_DATE.lt("2013-02-01"))
+                                     .and(Invoices.STATUS.notEq("Draft"))
+                                     .build(),
+                            "select InvoiceNumber from Invoice where InvoiceDate > '2013-01-01' and InvoiceDate < '2013-02-01' and Status != 'Draft'");
+    }
+
+    @Test(groups = "fast")
+    public void testValuesAreEscaped() throws Exception {
+        final String query = ZoqlQuery.select(ACCOUNT_FIELDS)
+                                      .where(Accounts.ACCOUNT_NUMBER.eq("foo' or AccountNumber != 'bar\\"))
+                                      .build();
+        Assert.assertEquals(query, "select Id, AccountNumber from Account where AccountNumber = 'foo\\' or AccountNumber != \\'bar\\\\'");
+    }
+
+    @Test(groups = "fast", expectedExceptions = NullPointerException.class)
+    public void testNullValue() throws Exception {
+        Accounts.ID.eq(null);
+    }
+
+    @Test(groups = "fast")
+    public void testEstimatedSize() throws Exception {
+        final ZoqlProjection<Payment> idOnly = ZoqlProjection.builder(Payments.OBJECT).add(Payments.ID).build();
+        final ZoqlProjection<Payment> wide = ZoqlProjection.builder(Payments.OBJECT)
+                                                           .add(Payments.ID)
+                                                           .add(Payments.GATEWAY_RESPONSE)
+                                                           .add(Payments.COMMENT)
+                                                           .add(Payments.EFFECTIVE_DATE)
+                                                           .build();
+        Assert.assertTrue(wide.getEstimatedRecordSize() > idOnly.getEstimatedRecordSize());
+
+        final ZoqlQuery<Payment> query = ZoqlQuery.select(wide).where(Payments.ACCOUNT_ID.eq("A00000001"));
+        Assert.assertEquals(query.getEstimatedResultSize(10), 10L * wide.getEstimatedRecordSize());
+    }
+}